@@ -20,4 +20,9 @@ package jenkins.plugins.jclouds.compute;
  */
 final class CloudInstanceDefaults {
     public static final int DEFAULT_INSTANCE_RETENTION_TIME_IN_MINUTES = 30;
+    public static final int DEFAULT_NODE_INVENTORY_TTL_IN_SECONDS = 60;
+    public static final int DEFAULT_LAUNCH_TIMEOUT_IN_SECONDS = 300;
+    public static final int DEFAULT_RESOLVE_CONCURRENCY = 2;
+    public static final int DEFAULT_CREATE_CONCURRENCY = 4;
+    public static final int DEFAULT_BOOTSTRAP_CONCURRENCY = 10;
 }
@@ -22,7 +22,6 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Computer;
-import hudson.slaves.Cloud;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
 
@@ -33,7 +32,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import jenkins.model.Jenkins;
+import jenkins.plugins.jclouds.compute.internal.CapacityLedger;
 import jenkins.plugins.jclouds.compute.internal.NodePlan;
 import jenkins.plugins.jclouds.compute.internal.ProvisionPlannedInstancesAndDestroyAllOnError;
 import jenkins.plugins.jclouds.compute.internal.RunningNode;
@@ -67,40 +66,50 @@ public class JCloudsBuildWrapper extends BuildWrapper {
         return instancesToRun;
     }
 
-    private boolean isBeyondInstanceCap(final String cloudName, int numOfNewInstances) {
-        final Jenkins.CloudList cl = Jenkins.getInstance().clouds;
-        final Cloud c = cl.getByName(cloudName);
-        if (null != c && c instanceof JCloudsCloud) {
-            JCloudsCloud jc = (JCloudsCloud)c;
-            return jc.getRunningNodesCount() + numOfNewInstances >= jc.instanceCap;
-        }
-        return false;
-    }
-
-    private String validateInstanceCaps() throws IOException {
-        Map<String, Integer> startPerCloud = new HashMap<>();
+    /**
+     * Reserves instance slots for all instances to run, so that concurrent provisioning
+     * can not exceed the instance caps.
+     *
+     * @param build The build, used for resolving template names.
+     * @param reservations Receives the reservations.
+     * @return The name of the cloud whose instance cap would be exceeded or {@code null}, if all slots have been reserved.
+     */
+    private String reserveInstances(final AbstractBuild build, final List<CapacityLedger.Reservation> reservations) {
         for (final InstancesToRun inst : instancesToRun) {
-            Integer old = startPerCloud.put(inst.cloudName, Integer.valueOf(inst.count));
-            if (null != old) {
-                startPerCloud.put(inst.cloudName, old + Integer.valueOf(inst.count));
+            final JCloudsCloud c = JCloudsCloud.getByName(inst.cloudName);
+            if (null == c) {
+                continue;
             }
-        }
-        for (final Map.Entry<String,Integer> entry : startPerCloud.entrySet()) {
-            final String cname = entry.getKey();
-            if (isBeyondInstanceCap(cname, entry.getValue().intValue())) {
-                return cname;
+            final String templateName = Util.replaceMacro(inst.getActualTemplateName(), build.getBuildVariableResolver());
+            final JCloudsSlaveTemplate t = c.getTemplate(templateName);
+            if (null == t) {
+                continue;
+            }
+            final CapacityLedger.Reservation r = c.reserve(t, inst.count);
+            if (null == r) {
+                releaseAll(reservations);
+                return inst.cloudName;
             }
+            reservations.add(r);
         }
         return null;
     }
 
+    private static void releaseAll(final List<CapacityLedger.Reservation> reservations) {
+        for (final CapacityLedger.Reservation r : reservations) {
+            r.release();
+        }
+        reservations.clear();
+    }
+
     //
     // convert Jenkins staticy stuff into pojos; performing as little critical stuff here as
     // possible, as this method is very hard to test due to static usage, etc.
     //
     @Override
     public Environment setUp(final AbstractBuild build, Launcher launcher, final BuildListener listener) throws IOException {
-        final String failedCloud = validateInstanceCaps();
+        final List<CapacityLedger.Reservation> reservations = new ArrayList<>();
+        final String failedCloud = reserveInstances(build, reservations);
         if (null != failedCloud) {
             listener.fatalError("Unable to launch supplemental JClouds instances:");
             throw new IOException(String.format("Instance cap for cloud %s reached.", failedCloud));
@@ -136,7 +145,13 @@ public class JCloudsBuildWrapper extends BuildWrapper {
         ProvisionPlannedInstancesAndDestroyAllOnError provisioner = new ProvisionPlannedInstancesAndDestroyAllOnError(
                 MoreExecutors.listeningDecorator(Computer.threadPoolForRemoting), logger, terminateNodes);
 
-        final Iterable<RunningNode> runningNodes = provisioner.apply(nodePlans);
+        final Iterable<RunningNode> runningNodes;
+        try {
+            runningNodes = provisioner.apply(nodePlans);
+        } finally {
+            // All nodes are created (and counted as running) or destroyed now.
+            releaseAll(reservations);
+        }
 
         return new Environment() {
             private JCloudsCloud waitCloud = null;
@@ -157,6 +172,12 @@ public class JCloudsBuildWrapper extends BuildWrapper {
                     waitCloud.phoneHomeAbort();
                 }
                 terminateNodes.apply(runningNodes);
+                for (RunningNode rn : runningNodes) {
+                    final JCloudsCloud c = JCloudsCloud.getByName(rn.getCloudName());
+                    if (null != c) {
+                        c.getInventory().remove(rn.getNode().getId());
+                    }
+                }
                 return true;
             }
 
@@ -15,22 +15,33 @@
  */
 package jenkins.plugins.jclouds.compute;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.inject.ConfigurationException;
 import com.google.inject.Module;
 import hudson.Extension;
 import hudson.Util;
@@ -47,8 +58,8 @@ import hudson.slaves.NodeProvisioner.PlannedNode;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import hudson.util.Secret;
-import hudson.util.StreamTaskListener;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
 import org.jclouds.Constants;
 import org.jclouds.ContextBuilder;
 import org.jclouds.apis.Apis;
@@ -56,8 +67,13 @@ import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.config.ComputeServiceProperties;
 import org.jclouds.compute.domain.ComputeMetadata;
+import org.jclouds.compute.domain.Image;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.options.TemplateOptions;
+import org.jclouds.ec2.EC2Api;
+import org.jclouds.ec2.domain.Reservation;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.jclouds.ec2.features.InstanceApi;
 import org.jclouds.enterprise.config.EnterpriseConfigurationModule;
 import org.jclouds.location.reference.LocationConstants;
 import org.jclouds.logging.jdk.config.JDKLoggingModule;
@@ -74,13 +90,23 @@ import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import shaded.com.google.common.base.Objects;
+import shaded.com.google.common.base.Optional;
+import shaded.com.google.common.base.Predicate;
 import shaded.com.google.common.base.Strings;
+import shaded.com.google.common.base.Supplier;
+import shaded.com.google.common.base.Throwables;
 import shaded.com.google.common.collect.ImmutableSet;
 import shaded.com.google.common.collect.ImmutableSet.Builder;
 import shaded.com.google.common.collect.ImmutableSortedSet;
 import shaded.com.google.common.collect.Iterables;
+import shaded.com.google.common.util.concurrent.AsyncFunction;
+import shaded.com.google.common.util.concurrent.FutureCallback;
+import shaded.com.google.common.util.concurrent.FutureFallback;
+import shaded.com.google.common.util.concurrent.Futures;
+import shaded.com.google.common.util.concurrent.ListenableFuture;
 
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernameListBoxModel;
@@ -93,6 +119,17 @@ import hudson.security.ACL;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import hudson.security.AccessControlled;
 
+import jenkins.plugins.jclouds.compute.internal.ApiRateLimiter;
+import jenkins.plugins.jclouds.compute.internal.BinPackingPlanner;
+import jenkins.plugins.jclouds.compute.internal.CapacityLedger;
+import jenkins.plugins.jclouds.compute.internal.CircuitBreaker;
+import jenkins.plugins.jclouds.compute.internal.CloudGroupRouter;
+import jenkins.plugins.jclouds.compute.internal.DemandForecast;
+import jenkins.plugins.jclouds.compute.internal.ImageCatalog;
+import jenkins.plugins.jclouds.compute.internal.LatencyHistogram;
+import jenkins.plugins.jclouds.compute.internal.NodeInventory;
+import jenkins.plugins.jclouds.compute.internal.NodeTags;
+import jenkins.plugins.jclouds.compute.internal.WeightedRoundRobin;
 import jenkins.plugins.jclouds.internal.CredentialsHelper;
 import jenkins.plugins.jclouds.internal.SSHPublicKeyExtractor;
 
@@ -108,6 +145,25 @@ public class JCloudsCloud extends Cloud {
 
     static final Logger LOGGER = Logger.getLogger(JCloudsCloud.class.getName());
 
+    /* Routers of cloud groups, by group name. */
+    private static final ConcurrentMap<String, CloudGroupRouter> ROUTERS = new ConcurrentHashMap<>();
+    private static final double ROUTER_ALPHA = 0.3;
+    private static final int ROUTER_FAILURE_THRESHOLD = 3;
+    private static final long ROUTER_COOLDOWN_MS = 5 * 60 * 1000L;
+    private static final int MAX_MANUAL_PROVISIONINGS = 50;
+    /* Executors of hinted slaves, which are still being provisioned, by cloud and label. */
+    private static final ConcurrentMap<String, AtomicInteger> HINTS_IN_FLIGHT = new ConcurrentHashMap<>();
+    /* Consecutive provisioning failures, after which a cloud or template is suspended. */
+    static final int BREAKER_THRESHOLD =
+        Integer.getInteger(JCloudsCloud.class.getName() + ".breakerThreshold", 5);
+    static final long BREAKER_COOLDOWN_MS =
+        Long.getLong(JCloudsCloud.class.getName() + ".breakerCooldownMs", 300000L);
+    /* Clouds, which have started a provisioning pipeline. */
+    private static final Set<JCloudsCloud> PIPELINE_OWNERS =
+        Collections.newSetFromMap(new ConcurrentHashMap<JCloudsCloud, Boolean>());
+    private static final int IMAGE_CATALOG_TTL =
+        Integer.getInteger(JCloudsCloud.class.getName() + ".imageCatalogTtl", 600);
+
     /** @deprecated Not used anymore, but retained for backward compatibility during deserialization. */
     private final transient String identity;
     /** @deprecated Not used anymore, but retained for backward compatibility during deserialization. */
@@ -134,7 +190,22 @@ public class JCloudsCloud extends Cloud {
     private String cloudCredentialsId;
     private String groupPrefix;
     private final boolean trustAll;
+    private final int nodeInventoryTtl;
+    private final int resolveConcurrency;
+    private final int createConcurrency;
+    private final int bootstrapConcurrency;
+    private final boolean predictiveProvisioning;
+    private final String cloudGroup;
     private transient List<PhoneHomeMonitor> phms;
+    private transient NodeInventory inventory;
+    private transient ImageCatalog imageCatalog;
+    private transient ProvisioningPipeline pipeline;
+    private transient CapacityLedger ledger;
+    private transient ConcurrentMap<String, List<JCloudsSlaveTemplate>> labelIndex;
+    private transient Map<String, ManualProvisioning> manualProvisionings;
+    private transient AtomicInteger manualProvisioningIds;
+    private transient ConcurrentMap<String, WeightedRoundRobin> templateSelectors;
+    private transient CircuitBreaker breaker;
 
     static List<String> getCloudNames() {
         List<String> cloudNames = new ArrayList<String>();
@@ -226,7 +297,9 @@ public class JCloudsCloud extends Cloud {
     @DataBoundConstructor
     public JCloudsCloud(final String profile, final String providerName, final String cloudCredentialsId, final String cloudGlobalKeyId,
             final String endPointUrl, final int instanceCap, final int retentionTime, final int scriptTimeout, final int startTimeout,
-            final String zones, final String groupPrefix, final boolean trustAll, final List<JCloudsSlaveTemplate> templates) {
+            final String zones, final String groupPrefix, final boolean trustAll, final int nodeInventoryTtl,
+            final int resolveConcurrency, final int createConcurrency, final int bootstrapConcurrency,
+            final boolean predictiveProvisioning, final String cloudGroup, final List<JCloudsSlaveTemplate> templates) {
         super(Util.fixEmptyAndTrim(profile));
         this.profile = Util.fixEmptyAndTrim(profile);
         this.providerName = Util.fixEmptyAndTrim(providerName);
@@ -245,6 +318,12 @@ public class JCloudsCloud extends Cloud {
         this.zones = Util.fixEmptyAndTrim(zones);
         this.trustAll = trustAll;
         this.groupPrefix = groupPrefix;
+        this.nodeInventoryTtl = nodeInventoryTtl;
+        this.resolveConcurrency = resolveConcurrency;
+        this.createConcurrency = createConcurrency;
+        this.bootstrapConcurrency = bootstrapConcurrency;
+        this.predictiveProvisioning = predictiveProvisioning;
+        this.cloudGroup = Util.fixEmptyAndTrim(cloudGroup);
         readResolve();
     }
 
@@ -252,6 +331,11 @@ public class JCloudsCloud extends Cloud {
         for (JCloudsSlaveTemplate template : templates) {
             template.cloud = this;
         }
+        labelIndex = new ConcurrentHashMap<>();
+        templateSelectors = new ConcurrentHashMap<>();
+        manualProvisionings = new LinkedHashMap<>();
+        manualProvisioningIds = new AtomicInteger();
+        breaker = new CircuitBreaker(BREAKER_THRESHOLD, BREAKER_COOLDOWN_MS);
         return this;
     }
 
@@ -264,6 +348,16 @@ public class JCloudsCloud extends Cloud {
         return retentionTime == 0 ? CloudInstanceDefaults.DEFAULT_INSTANCE_RETENTION_TIME_IN_MINUTES : retentionTime;
     }
 
+    /**
+     * Get the number of seconds, the cached list of nodes is considered valid or
+     * the default value from CloudInstanceDefaults if it is zero.
+     * @return The inventory TTL in seconds.
+     * @see CloudInstanceDefaults#DEFAULT_NODE_INVENTORY_TTL_IN_SECONDS
+     */
+    public int getNodeInventoryTtl() {
+        return nodeInventoryTtl <= 0 ? CloudInstanceDefaults.DEFAULT_NODE_INVENTORY_TTL_IN_SECONDS : nodeInventoryTtl;
+    }
+
     private static final Iterable<Module> MODULES = ImmutableSet.<Module>of(new SshjSshClientModule(), new JDKLoggingModule() {
         @Override
         public org.jclouds.logging.Logger.LoggerFactory createLoggerFactory() {
@@ -317,8 +411,10 @@ public class JCloudsCloud extends Cloud {
     private static ComputeServiceContext ctx(final String provider, final String credId, final Properties overrides) {
         // correct the classloader so that extensions can be found
         Thread.currentThread().setContextClassLoader(Apis.class.getClassLoader());
-        return CredentialsHelper.setCredentials(ContextBuilder.newBuilder(provider), credId)
+        final ComputeServiceContext ctx = CredentialsHelper.setCredentials(ContextBuilder.newBuilder(provider), credId)
             .overrides(overrides).modules(MODULES).buildView(ComputeServiceContext.class);
+        return RateLimitedCompute.wrap(ctx,
+                RateLimitedCompute.getLimiter(provider, credId, overrides.getProperty(Constants.PROPERTY_ENDPOINT)));
     }
 
     static ComputeServiceContext ctx(final String provider, final String credId, final String url, final String zones) {
@@ -357,61 +453,344 @@ public class JCloudsCloud extends Cloud {
      */
     @Override
     public Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
-        final JCloudsSlaveTemplate template = getTemplate(label);
+        if (null == cloudGroup) {
+            return provisionLocally(label, excessWorkload);
+        }
+        // Route to the best members of the group. Members at their instance cap return no nodes.
+        final List<PlannedNode> ret = new ArrayList<>();
+        final CloudGroupRouter router = getRouter(cloudGroup);
+        final Map<String, JCloudsCloud> members = getGroupMembers(cloudGroup, label);
+        if (members.isEmpty()) {
+            return provisionLocally(label, excessWorkload);
+        }
+        for (final String name : router.rank(members.keySet(), System.currentTimeMillis())) {
+            if (excessWorkload <= 0) {
+                break;
+            }
+            try {
+                for (final PlannedNode pn : members.get(name).provisionLocally(label, excessWorkload)) {
+                    ret.add(pn);
+                    excessWorkload -= pn.numExecutors;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Provisioning in cloud " + name + " of group " + cloudGroup + " failed", e);
+                router.recordFailure(name, System.currentTimeMillis());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Retrieves the router of a cloud group.
+     * @param group The name of the group.
+     * @return The router.
+     */
+    static CloudGroupRouter getRouter(final String group) {
+        CloudGroupRouter ret = ROUTERS.get(group);
+        if (null == ret) {
+            ret = new CloudGroupRouter(ROUTER_ALPHA, ROUTER_FAILURE_THRESHOLD, ROUTER_COOLDOWN_MS);
+            final CloudGroupRouter existing = ROUTERS.putIfAbsent(group, ret);
+            if (null != existing) {
+                ret = existing;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Collects the clouds of a group, which can provision a label.
+     * @param group The name of the group.
+     * @param label The label to provision for.
+     * @return The members by name, in configured order.
+     */
+    private static Map<String, JCloudsCloud> getGroupMembers(final String group, final Label label) {
+        final Map<String, JCloudsCloud> ret = new LinkedHashMap<>();
+        for (final Cloud c : Jenkins.getInstance().clouds) {
+            if (JCloudsCloud.class.isInstance(c) && group.equals(((JCloudsCloud) c).cloudGroup) && c.canProvision(label)) {
+                ret.put(c.name, (JCloudsCloud) c);
+            }
+        }
+        return ret;
+    }
+
+    private List<PlannedNode> provisionLocally(final Label label, int excessWorkload) {
+        final long now = System.currentTimeMillis();
+        if (!breaker.allowRequest(now)) {
+            LOGGER.fine("Circuit breaker of cloud " + name + " is open, not provisioning");
+            return Collections.emptyList();
+        }
+        // While half-open, a single node probes the provider.
+        final boolean probing = CircuitBreaker.State.HALF_OPEN == breaker.getState();
+        final List<JCloudsSlaveTemplate> candidates = new ArrayList<>();
+        for (final JCloudsSlaveTemplate t : getTemplates(label)) {
+            if (t.getCircuitBreaker().isAvailable(now)) {
+                candidates.add(t);
+            }
+        }
         List<PlannedNode> plannedNodeList = new ArrayList<PlannedNode>();
 
-        while (excessWorkload > 0 && !Jenkins.getInstance().isQuietingDown() && !Jenkins.getInstance().isTerminating()) {
+        while (excessWorkload > 0 && !Jenkins.getInstance().isQuietingDown() && !Jenkins.getInstance().isTerminating()
+                && !(probing && !plannedNodeList.isEmpty())) {
 
-            if ((getRunningNodesCount() + plannedNodeList.size()) >= instanceCap) {
+            final JCloudsSlaveTemplate template = selectTemplate(label, candidates);
+            if (null == template) {
+                LOGGER.info("Template instance caps reached while adding capacity for label " + ((label != null) ? label.toString() : "null"));
+                break;
+            }
+            if (!template.getCircuitBreaker().allowRequest(now)) {
+                candidates.remove(template);
+                continue;
+            }
+            final boolean templateProbing = CircuitBreaker.State.HALF_OPEN == template.getCircuitBreaker().getState();
+            final CapacityLedger.Reservation reservation = reserve(template);
+            if (null == reservation) {
                 LOGGER.info("Instance cap reached while adding capacity for label " + ((label != null) ? label.toString() : "null"));
+                if (templateProbing) {
+                    template.getCircuitBreaker().cancelProbe();
+                }
                 break; // maxed out
             }
+            if (templateProbing) {
+                candidates.remove(template);
+            }
+            // The slot for this node is reserved already, so it counts as free for the planner.
+            final BinPackingPlanner.Size size = BinPackingPlanner.next(template.getSizes(), excessWorkload,
+                    getFreeSlots(template) + 1);
+
+            /* Cloud instances may have a long init script. If we declare the provisioning complete by returning
+               without the connect operation, NodeProvisioner may decide that it still wants one more instance,
+               because it sees that (1) all the slaves are offline (because it's still being launched) and (2)
+               there's no capacity provisioned yet. Deferring the completion of provisioning until the launch goes
+               successful prevents this problem. The launch is tracked by JCloudsLaunchListener, so no thread
+               is blocked while waiting for it. */
+            final ListenableFuture<JCloudsSlave> registered = provisionSlave(template, size, reservation, candidates);
+            final ListenableFuture<Node> launched = Futures.transform(registered,
+                    new AsyncFunction<JCloudsSlave, Node>() {
+                        public ListenableFuture<Node> apply(final JCloudsSlave slave) {
+                            return JCloudsLaunchListener.expectLaunch(slave, getLaunchTimeout(slave));
+                        }
+                    });
+            if (null != cloudGroup) {
+                recordRouting(launched);
+            }
+            final int executors = template.plannedExecutors(size);
+            plannedNodeList.add(new RegisteringPlannedNode(template.name, launched, executors, registered));
+            excessWorkload -= executors;
+        }
+        if (probing && plannedNodeList.isEmpty()) {
+            breaker.cancelProbe();
+        }
+        return plannedNodeList;
+    }
 
-            plannedNodeList.add(new PlannedNode(template.name, Computer.threadPoolForRemoting.submit(new Callable<Node>() {
-                public Node call() throws Exception {
-                    // TODO: record the output somewhere
-                    JCloudsSlave jcloudsSlave = template.provisionSlave(StreamTaskListener.fromStdout());
-                    Jenkins.getInstance().addNode(jcloudsSlave);
+    /**
+     * Feeds the outcome of provisioning a node into the circuit breakers of this cloud and the template.
+     * @param t The template, the node has been provisioned from.
+     * @param failure The cause of the failure or {@code null}, if the node has been provisioned.
+     */
+    void recordProvisioning(final JCloudsSlaveTemplate t, @CheckForNull final Throwable failure) {
+        if (null == failure) {
+            breaker.recordSuccess();
+            t.getCircuitBreaker().recordSuccess();
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final String cause = String.valueOf(failure);
+        if (breaker.recordFailure(now, cause)) {
+            LOGGER.warning(String.format("Provisioning in cloud %s failed %d times in a row, suspending it for %d seconds",
+                        name, breaker.getConsecutiveFailures(), BREAKER_COOLDOWN_MS / 1000));
+        }
+        if (t.getCircuitBreaker().recordFailure(now, cause)) {
+            LOGGER.warning(String.format("Provisioning from template %s failed %d times in a row, suspending it for %d seconds",
+                        t.name, t.getCircuitBreaker().getConsecutiveFailures(), BREAKER_COOLDOWN_MS / 1000));
+        }
+    }
 
-                    /* Cloud instances may have a long init script. If we declare the provisioning complete by returning
-                       without the connect operation, NodeProvisioner may decide that it still wants one more instance,
-                       because it sees that (1) all the slaves are offline (because it's still being launched) and (2)
-                       there's no capacity provisioned yet. Deferring the completion of provisioning until the launch goes
-                       successful prevents this problem.  */
-                    ensureLaunched(jcloudsSlave);
-                    return jcloudsSlave;
-                }
-            }), template.getNumExecutors()));
-            excessWorkload -= template.getNumExecutors();
+    /**
+     * Returns the probes of the circuit breakers of this cloud and the template, if provisioning
+     * a node has been given up before reaching the provider, so that the next request may probe.
+     * @param t The template, the node was to be provisioned from.
+     */
+    void cancelProbes(final JCloudsSlaveTemplate t) {
+        breaker.cancelProbe();
+        t.getCircuitBreaker().cancelProbe();
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @param t The template.
+     * @return {@code true}, if provisioning from the template is suspended by a circuit breaker.
+     */
+    boolean isSuspended(final JCloudsSlaveTemplate t) {
+        return CircuitBreaker.State.CLOSED != breaker.getState()
+            || CircuitBreaker.State.CLOSED != t.getCircuitBreaker().getState();
+    }
+
+    /**
+     * Describes the open circuit breakers of this cloud and its templates for the cloud page.
+     * @return One line per open breaker, empty if provisioning is not suspended.
+     */
+    public List<String> getCircuitBreakerStatus() {
+        final List<String> ret = new ArrayList<>();
+        describe(ret, "Cloud " + name, breaker);
+        for (final JCloudsSlaveTemplate t : templates) {
+            describe(ret, "Template " + t.name, t.getCircuitBreaker());
         }
-        return plannedNodeList;
+        return ret;
     }
 
-    private void ensureLaunched(JCloudsSlave jcloudsSlave) throws InterruptedException, ExecutionException {
-        jcloudsSlave.waitForPhoneHome(null);
-        Integer launchTimeoutSec = 5 * 60;
-        Computer computer = jcloudsSlave.toComputer();
-        long startMoment = System.currentTimeMillis();
-        while (null != computer && computer.isOffline()) {
-            try {
-                LOGGER.info(String.format("Slave [%s] not connected yet", jcloudsSlave.getDisplayName()));
-                computer.connect(false).get();
-                Thread.sleep(5000l);
-            } catch (InterruptedException | ExecutionException e) {
-                LOGGER.warning(String.format("Error while launching slave: %s", e));
+    private static void describe(final List<String> status, final String what, final CircuitBreaker b) {
+        switch (b.getState()) {
+            case OPEN:
+                status.add(String.format("%s: provisioning suspended after %d consecutive failures until %tT (last failure: %s)",
+                            what, b.getConsecutiveFailures(), new Date(b.getRetryAt()), b.getLastFailure()));
+                break;
+            case HALF_OPEN:
+                status.add(String.format("%s: probing after %d consecutive failures", what, b.getConsecutiveFailures()));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Feeds the time-to-online or the failure of a node into the router of this cloud's group.
+     */
+    private void recordRouting(final ListenableFuture<Node> launched) {
+        final CloudGroupRouter router = getRouter(cloudGroup);
+        final long start = System.currentTimeMillis();
+        Futures.addCallback(launched, new FutureCallback<Node>() {
+            public void onSuccess(final Node n) {
+                router.recordSuccess(name, System.currentTimeMillis() - start);
             }
 
-            if ((System.currentTimeMillis() - startMoment) > 1000l * launchTimeoutSec) {
-                String message = String.format("Failed to connect to slave within timeout (%d s).", launchTimeoutSec);
-                LOGGER.warning(message);
-                throw new ExecutionException(new Throwable(message));
+            public void onFailure(final Throwable x) {
+                router.recordFailure(name, System.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Selects the template for the next node, spreading nodes across all matching
+     * templates according to their weights.
+     * @param label The label to provision for.
+     * @param candidates The templates which match the label.
+     * @return The selected template or {@code null}, if all candidates have reached their instance cap.
+     */
+    private JCloudsSlaveTemplate selectTemplate(final Label label, final List<JCloudsSlaveTemplate> candidates) {
+        final Map<String, Integer> weights = new LinkedHashMap<>();
+        for (JCloudsSlaveTemplate t : candidates) {
+            if (t.getInstanceCap() == Integer.MAX_VALUE
+                    || t.getRunningNodesCount() + getLedger().getReserved(t.name) < t.getInstanceCap()) {
+                weights.put(t.name, t.getWeight());
             }
         }
+        final String key = null == label ? "" : label.getExpression();
+        WeightedRoundRobin selector = templateSelectors.get(key);
+        if (null == selector) {
+            selector = new WeightedRoundRobin();
+            final WeightedRoundRobin existing = templateSelectors.putIfAbsent(key, selector);
+            if (null != existing) {
+                selector = existing;
+            }
+        }
+        final String name = selector.next(weights);
+        return null == name ? null : getTemplate(name);
+    }
+
+    /**
+     * Determines the number of nodes, which may still be created from a template without exceeding
+     * the instance caps of the template and this cloud.
+     * @param t The template.
+     * @return The number of free slots.
+     */
+    private int getFreeSlots(final JCloudsSlaveTemplate t) {
+        int ret = instanceCap - getRunningNodesCount() - getLedger().getReserved();
+        if (t.getInstanceCap() != Integer.MAX_VALUE) {
+            ret = Math.min(ret, t.getInstanceCap() - t.getRunningNodesCount() - getLedger().getReserved(t.name));
+        }
+        return Math.max(0, ret);
+    }
+
+    /**
+     * Provisions a slave of the given size from the given template, falling back to the
+     * default size of the remaining candidates if that fails. Candidates whose circuit breaker
+     * does not let a request through are skipped. An overloaded or shut down pipeline does
+     * not trigger the fallback, because it would reject the other templates as well.
+     */
+    private ListenableFuture<JCloudsSlave> provisionSlave(final JCloudsSlaveTemplate first, final BinPackingPlanner.Size size,
+            final CapacityLedger.Reservation reservation, final List<JCloudsSlaveTemplate> candidates) {
+        ListenableFuture<JCloudsSlave> ret = getPipeline().provisionSlave(first, size, reservation);
+        for (final JCloudsSlaveTemplate t : candidates) {
+            if (t != first) {
+                ret = Futures.withFallback(ret, new FutureFallback<JCloudsSlave>() {
+                    public ListenableFuture<JCloudsSlave> create(final Throwable x) {
+                        final CapacityLedger.Reservation r = reserveFallback(t, x);
+                        if (null == r) {
+                            return Futures.immediateFailedFuture(x);
+                        }
+                        LOGGER.log(Level.WARNING, String.format("Provisioning from template %s failed, falling back to %s",
+                                    first.name, t.name), x);
+                        return getPipeline().provisionSlave(t, r);
+                    }
+                });
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reserves an instance slot for falling back to another template after a provisioning has failed.
+     * @param t The template to fall back to.
+     * @param x The cause of the failure.
+     * @return The reservation or {@code null}, if no fallback should be attempted.
+     */
+    @CheckForNull
+    CapacityLedger.Reservation reserveFallback(final JCloudsSlaveTemplate t, final Throwable x) {
+        if (x instanceof RejectedExecutionException || x instanceof CancellationException
+                || !t.getCircuitBreaker().allowRequest(System.currentTimeMillis())) {
+            return null;
+        }
+        final boolean probing = CircuitBreaker.State.HALF_OPEN == t.getCircuitBreaker().getState();
+        final CapacityLedger.Reservation ret = reserve(t);
+        if (null == ret && probing) {
+            t.getCircuitBreaker().cancelProbe();
+        }
+        return ret;
+    }
+
+    /**
+     * Get the number of seconds to wait for a new slave to come online, including the time
+     * needed for phoning home.
+     * @return The launch timeout in seconds or 0, if the slave should be awaited forever.
+     */
+    private int getLaunchTimeout(final JCloudsSlave slave) {
+        final JCloudsSlaveTemplate t = getTemplate(slave.getTemplateName());
+        final int ret = null == t ? CloudInstanceDefaults.DEFAULT_LAUNCH_TIMEOUT_IN_SECONDS : t.getLaunchTimeout();
+        if (slave.isWaitPhoneHome()) {
+            if (slave.getWaitPhoneHomeTimeout() <= 0) {
+                return 0;
+            }
+            return ret + 60 * slave.getWaitPhoneHomeTimeout();
+        }
+        return ret;
     }
 
     @Override
     public boolean canProvision(final Label label) {
-        return getTemplate(label) != null;
+        final long now = System.currentTimeMillis();
+        if (!breaker.isAvailable(now)) {
+            return false;
+        }
+        for (final JCloudsSlaveTemplate t : getTemplates(label)) {
+            if (t.getCircuitBreaker().isAvailable(now)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public JCloudsSlaveTemplate getTemplate(String name) {
@@ -427,18 +806,50 @@ public class JCloudsCloud extends Cloud {
      * @return The slave template or {@code null} if the specified label did not match.
      */
     public JCloudsSlaveTemplate getTemplate(Label label) {
-        for (JCloudsSlaveTemplate t : templates)
-            if (label == null || label.matches(t.getLabelSet()))
-                return t;
-        return null;
+        final List<JCloudsSlaveTemplate> candidates = getTemplates(label);
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    /**
+     * Gets all {@link jenkins.plugins.jclouds.compute.JCloudsSlaveTemplate}s that have the matching {@link Label}.
+     * The result is memoized per label expression.
+     * @param label The label to be matched.
+     * @return The matching slave templates in configuration order.
+     */
+    public List<JCloudsSlaveTemplate> getTemplates(Label label) {
+        final String key = null == label ? "" : label.getExpression();
+        List<JCloudsSlaveTemplate> ret = labelIndex.get(key);
+        if (null == ret) {
+            final List<JCloudsSlaveTemplate> tmp = new ArrayList<>();
+            for (JCloudsSlaveTemplate t : templates) {
+                if (label == null || label.matches(t.getLabelSet())) {
+                    tmp.add(t);
+                }
+            }
+            ret = Collections.unmodifiableList(tmp);
+            labelIndex.put(key, ret);
+        }
+        return ret;
     }
 
-    JCloudsSlave doProvisionFromTemplate(final JCloudsSlaveTemplate t) throws IOException {
-        final StringWriter sw = new StringWriter();
-        final StreamTaskListener listener = new StreamTaskListener(sw);
-        JCloudsSlave node = t.provisionSlave(listener);
-        Jenkins.getInstance().addNode(node);
-        return node;
+    /**
+     * Provisions a new slave and waits until it has been added to Jenkins.
+     * @param t The template to use.
+     * @param reservation The reserved instance slot, which gets released once the node has been created.
+     * @return The new slave.
+     * @throws IOException if provisioning fails.
+     */
+    JCloudsSlave doProvisionFromTemplate(final JCloudsSlaveTemplate t, final CapacityLedger.Reservation reservation)
+            throws IOException {
+        try {
+            return getPipeline().provisionSlave(t, reservation).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException(e.getCause());
+        }
     }
 
     /**
@@ -464,33 +875,556 @@ public class JCloudsCloud extends Cloud {
                    return;
                }
 
-               if (getRunningNodesCount() < instanceCap) {
-                   JCloudsSlave node = doProvisionFromTemplate(t);
-                   rsp.sendRedirect2(req.getContextPath() + "/computer/" + node.getNodeName());
+               final CapacityLedger.Reservation reservation = reserve(t);
+               if (null != reservation) {
+                   final ManualProvisioning mp = startManualProvisioning(t, reservation);
+                   rsp.sendRedirect2(req.getContextPath() + "/cloud/" + Util.rawEncode(this.name) + "/provisioning/" + mp.getId() + "/");
                } else {
                    sendError("Instance cap for this cloud is now reached for cloud profile: " + profile + " for template type " + name, req, rsp);
                }
     }
 
     /**
-     * Determine how many nodes are currently running for this cloud.
-     * @return number of running nodes.
+     * Provisions slaves ahead of demand, which has been announced by an external orchestrator.
+     * Idle and launching slaves which serve the label are taken into account, so repeated hints
+     * do not accumulate. Slaves which remain unused for the given time after coming online are released.
+     * @param label The label of the builds to come.
+     * @param executors The number of executors which will be needed.
+     * @param ttlSeconds The time in seconds, for which unused slaves are kept.
+     * @return The number of executors being provisioned.
      */
-    int getRunningNodesCount() {
-        int nodeCount = 0;
+    public int provisionHint(final Label label, final int executors, final int ttlSeconds) {
+        final AtomicInteger inFlight = getHintsInFlight(name, label);
+        final int missing = executors - getAvailableExecutors(label) - inFlight.get();
+        if (missing <= 0) {
+            return 0;
+        }
+        int ret = 0;
+        for (final PlannedNode pn : provision(label, missing)) {
+            ret += pn.numExecutors;
+            trackHint(inFlight, pn, label, ttlSeconds);
+        }
+        return ret;
+    }
+
+    static AtomicInteger getHintsInFlight(final String cloudName, @CheckForNull final Label label) {
+        final String k = cloudName + "/" + (null == label ? "" : label.getExpression());
+        final AtomicInteger ret = new AtomicInteger();
+        final AtomicInteger prev = HINTS_IN_FLIGHT.putIfAbsent(k, ret);
+        return null == prev ? ret : prev;
+    }
+
+    /**
+     * A planned node, which additionally signals the registration of its slave. From then on, the
+     * slave is visible as a launching computer, while the planned node completes only after the launch.
+     */
+    static final class RegisteringPlannedNode extends PlannedNode {
+        final ListenableFuture<JCloudsSlave> registered;
 
-        for (ComputeMetadata cm : getCompute().listNodes()) {
-            if (NodeMetadata.class.isInstance(cm)) {
-                NodeMetadata nm = (NodeMetadata) cm;
-                String nodeGroup = removeGroupPrefix(nm.getGroup());
+        RegisteringPlannedNode(final String displayName, final ListenableFuture<Node> future, final int numExecutors,
+                final ListenableFuture<JCloudsSlave> registered) {
+            super(displayName, future, numExecutors);
+            this.registered = registered;
+        }
+    }
 
-                if (getTemplate(nodeGroup) != null && !nm.getStatus().equals(NodeMetadata.Status.SUSPENDED)
-                        && !nm.getStatus().equals(NodeMetadata.Status.TERMINATED)) {
-                    nodeCount++;
+    /**
+     * Retrieves the future, which completes as soon as the slave of a planned node has been added to Jenkins.
+     * @param pn The planned node.
+     * @return The registration or {@code null}, if it can not be observed.
+     */
+    @CheckForNull
+    static ListenableFuture<?> getRegistration(final PlannedNode pn) {
+        if (pn instanceof RegisteringPlannedNode) {
+            return ((RegisteringPlannedNode) pn).registered;
+        }
+        return pn.future instanceof ListenableFuture ? (ListenableFuture<?>) pn.future : null;
+    }
+
+    /**
+     * Counts the executors of a planned node as in flight until its slave has been registered,
+     * because slaves in the pipeline are not yet visible as computers. Registered slaves are counted
+     * as launching computers instead, so they must not be counted twice.
+     * @param inFlight The counter of executors in flight.
+     * @param pn The planned node.
+     */
+    static void trackInFlight(final AtomicInteger inFlight, final PlannedNode pn) {
+        inFlight.addAndGet(pn.numExecutors);
+        final ListenableFuture<?> registration = getRegistration(pn);
+        if (null == registration) {
+            inFlight.addAndGet(-pn.numExecutors);
+            return;
+        }
+        Futures.addCallback(registration, new FutureCallback<Object>() {
+            public void onSuccess(final Object o) {
+                inFlight.addAndGet(-pn.numExecutors);
+            }
+
+            public void onFailure(final Throwable x) {
+                inFlight.addAndGet(-pn.numExecutors);
+            }
+        });
+    }
+
+    /**
+     * Tracks the executors of a hinted slave as in flight and sets the expiry of the hint, once the slave is online.
+     */
+    static void trackHint(final AtomicInteger inFlight, final PlannedNode pn, final Label label, final int ttlSeconds) {
+        trackInFlight(inFlight, pn);
+        if (pn.future instanceof ListenableFuture) {
+            Futures.addCallback((ListenableFuture<Node>) pn.future, new FutureCallback<Node>() {
+                public void onSuccess(final Node n) {
+                    if (n instanceof JCloudsSlave) {
+                        ((JCloudsSlave) n).setHintExpiry(System.currentTimeMillis() + 1000L * ttlSeconds);
+                    }
+                }
+
+                public void onFailure(final Throwable x) {
+                    LOGGER.log(Level.WARNING, "Failed to provision hinted slave for label " + label, x);
+                }
+            });
+        }
+    }
+
+    /**
+     * Counts the executors of JClouds slaves serving a label, which are idle or still launching.
+     */
+    private static int getAvailableExecutors(final Label label) {
+        int ret = 0;
+        for (final Computer c : Jenkins.getInstance().getComputers()) {
+            if (JCloudsComputer.class.isInstance(c)) {
+                final JCloudsSlave node = ((JCloudsComputer) c).getNode();
+                if (null != node && !node.isPendingDelete()
+                        && (null == label ? Node.Mode.NORMAL.equals(node.getMode()) : label.matches(node))) {
+                    ret += c.isOffline() ? node.getNumExecutors() : c.countIdle();
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Provisions a slave in the background and tracks its progress until it is online.
+     * @param t The template to provision from.
+     * @param reservation The reserved instance slot.
+     * @return The progress of the provisioning.
+     */
+    ManualProvisioning startManualProvisioning(final JCloudsSlaveTemplate t, final CapacityLedger.Reservation reservation) {
+        final ManualProvisioning mp = new ManualProvisioning(Integer.toString(manualProvisioningIds.incrementAndGet()), t.name);
+        synchronized (manualProvisionings) {
+            track(manualProvisionings, mp, MAX_MANUAL_PROVISIONINGS);
+        }
+        final ListenableFuture<JCloudsSlave> registered =
+            getPipeline().provisionSlave(t, t.getDefaultSize(), reservation, mp.getTimings());
+        final ListenableFuture<Node> launched = Futures.transform(registered, new AsyncFunction<JCloudsSlave, Node>() {
+            public ListenableFuture<Node> apply(final JCloudsSlave slave) {
+                mp.registered(slave.getNodeName());
+                return JCloudsLaunchListener.expectLaunch(slave, getLaunchTimeout(slave));
+            }
+        });
+        Futures.addCallback(launched, new FutureCallback<Node>() {
+            public void onSuccess(final Node n) {
+                mp.online();
+            }
+
+            public void onFailure(final Throwable x) {
+                LOGGER.log(Level.WARNING, "Manual provisioning from template " + t.name + " failed", x);
+                mp.failed(x);
+            }
+        });
+        return mp;
+    }
+
+    /**
+     * Adds a manual provisioning to the tracked ones. If there are too many, the oldest finished ones are forgotten.
+     * @param provisionings The tracked provisionings by id, in order of their start.
+     * @param mp The new provisioning.
+     * @param max The number of provisionings to keep, unless more are still in progress.
+     */
+    static void track(final Map<String, ManualProvisioning> provisionings, final ManualProvisioning mp, final int max) {
+        provisionings.put(mp.getId(), mp);
+        final Iterator<ManualProvisioning> it = provisionings.values().iterator();
+        while (provisionings.size() > max && it.hasNext()) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Retrieves the progress of a manual provisioning. Used by Stapler for {@code provisioning/<id>/}.
+     * @param id The id of the provisioning.
+     * @return The progress or {@code null}, if unknown.
+     */
+    @CheckForNull
+    public ManualProvisioning getProvisioning(final String id) {
+        checkPermission(PROVISION);
+        synchronized (manualProvisionings) {
+            return manualProvisionings.get(id);
+        }
+    }
+
+    /**
+     * Provisions a replacement for a slave, whose spot instance has been preempted.
+     * @param slave The preempted slave.
+     */
+    void replacePreempted(final JCloudsSlave slave) {
+        final JCloudsSlaveTemplate t = null == slave.getTemplateName() ? null : getTemplate(slave.getTemplateName());
+        if (null == t) {
+            return;
+        }
+        t.spotPreempted(slave.getNodeName());
+        final CapacityLedger.Reservation reservation = reserve(t);
+        if (null == reservation) {
+            LOGGER.info("Instance cap reached, not replacing preempted slave " + slave.getNodeName());
+            return;
+        }
+        LOGGER.info("Replacing preempted slave " + slave.getNodeName());
+        Futures.addCallback(getPipeline().provisionSlave(t, reservation), new FutureCallback<JCloudsSlave>() {
+            public void onSuccess(final JCloudsSlave replacement) {
+                LOGGER.info("Replaced preempted slave " + slave.getNodeName() + " by " + replacement.getNodeName());
+            }
+
+            public void onFailure(final Throwable x) {
+                LOGGER.log(Level.WARNING, "Failed to replace preempted slave " + slave.getNodeName(), x);
+            }
+        });
+    }
+
+    /**
+     * Starts baking a new image for a template, regardless of whether its current image is up to date.
+     */
+    @RequirePOST
+    public void doBake(StaplerRequest req, StaplerResponse rsp, @QueryParameter String name) throws ServletException, IOException {
+        checkPermission(Jenkins.ADMINISTER);
+        if (name == null) {
+            sendError("The slave template name query parameter is missing", req, rsp);
+            return;
+        }
+        JCloudsSlaveTemplate t = getTemplate(name);
+        if (t == null) {
+            sendError("No such slave template with name : " + name, req, rsp);
+            return;
+        }
+        if (!t.bakeImage) {
+            sendError("Image baking is not enabled for slave template " + name, req, rsp);
+            return;
+        }
+        if (!JCloudsImageBaker.startBake(this, t)) {
+            sendError("An image of slave template " + name + " is being baked already", req, rsp);
+            return;
+        }
+        rsp.sendRedirect2(req.getContextPath() + "/computer/");
+    }
+
+    /**
+     * Provides the provisioning latency statistics of all templates as JSON. For every template
+     * and provisioning phase, count, maximum and the 50th, 95th and 99th percentile (in milliseconds)
+     * are reported.
+     *
+     * @param req  {@link StaplerRequest}
+     * @param rsp  {@link StaplerResponse}
+     * @throws IOException if an error occurs.
+     */
+    public void doProvisioningStats(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        checkPermission(Jenkins.READ);
+        final JSONObject ret = new JSONObject();
+        for (final JCloudsSlaveTemplate t : templates) {
+            final JSONObject phases = new JSONObject();
+            for (final Map.Entry<String, LatencyHistogram> e : t.getLatencies().entrySet()) {
+                final LatencyHistogram h = e.getValue();
+                final JSONObject stats = new JSONObject();
+                stats.put("count", h.getCount());
+                stats.put("p50", h.getPercentile(0.5));
+                stats.put("p95", h.getPercentile(0.95));
+                stats.put("p99", h.getPercentile(0.99));
+                stats.put("max", h.getMax());
+                phases.put(e.getKey(), stats);
+            }
+            ret.put(t.name, phases);
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        ret.write(rsp.getWriter());
+    }
+
+    /**
+     * Reports the recorded demand and the forecast accuracy per label as JSON:
+     * <code>{label: {forecast, evaluatedHours, meanAbsoluteError, meanActual, coveredDemand,
+     * estimatedQueueWaitSavedSeconds}}</code>. Unlabeled builds are reported with an empty label.
+     * The estimated savings assume, that each covered executor saved a build from waiting for
+     * the median ramp-up time of a new slave.
+     * @param req The stapler request.
+     * @param rsp The stapler response.
+     * @throws IOException if writing the response fails.
+     */
+    public void doDemandForecast(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        checkPermission(Jenkins.READ);
+        final JSONObject ret = new JSONObject();
+        final DemandForecast forecast = JCloudsDemandForecaster.getForecast(name);
+        final long target = System.currentTimeMillis() + JCloudsDemandForecaster.getLeadMillis();
+        for (final String l : forecast.getLabels()) {
+            final DemandForecast.Accuracy a = forecast.getAccuracy(l);
+            final JSONObject stats = new JSONObject();
+            stats.put("forecast", forecast.forecast(l, target));
+            stats.put("evaluatedHours", a.getEvaluatedHours());
+            stats.put("meanAbsoluteError", a.getMeanAbsoluteError());
+            stats.put("meanActual", a.getMeanActual());
+            stats.put("coveredDemand", a.getCoveredDemand());
+            stats.put("estimatedQueueWaitSavedSeconds", Math.round(a.getCoveredDemand()
+                        * JCloudsDemandForecaster.getRampUpMillis(this, JCloudsDemandForecaster.toLabel(l)) / 1000.0));
+            ret.put(l, stats);
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        ret.write(rsp.getWriter());
+    }
+
+    /**
+     * Whether capacity is provisioned ahead of the demand, forecast from the demand history.
+     * @return {@code true}, if predictive provisioning is enabled.
+     */
+    public boolean isPredictiveProvisioning() {
+        return predictiveProvisioning;
+    }
+
+    /**
+     * The group of clouds serving the same labels, between which new nodes are routed.
+     * @return The name of the group or {@code null}.
+     */
+    @CheckForNull
+    public String getCloudGroup() {
+        return cloudGroup;
+    }
+
+    public int getResolveConcurrency() {
+        return resolveConcurrency <= 0 ? CloudInstanceDefaults.DEFAULT_RESOLVE_CONCURRENCY : resolveConcurrency;
+    }
+
+    public int getCreateConcurrency() {
+        return createConcurrency <= 0 ? CloudInstanceDefaults.DEFAULT_CREATE_CONCURRENCY : createConcurrency;
+    }
+
+    public int getBootstrapConcurrency() {
+        return bootstrapConcurrency <= 0 ? CloudInstanceDefaults.DEFAULT_BOOTSTRAP_CONCURRENCY : bootstrapConcurrency;
+    }
+
+    /**
+     * Retrieves the staged provisioning pipeline of this cloud.
+     * @return The provisioning pipeline.
+     */
+    synchronized ProvisioningPipeline getPipeline() {
+        if (null == pipeline) {
+            pipeline = new ProvisioningPipeline(name, getResolveConcurrency(), getCreateConcurrency(),
+                    getBootstrapConcurrency());
+            PIPELINE_OWNERS.add(this);
+        }
+        return pipeline;
+    }
+
+    /**
+     * Shuts down the provisioning pipelines of clouds, which have been removed or replaced
+     * by a reconfiguration. Provisionings in progress are completed.
+     * @param current The currently configured clouds.
+     */
+    static void shutdownRemovedPipelines(final Collection<? extends Cloud> current) {
+        for (final JCloudsCloud c : PIPELINE_OWNERS) {
+            if (!current.contains(c) && PIPELINE_OWNERS.remove(c)) {
+                LOGGER.info("Shutting down provisioning pipeline of removed cloud " + c.name);
+                synchronized (c) {
+                    c.pipeline.shutdown();
                 }
             }
         }
-        return nodeCount;
+    }
+
+    /**
+     * Retrieves the ledger of instance slots, which are reserved for nodes being created.
+     * @return The capacity ledger.
+     */
+    synchronized CapacityLedger getLedger() {
+        if (null == ledger) {
+            ledger = new CapacityLedger(new CapacityLedger.Usage() {
+                public int getRunning() {
+                    return getRunningNodesCount();
+                }
+
+                public int getRunning(final String template) {
+                    final JCloudsSlaveTemplate t = getTemplate(template);
+                    return null == t ? 0 : t.getRunningNodesCount();
+                }
+            });
+        }
+        return ledger;
+    }
+
+    /**
+     * Atomically checks the instance caps of this cloud and the given template
+     * and reserves slots for new nodes.
+     * @param t The template to provision from.
+     * @param count The number of nodes to be created.
+     * @return The reservation or {@code null}, if an instance cap would be exceeded.
+     */
+    @CheckForNull
+    CapacityLedger.Reservation reserve(final JCloudsSlaveTemplate t, final int count) {
+        return getLedger().tryReserve(t.name, count, instanceCap, t.getInstanceCap());
+    }
+
+    @CheckForNull
+    CapacityLedger.Reservation reserve(final JCloudsSlaveTemplate t) {
+        return reserve(t, 1);
+    }
+
+    /**
+     * Retrieves the cached inventory of nodes, belonging to this cloud.
+     * @return The node inventory.
+     */
+    synchronized NodeInventory getInventory() {
+        if (null == inventory) {
+            inventory = new NodeInventory(new Supplier<Set<? extends ComputeMetadata>>() {
+                public Set<? extends ComputeMetadata> get() {
+                    return listOwnNodes();
+                }
+            }, new Predicate<NodeMetadata>() {
+                public boolean apply(final NodeMetadata nm) {
+                    // Nodes tagged by another cloud may share our group names in the same account.
+                    return getTemplate(removeGroupPrefix(nm.getGroup())) != null
+                        && (!nm.getUserMetadata().containsKey(NodeTags.CLOUD) || NodeTags.belongsTo(nm, name));
+                }
+            }, 1000L * getNodeInventoryTtl(), Computer.threadPoolForRemoting);
+        }
+        return inventory;
+    }
+
+    /**
+     * Lists the nodes of this cloud. On EC2, only nodes tagged with the name of this cloud are
+     * listed by a filter on the provider side, plus the nodes of our slaves, which may have
+     * been created before tagging was introduced. Other providers list all nodes of the account.
+     * @return The nodes of this cloud (and possibly others, which are filtered by the inventory).
+     */
+    private Set<? extends ComputeMetadata> listOwnNodes() {
+        final ComputeService cs = getCompute();
+        final EC2Api ec2Api;
+        try {
+            ec2Api = cs.getContext().unwrapApi(EC2Api.class);
+        } catch (IllegalArgumentException | ClassCastException | ConfigurationException e) {
+            // Not an EC2 based provider
+            return cs.listNodes();
+        }
+        final Optional<? extends InstanceApi> instanceApi = ec2Api.getInstanceApi();
+        if (!instanceApi.isPresent()) {
+            return cs.listNodes();
+        }
+        // The EC2 API bypasses the rate limited compute service.
+        final ApiRateLimiter limiter = getLimiter();
+        final Set<String> tagged = new HashSet<>();
+        try {
+            final Set<String> regions = RateLimitedCompute.limited(limiter, new Supplier<Set<String>>() {
+                public Set<String> get() {
+                    return ec2Api.getConfiguredRegions();
+                }
+            });
+            for (final String region : regions) {
+                final Set<? extends Reservation<? extends RunningInstance>> reservations =
+                    RateLimitedCompute.limited(limiter, new Supplier<Set<? extends Reservation<? extends RunningInstance>>>() {
+                        public Set<? extends Reservation<? extends RunningInstance>> get() {
+                            return instanceApi.get().describeInstancesInRegionWithFilter(region, NodeTags.ec2Filter(name));
+                        }
+                    });
+                for (final Reservation<? extends RunningInstance> r : reservations) {
+                    for (final RunningInstance ri : r) {
+                        tagged.add(region + "/" + ri.getId());
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Filtered listing of nodes failed, listing all nodes", e);
+            return cs.listNodes();
+        }
+        // Listed separately, because EC2 rejects the whole request, if any id is unknown.
+        final Set<String> untagged = new HashSet<>();
+        for (final Computer c : Jenkins.getInstance().getComputers()) {
+            if (JCloudsComputer.class.isInstance(c)) {
+                final JCloudsSlave slave = ((JCloudsComputer) c).getNode();
+                if (null != slave && name.equals(slave.getCloudName()) && null != slave.getNodeId()
+                        && !tagged.contains(slave.getNodeId())) {
+                    untagged.add(slave.getNodeId());
+                }
+            }
+        }
+        final Set<ComputeMetadata> ret = new HashSet<>();
+        if (!addNodesByIds(cs, tagged, ret) || !addNodesByIds(cs, untagged, ret)) {
+            return cs.listNodes();
+        }
+        return ret;
+    }
+
+    /**
+     * Lists nodes by their ids. A partial result would drop nodes from the inventory,
+     * so it is rejected, if any node is missing.
+     * @param cs The compute service.
+     * @param ids The ids of the nodes.
+     * @param nodes The collection, to which the listed nodes are added.
+     * @return {@code false}, if the listing failed or any of the nodes is unknown to the provider.
+     */
+    static boolean addNodesByIds(final ComputeService cs, final Set<String> ids, final Collection<ComputeMetadata> nodes) {
+        if (ids.isEmpty()) {
+            return true;
+        }
+        final Set<? extends ComputeMetadata> listed;
+        try {
+            listed = cs.listNodesByIds(ids);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.INFO, "Listing nodes by id failed, listing all nodes", e);
+            return false;
+        }
+        final Set<String> missing = new HashSet<>(ids);
+        for (final ComputeMetadata cm : listed) {
+            missing.remove(cm.getId());
+        }
+        if (!missing.isEmpty()) {
+            LOGGER.info("Nodes " + missing + " are unknown to the provider, listing all nodes");
+            return false;
+        }
+        nodes.addAll(listed);
+        return true;
+    }
+
+    /**
+     * @return The limiter, shared by all API calls of the provider account of this cloud.
+     */
+    ApiRateLimiter getLimiter() {
+        return RateLimitedCompute.getLimiter(providerName, cloudCredentialsId,
+                buildJcloudsOverrides(endPointUrl, zones, trustAll).getProperty(Constants.PROPERTY_ENDPOINT));
+    }
+
+    /**
+     * Retrieves the cached catalog of images, available to this cloud.
+     * The images are listed through a separate context, whose session interval is
+     * shortened, so that the image cache of jclouds does not hide new images.
+     * See: https://issues.apache.org/jira/browse/JCLOUDS-570
+     * @return The image catalog.
+     */
+    synchronized ImageCatalog getImageCatalog() {
+        if (null == imageCatalog) {
+            final Properties overrides = buildJcloudsOverrides(endPointUrl, zones, trustAll);
+            overrides.setProperty(Constants.PROPERTY_SESSION_INTERVAL, "1");
+            final ComputeService imageCompute = ctx(providerName, cloudCredentialsId, overrides).getComputeService();
+            imageCatalog = new ImageCatalog(new Supplier<Set<? extends Image>>() {
+                public Set<? extends Image> get() {
+                    return imageCompute.listImages();
+                }
+            }, 1000L * IMAGE_CATALOG_TTL, Computer.threadPoolForRemoting);
+        }
+        return imageCatalog;
+    }
+
+    /**
+     * Determine how many nodes are currently running for this cloud.
+     * The result is served from the node inventory and therefore does not
+     * query the provider more often than once per inventory TTL.
+     * @return number of running nodes.
+     */
+    int getRunningNodesCount() {
+        return getInventory().getRunningCount();
     }
 
     void registerPhoneHomeMonitor(final PhoneHomeMonitor monitor) {
@@ -698,6 +1632,22 @@ public class JCloudsCloud extends Cloud {
             return FormValidation.validatePositiveInteger(value);
         }
 
+        public FormValidation doCheckResolveConcurrency(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckCreateConcurrency(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckBootstrapConcurrency(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckNodeInventoryTtl(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         public FormValidation doCheckEndPointUrl(@QueryParameter String value) {
             if (!value.isEmpty() && !value.startsWith("http")) {
                 return FormValidation.error("The endpoint must be an URL");
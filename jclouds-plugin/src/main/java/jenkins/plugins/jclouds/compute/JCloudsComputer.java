@@ -15,6 +15,7 @@
  */
 package jenkins.plugins.jclouds.compute;
 
+import hudson.Util;
 import hudson.remoting.VirtualChannel;
 import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.OfflineCause;
@@ -22,6 +23,8 @@ import hudson.slaves.SlaveComputer;
 import jenkins.model.Jenkins;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,6 +33,7 @@ import javax.annotation.CheckForNull;
 
 import org.kohsuke.stapler.HttpRedirect;
 import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.export.Exported;
 
 import org.jclouds.compute.domain.NodeMetadata;
 
@@ -64,6 +68,27 @@ public class JCloudsComputer extends AbstractCloudComputer<JCloudsSlave> {
         return null == node ? null : node.getCloudName();
     }
 
+    /**
+     * Get the durations of the provisioning phases of this computer's slave.
+     *
+     * @return The durations in milliseconds by phase.
+     */
+    @Exported
+    public Map<String, Long> getProvisioningTimings() {
+        final JCloudsSlave node = getNode();
+        return null == node ? Collections.<String, Long>emptyMap() : node.getProvisioningTimings();
+    }
+
+    /**
+     * Formats a duration for display.
+     *
+     * @param millis The duration in milliseconds.
+     * @return A human readable representation of the duration.
+     */
+    public String formatDuration(final long millis) {
+        return Util.getTimeSpanString(millis);
+    }
+
     /**
      * Deletes a jenkins slave node.
      * The not is first marked pending delete and the actual deletion will
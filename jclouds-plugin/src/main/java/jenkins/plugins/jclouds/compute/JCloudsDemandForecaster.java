@@ -0,0 +1,306 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.model.queue.WorkUnit;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import jenkins.model.Jenkins;
+
+import jenkins.plugins.jclouds.compute.internal.DemandForecast;
+import jenkins.plugins.jclouds.compute.internal.LatencyHistogram;
+
+import shaded.com.google.common.util.concurrent.FutureCallback;
+import shaded.com.google.common.util.concurrent.Futures;
+import shaded.com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Records the executor demand per label of clouds with predictive provisioning enabled,
+ * and provisions capacity ahead of the demand forecast for the near future.
+ * <p>
+ * The demand history is kept in {@code jclouds-demand-<cloud>.xml} in the Jenkins home directory.
+ */
+@Extension
+public final class JCloudsDemandForecaster extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(JCloudsDemandForecaster.class.getName());
+
+    /* How far ahead (in minutes) capacity is provisioned. */
+    private static final int LEAD_MINUTES =
+        Math.max(1, Math.min(60, Integer.getInteger(JCloudsDemandForecaster.class.getName() + ".leadMinutes", 15)));
+    private static final double ALPHA = 0.3;
+
+    private static final Map<String, DemandForecast> FORECASTS = new ConcurrentHashMap<>();
+    /* Executors of slaves being provisioned ahead of demand, which are not yet registered, by cloud and label. */
+    private static final Map<String, AtomicInteger> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    public JCloudsDemandForecaster() {
+        super("JClouds demand forecaster");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        final Jenkins jenkins = Jenkins.getInstance();
+        for (final Cloud c : jenkins.clouds) {
+            if (JCloudsCloud.class.isInstance(c) && ((JCloudsCloud) c).isPredictiveProvisioning()) {
+                final JCloudsCloud cloud = (JCloudsCloud) c;
+                final DemandForecast forecast = getForecast(cloud.name);
+                final long now = System.currentTimeMillis();
+                final Map<String, Integer> demand = getDemand(cloud);
+                for (final String l : forecast.getLabels()) {
+                    if (!demand.containsKey(l)) {
+                        demand.put(l, Integer.valueOf(0));
+                    }
+                }
+                boolean changed = false;
+                for (final Map.Entry<String, Integer> e : demand.entrySet()) {
+                    changed |= forecast.observe(e.getKey(), e.getValue().intValue(), now);
+                }
+                if (changed) {
+                    save(cloud.name, forecast);
+                }
+                if (!jenkins.isQuietingDown() && !jenkins.isTerminating()) {
+                    for (final String l : demand.keySet()) {
+                        preProvision(cloud, forecast, l, now + LEAD_MINUTES * MIN);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a label expression, as used by the forecast, back into a label.
+     *
+     * @param expression The label expression or an empty string for unlabeled builds.
+     * @return The label or {@code null}.
+     */
+    static Label toLabel(final String expression) {
+        return expression.isEmpty() ? null : Jenkins.getInstance().getLabel(expression);
+    }
+
+    private static String toExpression(final Label label) {
+        return null == label ? "" : label.getExpression();
+    }
+
+    private static boolean matches(final Label label, final Node node) {
+        return null == label ? Node.Mode.NORMAL.equals(node.getMode()) : label.matches(node);
+    }
+
+    private static void add(final Map<String, Integer> map, final String key) {
+        final Integer old = map.get(key);
+        map.put(key, Integer.valueOf(null == old ? 1 : old.intValue() + 1));
+    }
+
+    /**
+     * Determines the current executor demand (busy on slaves of the cloud plus waiting in the queue) by label.
+     * Queued items count for every label the cloud has templates for, even while its circuit breakers are
+     * open, so that an outage of the provider is not recorded as a lack of demand.
+     */
+    static Map<String, Integer> getDemand(final JCloudsCloud cloud) {
+        final Map<String, Integer> ret = new HashMap<>();
+        for (final Queue.BuildableItem bi : Queue.getInstance().getBuildableItems()) {
+            if (!cloud.getTemplates(bi.getAssignedLabel()).isEmpty()) {
+                add(ret, toExpression(bi.getAssignedLabel()));
+            }
+        }
+        for (final Computer c : Jenkins.getInstance().getComputers()) {
+            if (JCloudsComputer.class.isInstance(c)) {
+                final JCloudsSlave node = ((JCloudsComputer) c).getNode();
+                if (null != node && cloud.name.equals(node.getCloudName())) {
+                    for (final Executor e : c.getExecutors()) {
+                        final WorkUnit wu = e.getCurrentWorkUnit();
+                        if (null != wu) {
+                            add(ret, toExpression(wu.context.item.getAssignedLabel()));
+                        }
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks whether a slave belongs to a cloud or, if the cloud is a member of a group, to any member of that group.
+     */
+    private static boolean belongsTo(final JCloudsCloud cloud, final JCloudsSlave node) {
+        if (cloud.name.equals(node.getCloudName())) {
+            return true;
+        }
+        final JCloudsCloud other = null == cloud.getCloudGroup() ? null : JCloudsCloud.getByName(node.getCloudName());
+        return null != other && cloud.getCloudGroup().equals(other.getCloudGroup());
+    }
+
+    /**
+     * Determines the executors of slaves of the cloud (or its group), which serve a label (busy, idle or still launching).
+     */
+    private static int getCapacity(final JCloudsCloud cloud, final Label label) {
+        int ret = 0;
+        for (final Computer c : Jenkins.getInstance().getComputers()) {
+            if (JCloudsComputer.class.isInstance(c)) {
+                final JCloudsSlave node = ((JCloudsComputer) c).getNode();
+                if (null != node && !node.isPendingDelete() && belongsTo(cloud, node) && matches(label, node)) {
+                    ret += node.getNumExecutors();
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static AtomicInteger getInFlight(final String cloudName, final String label) {
+        final String k = cloudName + "/" + label;
+        synchronized (IN_FLIGHT) {
+            AtomicInteger ret = IN_FLIGHT.get(k);
+            if (null == ret) {
+                ret = new AtomicInteger();
+                IN_FLIGHT.put(k, ret);
+            }
+            return ret;
+        }
+    }
+
+    private static void preProvision(final JCloudsCloud cloud, final DemandForecast forecast, final String expression,
+            final long target) {
+        final Label label = toLabel(expression);
+        final int expected = (int) Math.ceil(forecast.forecast(expression, target));
+        if (expected <= 0 || !cloud.canProvision(label)) {
+            return;
+        }
+        final AtomicInteger inFlight = getInFlight(cloud.name, expression);
+        final int missing = expected - getCapacity(cloud, label) - inFlight.get();
+        if (missing <= 0) {
+            return;
+        }
+        LOGGER.info(String.format("Provisioning %d executor(s) for label '%s' ahead of forecast demand of %d",
+                    missing, expression, expected));
+        // Instance caps are enforced by provision() itself.
+        for (final PlannedNode pn : cloud.provision(label, missing)) {
+            // Registered slaves are part of the capacity, so they are in flight only until then.
+            JCloudsCloud.trackInFlight(inFlight, pn);
+            forecast.preProvisioned(expression, pn.numExecutors, target);
+            final Future<Node> f = pn.future;
+            if (f instanceof ListenableFuture) {
+                Futures.addCallback((ListenableFuture<Node>) f, new FutureCallback<Node>() {
+                    public void onSuccess(final Node n) {
+                    }
+
+                    public void onFailure(final Throwable x) {
+                        LOGGER.log(Level.WARNING, "Failed to provision slave ahead of demand for label " + expression, x);
+                    }
+                });
+            }
+        }
+    }
+
+    private static XmlFile getFile(final String cloudName) {
+        return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(),
+                    "jclouds-demand-" + Util.rawEncode(cloudName) + ".xml"));
+    }
+
+    private static void save(final String cloudName, final DemandForecast forecast) {
+        try {
+            synchronized (forecast) {
+                getFile(cloudName).write(forecast);
+            }
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "Failed to save demand history of cloud " + cloudName, x);
+        }
+    }
+
+    /**
+     * Retrieves the demand forecast of a cloud, loading its history on first access.
+     *
+     * @param cloudName The name of the cloud.
+     * @return The demand forecast.
+     */
+    static DemandForecast getForecast(final String cloudName) {
+        synchronized (FORECASTS) {
+            DemandForecast ret = FORECASTS.get(cloudName);
+            if (null == ret) {
+                final XmlFile f = getFile(cloudName);
+                if (f.exists()) {
+                    try {
+                        ret = (DemandForecast) f.read();
+                    } catch (IOException | RuntimeException x) {
+                        LOGGER.log(Level.WARNING, "Failed to load demand history of cloud " + cloudName, x);
+                    }
+                }
+                if (null == ret) {
+                    ret = new DemandForecast(ALPHA, TimeZone.getDefault());
+                }
+                FORECASTS.put(cloudName, ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Estimates the time a build waits for a new slave of a label: The sum of the median
+     * durations of all provisioning phases, using the slowest matching template.
+     *
+     * @param cloud The cloud.
+     * @param label The label.
+     * @return The estimated ramp-up time in milliseconds or 0, if unknown.
+     */
+    static long getRampUpMillis(final JCloudsCloud cloud, final Label label) {
+        long ret = 0;
+        for (final JCloudsSlaveTemplate t : cloud.getTemplates(label)) {
+            long sum = 0;
+            for (final LatencyHistogram h : t.getLatencies().values()) {
+                sum += h.getPercentile(0.5);
+            }
+            ret = Math.max(ret, sum);
+        }
+        return ret;
+    }
+
+    /**
+     * @return The lead time in milliseconds, by which capacity is provisioned ahead of demand.
+     */
+    static long getLeadMillis() {
+        return LEAD_MINUTES * MIN;
+    }
+}
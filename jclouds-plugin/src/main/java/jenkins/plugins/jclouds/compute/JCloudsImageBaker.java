@@ -0,0 +1,418 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.RunNodesException;
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.ImageTemplate;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.extensions.ImageExtension;
+
+import jenkins.plugins.jclouds.compute.internal.CapacityLedger;
+
+import shaded.com.google.common.base.Optional;
+
+/**
+ * Bakes images of templates with {@link JCloudsSlaveTemplate#bakeImage} enabled: A node is started
+ * from the configured image, initialized like any other node and then snapshotted. New nodes of the
+ * template are started from the snapshot, skipping the init script.
+ * <p>
+ * A baked image is rebuilt, when the hash of its initialization ({@link JCloudsSlaveTemplate#getBakeHash()})
+ * changes. Superseded images are deleted. The baked images are kept in {@code jclouds-baked-images.xml}
+ * in the Jenkins home directory.
+ * <p>
+ * Failed bakes are retried with an exponentially growing delay. After a number of consecutive
+ * failures, a template is not baked anymore until its initialization changes or a bake is started manually.
+ */
+@Extension
+public final class JCloudsImageBaker extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(JCloudsImageBaker.class.getName());
+
+    /* Maximum time (in minutes) to wait for the provider to create an image. */
+    private static final int TIMEOUT_MINUTES =
+        Integer.getInteger(JCloudsImageBaker.class.getName() + ".timeoutMinutes", 60);
+
+    /* Number of consecutive failed bakes, after which a template is not baked automatically anymore. */
+    static final int MAX_FAILURES = Integer.getInteger(JCloudsImageBaker.class.getName() + ".maxFailures", 5);
+
+    /* Templates currently being baked, by cloud and template name. */
+    private static final Set<String> BAKING = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static Store store;
+
+    private static final Backoff BACKOFF = new Backoff(10 * MIN, MAX_FAILURES);
+
+    /**
+     * Tracks consecutive failed bakes per template. The first retry happens after the base delay,
+     * each further retry waits twice as long. A failure counts only for the bake hash it occurred with.
+     */
+    static final class Backoff {
+        private final long baseDelay;
+        private final int maxFailures;
+        private final Map<String, Failures> failures = new HashMap<>();
+
+        private static final class Failures {
+            private final String hash;
+            private int count;
+            private long retryAt;
+
+            private Failures(final String hash) {
+                this.hash = hash;
+            }
+        }
+
+        Backoff(final long baseDelay, final int maxFailures) {
+            this.baseDelay = baseDelay;
+            this.maxFailures = maxFailures;
+        }
+
+        /**
+         * @param key The cloud and template name.
+         * @param hash The current bake hash of the template.
+         * @param now The current time in milliseconds.
+         * @return {@code true}, if the template may be baked automatically.
+         */
+        synchronized boolean mayBake(final String key, final String hash, final long now) {
+            final Failures f = failures.get(key);
+            if (null == f || !f.hash.equals(hash)) {
+                return true;
+            }
+            return f.count < maxFailures && now >= f.retryAt;
+        }
+
+        /**
+         * Records a failed bake.
+         *
+         * @param key The cloud and template name.
+         * @param hash The bake hash of the template.
+         * @param now The current time in milliseconds.
+         * @return {@code true}, if the template has failed too often and is not baked automatically anymore.
+         */
+        synchronized boolean recordFailure(final String key, final String hash, final long now) {
+            Failures f = failures.get(key);
+            if (null == f || !f.hash.equals(hash)) {
+                f = new Failures(hash);
+                failures.put(key, f);
+            }
+            f.count++;
+            f.retryAt = now + (baseDelay << Math.min(f.count - 1, 20));
+            return f.count >= maxFailures;
+        }
+
+        synchronized void recordSuccess(final String key) {
+            failures.remove(key);
+        }
+    }
+
+    /**
+     * A baked image.
+     */
+    static final class BakedImage {
+        private final String cloud;
+        private final String imageId;
+        private final String hash;
+        private final long created;
+
+        BakedImage(final String cloud, final String imageId, final String hash, final long created) {
+            this.cloud = cloud;
+            this.imageId = imageId;
+            this.hash = hash;
+            this.created = created;
+        }
+    }
+
+    /**
+     * The persisted state: The current image per template and images waiting for deletion.
+     */
+    static final class Store {
+        private final Map<String, BakedImage> current = new HashMap<>();
+        private final List<BakedImage> retired = new ArrayList<>();
+    }
+
+    public JCloudsImageBaker() {
+        super("JClouds image baker");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return 10 * MIN;
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        final Jenkins jenkins = Jenkins.getInstance();
+        final Map<String, JCloudsCloud> clouds = new HashMap<>();
+        for (final Cloud c : jenkins.clouds) {
+            if (JCloudsCloud.class.isInstance(c)) {
+                clouds.put(c.name, (JCloudsCloud) c);
+            }
+        }
+        retireOrphans(clouds);
+        if (!jenkins.isQuietingDown() && !jenkins.isTerminating()) {
+            for (final JCloudsCloud cloud : clouds.values()) {
+                for (final JCloudsSlaveTemplate t : cloud.getTemplates()) {
+                    if (t.bakeImage && null == t.getBakedImageId()
+                            && BACKOFF.mayBake(key(cloud.name, t.name), t.getBakeHash(), System.currentTimeMillis())) {
+                        startBake(cloud, t);
+                    }
+                }
+            }
+        }
+        deleteRetired(clouds);
+    }
+
+    private static String key(final String cloudName, final String templateName) {
+        return cloudName + "/" + templateName;
+    }
+
+    private static XmlFile getFile() {
+        return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), "jclouds-baked-images.xml"));
+    }
+
+    private static synchronized Store getStore() {
+        if (null == store) {
+            final XmlFile f = getFile();
+            if (f.exists()) {
+                try {
+                    store = (Store) f.read();
+                } catch (IOException | RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "Failed to load baked images", x);
+                }
+            }
+            if (null == store) {
+                store = new Store();
+            }
+        }
+        return store;
+    }
+
+    private static synchronized void save() {
+        try {
+            getFile().write(getStore());
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "Failed to save baked images", x);
+        }
+    }
+
+    /**
+     * Retrieves the baked image of a template.
+     *
+     * @param cloudName The name of the cloud.
+     * @param templateName The name of the template.
+     * @param hash The current bake hash of the template.
+     * @return The id of the baked image or {@code null}, if there is none or it has been baked from a different configuration.
+     */
+    @CheckForNull
+    static synchronized String getBakedImageId(final String cloudName, final String templateName, final String hash) {
+        final BakedImage bi = getStore().current.get(key(cloudName, templateName));
+        return null != bi && bi.hash.equals(hash) ? bi.imageId : null;
+    }
+
+    private static synchronized void record(final String cloudName, final String templateName, final BakedImage bi) {
+        final BakedImage old = getStore().current.put(key(cloudName, templateName), bi);
+        if (null != old) {
+            getStore().retired.add(old);
+        }
+        save();
+    }
+
+    /**
+     * Discards the baked image of a template, for example because it cannot be used for starting nodes.
+     * New nodes are started from the configured image, until the template has been baked again.
+     *
+     * @param cloudName The name of the cloud.
+     * @param templateName The name of the template.
+     */
+    static synchronized void discard(final String cloudName, final String templateName) {
+        final BakedImage old = getStore().current.remove(key(cloudName, templateName));
+        if (null != old) {
+            getStore().retired.add(old);
+            save();
+        }
+    }
+
+    /**
+     * Retires baked images of clouds or templates which do not exist anymore or have baking disabled.
+     */
+    private static synchronized void retireOrphans(final Map<String, JCloudsCloud> clouds) {
+        boolean changed = false;
+        for (final Iterator<Map.Entry<String, BakedImage>> it = getStore().current.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, BakedImage> e = it.next();
+            final JCloudsCloud cloud = clouds.get(e.getValue().cloud);
+            final String templateName = e.getKey().substring(e.getValue().cloud.length() + 1);
+            final JCloudsSlaveTemplate t = null == cloud ? null : cloud.getTemplate(templateName);
+            if (null == t || !t.bakeImage) {
+                getStore().retired.add(e.getValue());
+                it.remove();
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    private static void deleteRetired(final Map<String, JCloudsCloud> clouds) {
+        final List<BakedImage> retired;
+        synchronized (JCloudsImageBaker.class) {
+            retired = new ArrayList<>(getStore().retired);
+        }
+        final List<BakedImage> done = new ArrayList<>();
+        for (final BakedImage bi : retired) {
+            final JCloudsCloud cloud = clouds.get(bi.cloud);
+            if (null == cloud) {
+                // Without the cloud's credentials, the image cannot be deleted anymore.
+                LOGGER.warning("Cloud " + bi.cloud + " has been removed, baked image " + bi.imageId + " must be deleted manually");
+                done.add(bi);
+                continue;
+            }
+            try {
+                final ComputeService compute = cloud.getCompute();
+                final Optional<ImageExtension> ext = compute.getImageExtension();
+                if (!ext.isPresent()) {
+                    done.add(bi);
+                } else if (ext.get().deleteImage(bi.imageId) || null == compute.getImage(bi.imageId)) {
+                    LOGGER.info("Deleted baked image " + bi.imageId + " of cloud " + bi.cloud);
+                    done.add(bi);
+                }
+            } catch (RuntimeException x) {
+                LOGGER.log(Level.WARNING, "Failed to delete baked image " + bi.imageId + " of cloud " + bi.cloud, x);
+            }
+        }
+        if (!done.isEmpty()) {
+            synchronized (JCloudsImageBaker.class) {
+                getStore().retired.removeAll(done);
+                save();
+            }
+        }
+    }
+
+    /**
+     * Starts baking a new image for a template in the background.
+     *
+     * @param cloud The cloud of the template.
+     * @param t The template.
+     * @return {@code false}, if the template is being baked already.
+     */
+    static boolean startBake(final JCloudsCloud cloud, final JCloudsSlaveTemplate t) {
+        final String k = key(cloud.name, t.name);
+        if (!BAKING.add(k)) {
+            return false;
+        }
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                try {
+                    bake(cloud, t);
+                } finally {
+                    BAKING.remove(k);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @param cloudName The name of the cloud.
+     * @param templateName The name of the template.
+     * @return {@code true}, if an image of the template is currently being baked.
+     */
+    static boolean isBaking(final String cloudName, final String templateName) {
+        return BAKING.contains(key(cloudName, templateName));
+    }
+
+    private static void recordFailure(final JCloudsCloud cloud, final JCloudsSlaveTemplate t, final String hash) {
+        if (BACKOFF.recordFailure(key(cloud.name, t.name), hash, System.currentTimeMillis())) {
+            LOGGER.warning("Baking template " + t.name + " has failed " + MAX_FAILURES
+                    + " times, not baking it anymore until its initialization changes or a bake is started manually");
+        }
+    }
+
+    private static void bake(final JCloudsCloud cloud, final JCloudsSlaveTemplate t) {
+        final ComputeService compute = cloud.getCompute();
+        final Optional<ImageExtension> ext = compute.getImageExtension();
+        if (!ext.isPresent()) {
+            LOGGER.warning("Provider " + cloud.providerName + " does not support creating images, cannot bake template " + t.name);
+            recordFailure(cloud, t, t.getBakeHash());
+            return;
+        }
+        final CapacityLedger.Reservation reservation = cloud.reserve(t);
+        if (null == reservation) {
+            LOGGER.info("Instance cap reached, postponing bake of template " + t.name);
+            return;
+        }
+        final String hash = t.getBakeHash();
+        NodeMetadata nm = null;
+        try {
+            LOGGER.info("Baking image of template " + t.name);
+            nm = t.createBakeNode();
+            final long now = System.currentTimeMillis();
+            final ImageTemplate it = ext.get().buildImageTemplateFromNode(
+                    String.format("%s-%s-%d", t.name, hash.substring(0, 8), now / 1000), nm.getId());
+            final Image image = ext.get().createImage(it).get(TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            LOGGER.info("Baked image " + image.getId() + " of template " + t.name);
+            record(cloud.name, t.name, new BakedImage(cloud.name, image.getId(), hash, now));
+            BACKOFF.recordSuccess(key(cloud.name, t.name));
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } catch (RunNodesException | ExecutionException | TimeoutException | RuntimeException x) {
+            LOGGER.log(Level.WARNING, "Failed to bake image of template " + t.name, x);
+            recordFailure(cloud, t, hash);
+        } finally {
+            if (null != nm) {
+                try {
+                    compute.destroyNode(nm.getId());
+                } catch (RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "Failed to destroy bake node " + nm.getId(), x);
+                }
+                cloud.getInventory().remove(nm.getId());
+            }
+            reservation.release();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import jenkins.util.Timer;
+
+import shaded.com.google.common.util.concurrent.ListenableFuture;
+import shaded.com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Completes the launch of freshly provisioned slaves based on computer events,
+ * so that no thread has to wait for a slave to come online.
+ */
+@Extension
+public final class JCloudsLaunchListener extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(JCloudsLaunchListener.class.getName());
+
+    /* Delay between a failed launch attempt and the next one. */
+    private static final long RETRY_DELAY_MS = 5000L;
+
+    private static final Map<String, PendingLaunch> PENDING = new ConcurrentHashMap<>();
+
+    private static final class PendingLaunch {
+        private final JCloudsSlave slave;
+        private final SettableFuture<Node> future = SettableFuture.create();
+        private final long deadline;
+        private ScheduledFuture<?> timeout;
+
+        private PendingLaunch(final JCloudsSlave slave, final int timeoutSeconds) {
+            this.slave = slave;
+            this.deadline = timeoutSeconds > 0 ? System.currentTimeMillis() + 1000L * timeoutSeconds : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Registers a slave whose launch should be awaited.
+     *
+     * @param slave The slave to be launched.
+     * @param timeoutSeconds The number of seconds after which the launch is considered as failed. If zero, there is no timeout.
+     * @return A future which is completed, when the slave comes online or the launch times out.
+     */
+    static ListenableFuture<Node> expectLaunch(final JCloudsSlave slave, final int timeoutSeconds) {
+        final String name = slave.getNodeName();
+        final PendingLaunch pl = new PendingLaunch(slave, timeoutSeconds);
+        PENDING.put(name, pl);
+        if (timeoutSeconds > 0) {
+            pl.timeout = Timer.get().schedule(new Runnable() {
+                public void run() {
+                    if (PENDING.remove(name, pl)) {
+                        final String message = String.format("Failed to connect to slave within timeout (%d s).", timeoutSeconds);
+                        LOGGER.warning(message);
+                        pl.future.setException(new IllegalStateException(message));
+                    }
+                }
+            }, timeoutSeconds, TimeUnit.SECONDS);
+        }
+        final Computer c = slave.toComputer();
+        if (null != c && c.isOnline()) {
+            // Came online before we started listening
+            LOGGER.fine("Slave " + name + " is online already");
+            PENDING.remove(name, pl);
+            if (null != pl.timeout) {
+                pl.timeout.cancel(false);
+            }
+            pl.future.set(slave);
+        } else if (null != c) {
+            // In case the first launch attempt has failed already. Does nothing, if a launch is in progress.
+            c.connect(false);
+        }
+        return pl.future;
+    }
+
+    @Override
+    public void onOnline(final Computer c, final TaskListener listener) {
+        final PendingLaunch pl = PENDING.remove(c.getName());
+        if (null != pl) {
+            if (null != pl.timeout) {
+                pl.timeout.cancel(false);
+            }
+            pl.future.set(pl.slave);
+        }
+    }
+
+    @Override
+    public void onLaunchFailure(final Computer c, final TaskListener listener) {
+        final PendingLaunch pl = PENDING.get(c.getName());
+        if (null != pl && !pl.slave.isPendingDelete() && System.currentTimeMillis() + RETRY_DELAY_MS < pl.deadline) {
+            LOGGER.info(String.format("Slave [%s] not connected yet", c.getName()));
+            Timer.get().schedule(new Runnable() {
+                public void run() {
+                    final Computer computer = pl.slave.toComputer();
+                    if (PENDING.get(c.getName()) == pl && null != computer && computer.isOffline()) {
+                        computer.connect(false);
+                    }
+                }
+            }, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -35,6 +35,8 @@ import org.jclouds.compute.domain.NodeMetadata;
 
 import edazdarevic.commons.net.CIDRUtils;
 
+import jenkins.plugins.jclouds.compute.internal.ProvisioningTimings;
+
 /**
  * The launcher that launches the jenkins slave.jar on the Slave. Uses the SSHKeyPair configured in the cloud profile settings, and logs in to the server via
  * SSH, and starts the slave.jar.
@@ -69,7 +71,12 @@ public class JCloudsLauncher extends ComputerLauncher {
             }
 
             SSHLauncher launcher = new SSHLauncher(address, 22, slave.getCredentialsId(), slave.getJvmOptions(), null, "", "", Integer.valueOf(0), null, null);
+            final long start = System.currentTimeMillis();
             launcher.launch(computer, listener);
+            if (null != computer.getChannel()) {
+                // SSH connect and agent start
+                slave.recordPhase(ProvisioningTimings.AGENT_LAUNCH, System.currentTimeMillis() - start);
+            }
         } else {
             throw new IOException("Could not launch NULL slave.");
         }
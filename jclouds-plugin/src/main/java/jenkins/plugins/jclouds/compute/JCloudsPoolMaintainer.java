@@ -0,0 +1,193 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+import jenkins.plugins.jclouds.compute.internal.CapacityLedger;
+
+import shaded.com.google.common.util.concurrent.FutureCallback;
+import shaded.com.google.common.util.concurrent.Futures;
+
+/**
+ * Keeps a number of idle, already launched slaves per template, as configured
+ * by {@link JCloudsSlaveTemplate#getMinIdle()}.
+ */
+@Extension
+public final class JCloudsPoolMaintainer extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(JCloudsPoolMaintainer.class.getName());
+
+    /* Number of pool slaves currently being provisioned, by cloud and template name. */
+    private static final Map<String, AtomicInteger> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    public JCloudsPoolMaintainer() {
+        super("JClouds warm pool maintainer");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins.isQuietingDown() || jenkins.isTerminating()) {
+            return;
+        }
+        for (final Cloud c : jenkins.clouds) {
+            if (JCloudsCloud.class.isInstance(c)) {
+                final JCloudsCloud cloud = (JCloudsCloud) c;
+                for (final JCloudsSlaveTemplate t : cloud.getTemplates()) {
+                    if (t.getMinIdle() > 0) {
+                        replenish(cloud, t);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String key(final String cloudName, final String templateName) {
+        return cloudName + "/" + templateName;
+    }
+
+    private static AtomicInteger getInFlight(final String cloudName, final String templateName) {
+        final String k = key(cloudName, templateName);
+        synchronized (IN_FLIGHT) {
+            AtomicInteger ret = IN_FLIGHT.get(k);
+            if (null == ret) {
+                ret = new AtomicInteger();
+                IN_FLIGHT.put(k, ret);
+            }
+            return ret;
+        }
+    }
+
+    private void replenish(final JCloudsCloud cloud, final JCloudsSlaveTemplate t) {
+        final AtomicInteger inFlight = getInFlight(cloud.name, t.name);
+        final int missing = t.getMinIdle() - countPoolSlaves(cloud.name, t.name, true) - inFlight.get();
+        if (missing <= 0) {
+            return;
+        }
+        if (cloud.isSuspended(t)) {
+            // Probing a degraded provider is left to demand driven provisioning.
+            LOGGER.fine("Provisioning from template " + t.name + " is suspended, not replenishing its warm pool");
+            return;
+        }
+        LOGGER.info(String.format("Provisioning %d slave(s) for warm pool of template %s", missing, t.name));
+        for (int i = 0; i < missing; i++) {
+            final CapacityLedger.Reservation reservation = cloud.reserve(t);
+            if (null == reservation) {
+                LOGGER.info("Instance cap reached while replenishing warm pool of template " + t.name);
+                return;
+            }
+            inFlight.incrementAndGet();
+            Futures.addCallback(cloud.getPipeline().provisionSlave(t, reservation), new FutureCallback<JCloudsSlave>() {
+                public void onSuccess(final JCloudsSlave slave) {
+                    inFlight.decrementAndGet();
+                }
+
+                public void onFailure(final Throwable x) {
+                    inFlight.decrementAndGet();
+                    LOGGER.log(Level.WARNING, "Failed to provision warm pool slave for template " + t.name, x);
+                }
+            });
+        }
+    }
+
+    /**
+     * Counts the slaves of a template which are available for new builds.
+     *
+     * @param cloudName The name of the cloud.
+     * @param templateName The name of the template.
+     * @param includeLaunching If {@code true}, slaves which are still being launched are counted as well.
+     * @return The number of idle slaves.
+     */
+    static int countPoolSlaves(final String cloudName, final String templateName, final boolean includeLaunching) {
+        int ret = 0;
+        for (final Computer c : Jenkins.getInstance().getComputers()) {
+            if (JCloudsComputer.class.isInstance(c)) {
+                final JCloudsSlave node = ((JCloudsComputer) c).getNode();
+                if (null != node && !node.isPendingDelete() && cloudName.equals(node.getCloudName())
+                        && templateName.equals(node.getTemplateName())) {
+                    if (isPoolSlave(c.isOnline(), c.isIdle(), c.isConnecting(), node.isWaitPhoneHome(), includeLaunching)) {
+                        ret++;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Decides, whether a computer counts as a pool slave. Offline computers count only while
+     * they are connecting or waiting for phone home. Computers whose launch has failed or
+     * which got disconnected do not become available by themselves.
+     *
+     * @param online {@code true}, if the computer is online.
+     * @param idle {@code true}, if the computer is idle.
+     * @param connecting {@code true}, if the computer is being launched.
+     * @param waitingForPhoneHome {@code true}, if the slave has not phoned home yet.
+     * @param includeLaunching If {@code true}, slaves which are still being launched are counted as well.
+     * @return {@code true}, if the computer counts.
+     */
+    static boolean isPoolSlave(final boolean online, final boolean idle, final boolean connecting,
+            final boolean waitingForPhoneHome, final boolean includeLaunching) {
+        if (online) {
+            return idle;
+        }
+        return includeLaunching && (connecting || waitingForPhoneHome);
+    }
+
+    /**
+     * Checks, whether an idle slave must be retained in order to keep the warm pool of its template filled.
+     *
+     * @param c The computer to check.
+     * @return {@code true}, if the slave must not be terminated.
+     */
+    static boolean isNeededForPool(final JCloudsComputer c) {
+        final JCloudsSlave node = c.getNode();
+        if (null == node || null == node.getTemplateName()) {
+            return false;
+        }
+        final JCloudsCloud cloud = JCloudsCloud.getByName(node.getCloudName());
+        if (null == cloud) {
+            return false;
+        }
+        final JCloudsSlaveTemplate t = cloud.getTemplate(node.getTemplateName());
+        if (null == t || t.getMinIdle() <= 0) {
+            return false;
+        }
+        return countPoolSlaves(cloud.name, t.name, false) <= t.getMinIdle();
+    }
+}
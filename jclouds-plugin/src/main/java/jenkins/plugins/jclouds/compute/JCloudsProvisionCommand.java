@@ -33,6 +33,8 @@ import org.kohsuke.args4j.Option;
 
 import org.jclouds.compute.domain.NodeMetadata;
 
+import jenkins.plugins.jclouds.compute.internal.CapacityLedger;
+
 /**
  * Provisions a slave.
  *
@@ -87,8 +89,9 @@ public class JCloudsProvisionCommand extends CLICommand {
             }
             throw new CmdLineException(null, Messages.JClouds_NoSuchTemplateExists(tmpl, EditDistance.findNearest(tmpl, names)));
         }
-        if (c.getRunningNodesCount() < c.instanceCap) {
-            final JCloudsSlave s = c.doProvisionFromTemplate(tpl);
+        final CapacityLedger.Reservation reservation = c.reserve(tpl);
+        if (null != reservation) {
+            final JCloudsSlave s = c.doProvisionFromTemplate(tpl, reservation);
             final NodeMetadata nmd = s.getNodeMetaData();
             final Set<String> a = new HashSet<>();
             a.addAll(nmd.getPrivateAddresses());
@@ -15,7 +15,11 @@
  */
 package jenkins.plugins.jclouds.compute;
 
+import hudson.model.Computer;
 import hudson.model.Descriptor;
+import hudson.model.Executor;
+import hudson.model.ExecutorListener;
+import hudson.model.Queue;
 import hudson.slaves.OfflineCause;
 import hudson.slaves.RetentionStrategy;
 import hudson.util.TimeUnit2;
@@ -28,7 +32,7 @@ import org.kohsuke.stapler.DataBoundConstructor;
 /**
  * @author Vijay Kiran
  */
-public class JCloudsRetentionStrategy extends RetentionStrategy<JCloudsComputer> {
+public class JCloudsRetentionStrategy extends RetentionStrategy<JCloudsComputer> implements ExecutorListener {
     private transient ReentrantLock checkLock;
 
     @DataBoundConstructor
@@ -55,11 +59,28 @@ public class JCloudsRetentionStrategy extends RetentionStrategy<JCloudsComputer>
         } else {
             try {
                 final JCloudsSlave node = c.getNode();
+                if (null != node && c.isOffline() && !node.isPendingDelete() && node.isPreempted()) {
+                    node.setPendingDelete(true);
+                    final JCloudsCloud cloud = JCloudsCloud.getByName(node.getCloudName());
+                    if (null != cloud) {
+                        cloud.replacePreempted(node);
+                    }
+                    fastTerminate(c);
+                    return 1;
+                }
                 // check isIdle() to ensure we are terminating busy slaves (including FlyWeight)
                 if (null != node && c.isIdle()) {
                     if (node.isPendingDelete()) {
                         // Fixes JENKINS-28403
                         fastTerminate(c);
+                    } else if (node.isHintExpired()) {
+                        if (JCloudsPoolMaintainer.isNeededForPool(c)) {
+                            node.clearHint();
+                        } else {
+                            LOGGER.info("Hinted slave " + c.getName() + " has not been used, releasing it.");
+                            node.setPendingDelete(true);
+                            fastTerminate(c);
+                        }
                     } else if (!node.isWaitPhoneHome()) {
                         // Get the retention time, in minutes, from the JCloudsCloud this JCloudsComputer belongs to.
                         final int retentionTime = c.getRetentionTime();
@@ -68,6 +89,10 @@ public class JCloudsRetentionStrategy extends RetentionStrategy<JCloudsComputer>
                             LOGGER.fine("Node " + c.getName() + " retentionTime: " + retentionTime + " idle: "
                                     + TimeUnit2.MILLISECONDS.toMinutes(idleMilliseconds) + "min");
                             if (idleMilliseconds > TimeUnit2.MINUTES.toMillis(retentionTime)) {
+                                if (JCloudsPoolMaintainer.isNeededForPool(c)) {
+                                    LOGGER.fine("Retaining " + c.getName() + " for warm pool.");
+                                    return 1;
+                                }
                                 LOGGER.info("Retention time for " + c.getName() + " has expired.");
                                 node.setPendingDelete(true);
                                 fastTerminate(c);
@@ -82,6 +107,26 @@ public class JCloudsRetentionStrategy extends RetentionStrategy<JCloudsComputer>
         return 1;
     }
 
+    @Override
+    public void taskAccepted(final Executor executor, final Queue.Task task) {
+        final Computer c = executor.getOwner();
+        if (c instanceof JCloudsComputer) {
+            final JCloudsSlave node = ((JCloudsComputer) c).getNode();
+            if (null != node) {
+                node.clearHint();
+            }
+        }
+    }
+
+    @Override
+    public void taskCompleted(final Executor executor, final Queue.Task task, final long durationMS) {
+    }
+
+    @Override
+    public void taskCompletedWithProblems(final Executor executor, final Queue.Task task, final long durationMS,
+            final Throwable problems) {
+    }
+
     /**
      * Try to connect to it ASAP.
      */
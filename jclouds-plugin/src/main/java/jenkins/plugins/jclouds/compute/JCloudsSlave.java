@@ -32,13 +32,17 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
 import org.jclouds.domain.LoginCredentials;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import jenkins.plugins.jclouds.compute.internal.ProvisioningTimings;
+
 /**
  * Jenkins Slave node - managed by JClouds.
  *
@@ -65,6 +69,11 @@ public class JCloudsSlave extends AbstractCloudSlave {
     private final String credentialsId;
     private final Mode mode;
     private final String preferredAddress;
+    private String templateName;
+    private ProvisioningTimings provisioningTimings;
+    private boolean spot;
+    /* If nonzero, this slave has been provisioned for a hint and gets released at that time, unless it is used. */
+    private long hintExpiry;
 
     private transient PhoneHomeMonitor phm;
 
@@ -89,12 +98,16 @@ public class JCloudsSlave extends AbstractCloudSlave {
         this.mode = mode;
         this.preferredAddress = preferredAddress;
         phm = new PhoneHomeMonitor(waitPhoneHome, waitPhoneHomeTimeout);
+        provisioningTimings = new ProvisioningTimings();
     }
 
     protected Object readResolve() {
         if (null == phm) {
             phm = new PhoneHomeMonitor(waitPhoneHome, waitPhoneHomeTimeout);
         }
+        if (null == provisioningTimings) {
+            provisioningTimings = new ProvisioningTimings();
+        }
         return this;
     }
 
@@ -115,6 +128,7 @@ public class JCloudsSlave extends AbstractCloudSlave {
      * @param credentialsId         - Id of the credentials in Jenkin's global credentials database.
      * @param mode                  - Jenkins usage mode for this node
      * @param preferredAddress      - The preferred Address expression to connect to
+     * @param templateName          - The name of the template this slave has been provisioned from.
      * @throws IOException if an error occurs.
      * @throws Descriptor.FormException if the form does not validate.
      */
@@ -122,7 +136,7 @@ public class JCloudsSlave extends AbstractCloudSlave {
 
             final String description, final String numExecutors, final boolean stopOnTerminate, final Integer overrideRetentionTime,
             String jvmOptions, final boolean waitPhoneHome, final int waitPhoneHomeTimeout, final String credentialsId,
-            final Mode mode, final String preferredAddress) throws IOException, Descriptor.FormException {
+            final Mode mode, final String preferredAddress, final String templateName) throws IOException, Descriptor.FormException {
         this(cloudName, uniqueName(metadata, cloudName), description, fsRoot, numExecutors, mode, labelString,
                 new JCloudsLauncher(), new JCloudsRetentionStrategy(), Collections.<NodeProperty<?>>emptyList(),
                 stopOnTerminate, overrideRetentionTime, metadata.getCredentials().getUser(),
@@ -130,6 +144,7 @@ public class JCloudsSlave extends AbstractCloudSlave {
                 metadata.getCredentials().shouldAuthenticateSudo(), jvmOptions, waitPhoneHome, waitPhoneHomeTimeout, credentialsId, preferredAddress);
         this.nodeMetaData = metadata;
         this.nodeId = nodeMetaData.getId();
+        this.templateName = templateName;
     }
 
     // JENKINS-19935 Instances on EC2 don't get random suffix
@@ -210,6 +225,100 @@ public class JCloudsSlave extends AbstractCloudSlave {
         return cloudName;
     }
 
+    /**
+     * Get the provider id of the node of this slave.
+     *
+     * @return nodeId
+     */
+    String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Get the name of the template this slave has been provisioned from.
+     *
+     * @return templateName or {@code null} for slaves, created by previous versions.
+     */
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    /**
+     * Get the durations of the provisioning phases of this slave.
+     *
+     * @return The durations in milliseconds by phase, in the order they happened.
+     */
+    public Map<String, Long> getProvisioningTimings() {
+        return provisioningTimings.getTimings();
+    }
+
+    void setProvisioningTimings(final ProvisioningTimings timings) {
+        provisioningTimings = timings;
+    }
+
+    /**
+     * Records the duration of a provisioning phase on this slave and in the statistics of its template.
+     *
+     * @param phase The name of the phase.
+     * @param millis The duration in milliseconds.
+     */
+    void recordPhase(final String phase, final long millis) {
+        provisioningTimings.record(phase, millis);
+        final JCloudsCloud cloud = JCloudsCloud.getByName(cloudName);
+        final JCloudsSlaveTemplate t = null == cloud || null == templateName ? null : cloud.getTemplate(templateName);
+        if (null != t) {
+            t.recordLatency(phase, millis);
+        }
+    }
+
+    /**
+     * @return {@code true}, if this slave runs on a spot or preemptible instance.
+     */
+    public boolean isSpot() {
+        return spot;
+    }
+
+    void setSpot(final boolean spot) {
+        this.spot = spot;
+    }
+
+    /**
+     * Marks this slave as provisioned ahead of hinted demand.
+     *
+     * @param expiry The time (in milliseconds since the epoch), after which the slave is released, if it has not been used.
+     */
+    void setHintExpiry(final long expiry) {
+        hintExpiry = expiry;
+    }
+
+    /**
+     * Called when this slave accepts a task, so it is not released as unused hinted slave anymore.
+     */
+    void clearHint() {
+        hintExpiry = 0;
+    }
+
+    /**
+     * @return {@code true}, if this slave has been provisioned for a hint and has not been used within its TTL.
+     */
+    boolean isHintExpired() {
+        return isHintExpired(System.currentTimeMillis());
+    }
+
+    boolean isHintExpired(final long now) {
+        return 0 != hintExpiry && now > hintExpiry;
+    }
+
+    /**
+     * Checks whether the spot instance of this slave has been reclaimed by the provider.
+     *
+     * @return {@code true}, if this is a spot slave and its node is not running anymore.
+     */
+    boolean isPreempted() {
+        final JCloudsCloud cloud = JCloudsCloud.getByName(cloudName);
+        return spot && null != cloud && !cloud.getInventory().isRunning(nodeId);
+    }
+
     public boolean isPendingDelete() {
         return pendingDelete;
     }
@@ -225,6 +334,10 @@ public class JCloudsSlave extends AbstractCloudSlave {
         return waitPhoneHome;
     }
 
+    public int getWaitPhoneHomeTimeout() {
+        return waitPhoneHomeTimeout;
+    }
+
     /*
      * This is extremely ugly!
      * There should be a Jenkins#updateNode(Node) instead of just addNode() and removeNode().
@@ -299,14 +412,24 @@ public class JCloudsSlave extends AbstractCloudSlave {
      */
     @Override
     protected void _terminate(TaskListener listener) throws IOException, InterruptedException {
-        final ComputeService compute = JCloudsCloud.getByName(cloudName).getCompute();
-        if (compute.getNodeMetadata(nodeId) != null && compute.getNodeMetadata(nodeId).getStatus().equals(NodeMetadata.Status.RUNNING)) {
+        final JCloudsCloud cloud = JCloudsCloud.getByName(cloudName);
+        final ComputeService compute = cloud.getCompute();
+        final NodeMetadata nm = compute.getNodeMetadata(nodeId);
+        if (nm != null && spot && !nm.getStatus().equals(NodeMetadata.Status.TERMINATED)) {
+            // Spot instances cannot be resumed reliably and preempted ones might linger in a stopped state.
+            LOGGER.info("Terminating spot slave : " + getNodeName());
+            compute.destroyNode(nodeId);
+            cloud.getInventory().remove(nodeId);
+        } else if (nm != null && nm.getStatus().equals(NodeMetadata.Status.RUNNING)) {
             if (stopOnTerminate) {
                 LOGGER.info("Suspending slave : " + getNodeName());
                 compute.suspendNode(nodeId);
+                // Make it available for being resumed by the next provisioning
+                cloud.getInventory().add(NodeMetadataBuilder.fromNodeMetadata(nm).status(NodeMetadata.Status.SUSPENDED).build());
             } else {
                 LOGGER.info("Terminating slave : " + getNodeName());
                 compute.destroyNode(nodeId);
+                cloud.getInventory().remove(nodeId);
             }
         } else {
             LOGGER.info("Slave " + getNodeName() + " is already not running.");
@@ -314,6 +437,9 @@ public class JCloudsSlave extends AbstractCloudSlave {
     }
 
     public void waitForPhoneHome(PrintStream logger) throws InterruptedException {
-        phm.waitForPhoneHome(getNodeName(), logger);
+        final long millis = phm.waitForPhoneHome(getNodeName(), logger);
+        if (millis >= 0) {
+            recordPhase(ProvisioningTimings.PHONE_HOME, millis);
+        }
     }
 }
@@ -16,12 +16,13 @@
 package jenkins.plugins.jclouds.compute;
 
 import static shaded.com.google.common.base.Throwables.propagate;
-import static shaded.com.google.common.collect.Iterables.getOnlyElement;
 import static shaded.com.google.common.collect.Lists.newArrayList;
 import static org.jclouds.scriptbuilder.domain.Statements.newStatementList;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -29,9 +30,16 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -62,18 +70,25 @@ import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 
 import org.apache.commons.lang.StringUtils;
 import org.jclouds.aws.ec2.compute.AWSEC2TemplateOptions;
+import org.jclouds.aws.ec2.options.RequestSpotInstancesOptions;
 import org.jclouds.cloudstack.compute.options.CloudStackTemplateOptions;
+import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.RunNodesException;
+import org.jclouds.compute.domain.ExecResponse;
 import org.jclouds.compute.domain.Hardware;
 import org.jclouds.compute.domain.Image;
 import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
 import org.jclouds.compute.domain.OsFamily;
 import org.jclouds.compute.domain.Template;
 import org.jclouds.compute.domain.TemplateBuilder;
+import org.jclouds.compute.domain.internal.TemplateImpl;
+import org.jclouds.compute.options.RunScriptOptions;
 import org.jclouds.compute.options.TemplateOptions;
 import org.jclouds.digitalocean2.compute.options.DigitalOcean2TemplateOptions;
 import org.jclouds.digitalocean2.domain.Key;
@@ -86,6 +101,7 @@ import org.jclouds.predicates.validators.DnsNameValidator;
 import org.jclouds.scriptbuilder.domain.Statement;
 import org.jclouds.scriptbuilder.domain.Statements;
 import org.jclouds.scriptbuilder.statements.login.AdminAccess;
+import org.jclouds.scriptbuilder.statements.login.DefaultConfiguration;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
@@ -94,7 +110,7 @@ import au.com.bytecode.opencsv.CSVReader;
 import shaded.com.google.common.base.Optional;
 import shaded.com.google.common.base.Predicate;
 import shaded.com.google.common.base.Supplier;
-import shaded.com.google.common.collect.ImmutableMap;
+import shaded.com.google.common.util.concurrent.ListenableFuture;
 
 import com.cloudbees.plugins.credentials.Credentials;
 import com.cloudbees.plugins.credentials.CredentialsMatcher;
@@ -115,9 +131,22 @@ import com.trilead.ssh2.Connection;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
+import jenkins.plugins.jclouds.compute.internal.BinPackingPlanner;
+import jenkins.plugins.jclouds.compute.internal.CircuitBreaker;
+import jenkins.plugins.jclouds.compute.internal.ExecutorSizing;
+import jenkins.plugins.jclouds.compute.internal.ImageCatalog;
+import jenkins.plugins.jclouds.compute.internal.JvmOptions;
+import jenkins.plugins.jclouds.compute.internal.LatencyHistogram;
+import jenkins.plugins.jclouds.compute.internal.NodeInventory;
+import jenkins.plugins.jclouds.compute.internal.NodeTags;
+import jenkins.plugins.jclouds.compute.internal.PlacementSelector;
+import jenkins.plugins.jclouds.compute.internal.ProvisionBatcher;
+import jenkins.plugins.jclouds.compute.internal.ProvisioningTimings;
 import jenkins.plugins.jclouds.internal.CredentialsHelper;
 import jenkins.plugins.jclouds.internal.LocationHelper;
+import jenkins.plugins.jclouds.internal.PhoneHomeWebHook;
 import jenkins.plugins.jclouds.internal.SSHPublicKeyExtractor;
+import jenkins.plugins.jclouds.config.CloudInitContentType;
 import jenkins.plugins.jclouds.config.ConfigHelper;
 
 import edazdarevic.commons.net.CIDRUtils;
@@ -129,6 +158,17 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
 
     private static final Logger LOGGER = Logger.getLogger(JCloudsSlaveTemplate.class.getName());
     private static final char SEPARATOR_CHAR = ',';
+    private static final long BATCH_WINDOW_MS =
+        Long.getLong(JCloudsSlaveTemplate.class.getName() + ".batchWindowMs", 500L);
+    private static final int MAX_BATCH_SIZE =
+        Integer.getInteger(JCloudsSlaveTemplate.class.getName() + ".maxBatchSize", 20);
+    private static final long PLACEMENT_COOLDOWN_MS =
+        Long.getLong(JCloudsSlaveTemplate.class.getName() + ".placementCooldownMs", 600000L);
+    private static final long SPOT_REQUEST_TIMEOUT_MS =
+        Long.getLong(JCloudsSlaveTemplate.class.getName() + ".spotRequestTimeoutMs", 300000L);
+    /* Phone home timeout in minutes for nodes bootstrapped by cloud-init, if none is configured. */
+    private static final int CLOUD_INIT_PHONE_HOME_TIMEOUT =
+        Integer.getInteger(JCloudsSlaveTemplate.class.getName() + ".cloudInitPhoneHomeTimeout", 15);
 
     public final String name;
     public final String imageId;
@@ -159,8 +199,8 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
     public final boolean allowSudo;
     public final boolean installPrivateKey;
     public final Integer overrideRetentionTime;
+    /** @deprecated Replaced by the adaptive API rate limiter, retained for backward compatibility. */
     public final int spoolDelayMs;
-    private final Object delayLockObject = new Object();
     /** @deprecated Not used anymore, but retained for backward compatibility during deserialization. */
     private transient Boolean assignFloatingIp;
     public final boolean waitPhoneHome;
@@ -176,9 +216,45 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
     private final List<UserData> userDataEntries;
     private final String initScriptId;
     private final String preferredAddress;
+    public final int minIdle;
+    public final int weight;
+    public final int instanceCap;
+    public final int launchTimeout;
+    public final String additionalLocationIds;
+    public final String additionalHardwareIds;
+    private final String placementStrategy;
+    public final String alternativeSizes;
+    public final boolean bakeImage;
+    public final boolean spotInstances;
+    public final String spotMaxPrice;
+    public final boolean autoExecutors;
+    public final double coresPerExecutor;
+    public final int ramPerExecutor;
+    public final int jvmHeapPercent;
+    public final boolean cloudInitBootstrap;
 
     transient JCloudsCloud cloud;
     private transient Set<LabelAtom> labelSet;
+    private transient Map<BinPackingPlanner.Size, ProvisionBatcher> batchers;
+    private transient List<BinPackingPlanner.Size> sizes;
+    private transient Map<String, Template> resolvedTemplates;
+    private transient Pattern imageNamePattern;
+    private transient PlacementSelector placementSelector;
+    private transient Set<String> resumedNodeIds;
+    private transient Set<String> bakedNodeIds;
+    private transient Set<String> spotNodeIds;
+    private transient Set<String> cloudInitNodeIds;
+    private transient CircuitBreaker circuitBreaker;
+    /* Until then, nodes are created on-demand after spot requests have failed or nodes have been preempted. */
+    private transient volatile long spotCooldownUntil;
+    private transient Map<String, LatencyHistogram> latencies;
+    /* The number of executors of nodes of the default size, as derived from their hardware. */
+    private transient volatile int estimatedExecutors;
+
+    private static Template copy(final Template template) {
+        return new TemplateImpl(template.getImage(), template.getHardware(), template.getLocation(),
+                template.getOptions().clone());
+    }
 
     public String getCredentialsId() {
         return credentialsId;
@@ -211,7 +287,12 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
             final String keyPairName, final boolean assignPublicIp, final String networks,
             final String securityGroups, final String credentialsId, final String adminCredentialsId,
             final String mode, final boolean useConfigDrive, final List<UserData> userDataEntries,
-            final String preferredAddress) {
+            final String preferredAddress, final int minIdle, final int weight, final int instanceCap,
+            final int launchTimeout, final String additionalLocationIds, final String additionalHardwareIds,
+            final String placementStrategy, final String alternativeSizes, final boolean bakeImage,
+            final boolean spotInstances, final String spotMaxPrice, final boolean autoExecutors,
+            final double coresPerExecutor, final int ramPerExecutor, final int jvmHeapPercent,
+            final boolean cloudInitBootstrap) {
 
         this.name = Util.fixEmptyAndTrim(name);
         this.imageId = Util.fixEmptyAndTrim(imageId);
@@ -248,6 +329,22 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
         this.useConfigDrive = useConfigDrive;
         this.userDataEntries = userDataEntries;
         this.preferredAddress = preferredAddress;
+        this.minIdle = minIdle;
+        this.weight = weight;
+        this.instanceCap = instanceCap;
+        this.launchTimeout = launchTimeout;
+        this.additionalLocationIds = Util.fixEmptyAndTrim(additionalLocationIds);
+        this.additionalHardwareIds = Util.fixEmptyAndTrim(additionalHardwareIds);
+        this.placementStrategy = Util.fixEmptyAndTrim(placementStrategy);
+        this.alternativeSizes = Util.fixEmptyAndTrim(alternativeSizes);
+        this.bakeImage = bakeImage;
+        this.spotInstances = spotInstances;
+        this.spotMaxPrice = Util.fixEmptyAndTrim(spotMaxPrice);
+        this.autoExecutors = autoExecutors;
+        this.coresPerExecutor = coresPerExecutor;
+        this.ramPerExecutor = ramPerExecutor;
+        this.jvmHeapPercent = jvmHeapPercent;
+        this.cloudInitBootstrap = cloudInitBootstrap;
         readResolve();
         this.userData = null; // Not used anymore, but retained for backward compatibility.
         this.vmPassword = null; // Not used anymore, but retained for backward compatibility.
@@ -264,6 +361,34 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
      */
     protected Object readResolve() {
         labelSet = Label.parse(labelString);
+        resumedNodeIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        bakedNodeIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        spotNodeIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        cloudInitNodeIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        circuitBreaker = new CircuitBreaker(JCloudsCloud.BREAKER_THRESHOLD, JCloudsCloud.BREAKER_COOLDOWN_MS);
+        latencies = new ConcurrentHashMap<>();
+        resolvedTemplates = new ConcurrentHashMap<>();
+        placementSelector = new PlacementSelector();
+        batchers = new HashMap<>();
+        sizes = new ArrayList<>();
+        sizes.add(getDefaultSize());
+        try {
+            for (final BinPackingPlanner.Size s : BinPackingPlanner.parse(alternativeSizes)) {
+                if (!sizes.contains(s)) {
+                    sizes.add(s);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Ignoring alternative sizes of template " + name + ": " + e.getMessage());
+        }
+        imageNamePattern = null;
+        if (!isNullOrEmpty(imageNameRegex)) {
+            try {
+                imageNamePattern = Pattern.compile(imageNameRegex);
+            } catch (PatternSyntaxException e) {
+                LOGGER.warning("Invalid image name regex " + imageNameRegex + " in template " + name);
+            }
+        }
         return this;
     }
 
@@ -319,10 +444,130 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
         }
     }
 
+    /**
+     * Determines the JVM options of the agent on a new node. If a heap percentage is configured,
+     * the heap is sized from the RAM of the node (or the configured minimum RAM, if the provider
+     * does not report it). Explicitly configured options take precedence.
+     * @param nm The metadata of the node.
+     * @return The JVM options for the slave.
+     */
+    String getJvmOptions(final NodeMetadata nm) {
+        final JvmOptions ret = new JvmOptions();
+        if (jvmHeapPercent > 0) {
+            final Hardware hw = nm.getHardware();
+            ret.heap(null != hw && hw.getRam() > 0 ? hw.getRam() : ram, jvmHeapPercent);
+        }
+        return ret.explicit(jvmOptions).build();
+    }
+
     public int getNumExecutors() {
         return numExecutors;
     }
 
+    /**
+     * @return The circuit breaker, which suspends provisioning from this template after repeated failures.
+     */
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return The size of nodes, created from this template without bin packing.
+     */
+    BinPackingPlanner.Size getDefaultSize() {
+        return new BinPackingPlanner.Size(hardwareId, Math.max(1, numExecutors));
+    }
+
+    /**
+     * Determines the number of executors, a node of the given size is expected to get.
+     * If executors are derived from the hardware, this is the number of executors of the
+     * last node of the default size or the configured number, if no node has been created yet.
+     * @param size The size of the node.
+     * @return The expected number of executors.
+     */
+    int plannedExecutors(final BinPackingPlanner.Size size) {
+        if (autoExecutors && getDefaultSize().equals(size) && estimatedExecutors > 0) {
+            return estimatedExecutors;
+        }
+        return size.getExecutors();
+    }
+
+    /**
+     * Determines the number of executors of a new node.
+     * @param nm The metadata of the node.
+     * @param size The size of the node.
+     * @return The number of executors for the slave.
+     */
+    private int executorsOf(final NodeMetadata nm, final BinPackingPlanner.Size size) {
+        if (autoExecutors && getDefaultSize().equals(size)) {
+            final Hardware hw = nm.getHardware();
+            if (null != hw && !hw.getProcessors().isEmpty()) {
+                estimatedExecutors = ExecutorSizing.executors(hw, coresPerExecutor, ramPerExecutor);
+            } else {
+                LOGGER.warning("No hardware details for node " + nm.getId() + ", using estimated number of executors");
+            }
+        }
+        return plannedExecutors(size);
+    }
+
+    /**
+     * @return The node sizes of this template: The default size, followed by the configured alternative sizes.
+     */
+    List<BinPackingPlanner.Size> getSizes() {
+        return Collections.unmodifiableList(sizes);
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * Get the relative weight of this template, when several templates match the same label.
+     * @return The weight, defaulting to 1.
+     */
+    public int getWeight() {
+        return weight <= 0 ? 1 : weight;
+    }
+
+    /**
+     * Get the maximum number of running instances for this template.
+     * @return The instance cap, defaulting to unlimited.
+     */
+    public int getInstanceCap() {
+        return instanceCap <= 0 ? Integer.MAX_VALUE : instanceCap;
+    }
+
+    /**
+     * Get the strategy for spreading new nodes across locations.
+     * @return The placement strategy, defaulting to round robin.
+     */
+    public String getPlacementStrategy() {
+        return PlacementSelector.Strategy.parse(placementStrategy).name();
+    }
+
+    /**
+     * Get the number of seconds to wait for a new slave to come online.
+     * @return The launch timeout or the default value from CloudInstanceDefaults if it is zero.
+     * @see CloudInstanceDefaults#DEFAULT_LAUNCH_TIMEOUT_IN_SECONDS
+     */
+    public int getLaunchTimeout() {
+        return launchTimeout <= 0 ? CloudInstanceDefaults.DEFAULT_LAUNCH_TIMEOUT_IN_SECONDS : launchTimeout;
+    }
+
+    /**
+     * Determine how many nodes are currently running for this template.
+     * @return number of running nodes.
+     */
+    int getRunningNodesCount() {
+        final String group = getCloud().prependGroupPrefix(name);
+        return getCloud().getInventory().getRunningCount(new Predicate<NodeMetadata>() {
+            @Override
+            public boolean apply(final NodeMetadata nm) {
+                return group.equals(nm.getGroup());
+            }
+        });
+    }
+
     public String getFsRoot() {
         if (fsRoot == null || fsRoot.equals("")) {
             return "/jenkins";
@@ -336,26 +581,45 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
     }
 
     public JCloudsSlave provisionSlave(TaskListener listener) throws IOException {
-        NodeMetadata nodeMetadata = get();
-
-        try {
-            return new JCloudsSlave(getCloud().getDisplayName(), getFsRoot(), nodeMetadata, labelString, description,
-                    Integer.toString(numExecutors), stopOnTerminate, overrideRetentionTime, getJvmOptions(), waitPhoneHome,
-                    waitPhoneHomeTimeout, credentialsId, mode, preferredAddress);
-        } catch (Descriptor.FormException e) {
-            throw new AssertionError("Invalid configuration " + e.getMessage());
-        }
+        return newSlave(get(), getDefaultSize());
     }
 
     private List<String> getUserDataIds() {
         List<String> ret = new ArrayList<>();
-        for (UserData ud : userDataEntries) {
-            ret.add(ud.fileId);
+        if (null != userDataEntries) {
+            for (UserData ud : userDataEntries) {
+                ret.add(ud.fileId);
+            }
         }
         return ret;
     }
 
-    private void setUserData(@NonNull final TemplateOptions options, @Nullable final byte[] udata) {
+    /**
+     * Renders the init statement as cloud-init user data parts: A shell script, creating the jenkins user,
+     * installing its keys, preparing the fsRoot and running the init script, followed by a phone home
+     * to jenkins, which signals that the node is ready.
+     * @return The parts, mapped by their mime type.
+     * @throws RuntimeException if the init statement cannot be rendered.
+     */
+    Map<String, String> getCloudInitParts() {
+        final Map<String, String> ret = new LinkedHashMap<>();
+        ret.put(CloudInitContentType.SHELL.getMime(), "#!/bin/sh\n" + getInitStatement(true).render(OsFamily.UNIX));
+        final String rootUrl = Jenkins.getInstance().getRootUrl();
+        if (null != rootUrl) {
+            ret.put(CloudInitContentType.CLOUDCONFIG.getMime(), "#cloud-config\nphone_home:\n"
+                    + "  url: " + rootUrl + PhoneHomeWebHook.URLNAME + "/\n"
+                    + "  post: [ hostname, instance_id ]\n  tries: 10\n");
+        } else {
+            LOGGER.warning("Jenkins URL is not configured, nodes of template " + name + " cannot phone home");
+        }
+        return ret;
+    }
+
+    /**
+     * Passes user data to the provider.
+     * @return {@code true}, if the user data has been passed.
+     */
+    private boolean setUserData(@NonNull final TemplateOptions options, @Nullable final byte[] udata) {
         if (null != udata) {
             final String sudata = new String(udata, StandardCharsets.UTF_8);
             if (options instanceof GoogleComputeEngineTemplateOptions) {
@@ -372,74 +636,539 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
                 } catch (ReflectiveOperationException e) {
                     LOGGER.log(Level.WARNING,
                             "userData is not supported by provider options class " + options.getClass().getName(), e);
+                    return false;
                 }
             }
+            return true;
         }
+        return false;
     }
 
-    @Override
-    public NodeMetadata get() {
-        boolean brokenImageCacheHasThrown = false;
-        NodeMetadata nodeMetadata = null;
+    /**
+     * Retrieves a copy of the resolved jclouds template for a placement. Resolving image, hardware
+     * and location can take a long time on some providers, so the result is cached until
+     * the resolution relevant fields change or a stale image is detected.
+     * @param placement The location and hardware to use.
+     * @param stale If {@code true}, the cached template is discarded and resolved again,
+     *              bypassing the image cache of jclouds.
+     * @param bakedImageId The id of the baked image to use instead of the configured image or {@code null}.
+     * @return A template whose options may be modified by the caller.
+     */
+    Template getResolvedTemplate(final PlacementSelector.Placement placement, final boolean stale,
+            @CheckForNull final String bakedImageId) {
+        final String key = getResolutionKey(placement, bakedImageId);
+        Template ret = resolvedTemplates.get(key);
+        if (stale || null == ret) {
+            try {
+                ret = resolveTemplate(placement, stale, bakedImageId);
+            } catch (NoSuchElementException | IllegalArgumentException e) {
+                if (null == bakedImageId) {
+                    throw e;
+                }
+                // Baked images exist only in the location of the bake node.
+                LOGGER.info("Baked image " + bakedImageId + " is not available at " + placement + ", using base image");
+                ret = resolveTemplate(placement, stale, null);
+            }
+            // A refreshed image catalog may have changed the key meanwhile.
+            resolvedTemplates.put(getResolutionKey(placement, bakedImageId), ret);
+        } else {
+            LOGGER.fine("Using cached template for " + name + " at " + placement);
+        }
+        return copy(ret);
+    }
 
-        do {
-            LOGGER.info("Provisioning new jclouds node");
-            ImmutableMap<String, String> userMetadata = ImmutableMap.of("Name", name);
-            TemplateBuilder templateBuilder = getCloud().getCompute().templateBuilder();
-            if (!isNullOrEmpty(imageId)) {
-                LOGGER.info("Setting image id to " + imageId);
-                templateBuilder.imageId(imageId);
-            } else if (!isNullOrEmpty(imageNameRegex)) {
-                if (brokenImageCacheHasThrown) {
-                    LOGGER.info("Resolving image name regex " + imageNameRegex);
-                    // We do NOT use templateBuilder.imageNameMatches(imageNameRegex),
-                    // because the corresponding image id gets cached for a LOOONG time
-                    // and we do not want that. Therefore we always search for images
-                    // ourselves and then use the Id of a found image. To work around
-                    // caching, we need to do this using a freshly instantiated
-                    // ComputeService.
-                    // See: https://issues.apache.org/jira/browse/JCLOUDS-570
-                    // and: https://issues.apache.org/jira/browse/JCLOUDS-512
-                    // for some insight.
-                    boolean foundAny = true;
-                    for (Image i : getCloud().newCompute().listImages()) {
-                        if (i.getName().matches(imageNameRegex)) {
-                            LOGGER.info("Setting image id to " + i.getId());
-                            templateBuilder.imageId(i.getId());
-                            foundAny = true;
-                            break;
+    /**
+     * Builds the key of a resolved template. For templates using an image name regex, the key
+     * contains the id of the newest matching image, so that a new image in the image catalog
+     * leads to a new resolution instead of the first resolved image being used forever.
+     */
+    private String getResolutionKey(final PlacementSelector.Placement placement, final String bakedImageId) {
+        String newestImageId = null;
+        if (isNullOrEmpty(imageId) && null != imageNamePattern) {
+            final Image image = getCloud().getImageCatalog().newest(imageNamePattern);
+            newestImageId = null == image ? null : image.getId();
+        }
+        return Arrays.asList(imageId, imageNameRegex, newestImageId, osFamily, osVersion, placement.getHardwareId(),
+                Double.valueOf(cores), Integer.valueOf(ram), placement.getLocationId(), bakedImageId).toString();
+    }
+
+    /**
+     * Computes a hash over everything that goes into a baked image: The base image and the
+     * complete initialization (jenkins user, init script and user data).
+     * @return The hash.
+     */
+    String getBakeHash() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Object o : Arrays.asList(imageId, imageNameRegex, osFamily, osVersion,
+                    Boolean.valueOf(preExistingJenkinsUser), getJenkinsUser(), getJenkinsPublicKey(), getFsRoot(),
+                    Boolean.valueOf(allowSudo), Boolean.valueOf(installPrivateKey), ConfigHelper.getConfig(initScriptId))) {
+            sb.append(o).append('\n');
+        }
+        if (null != userDataEntries) {
+            try {
+                final byte[] udata = ConfigHelper.buildUserData(getUserDataIds(), false);
+                if (null != udata) {
+                    sb.append(new String(udata, StandardCharsets.UTF_8));
+                }
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "Unable to build userData", x);
+            }
+        }
+        return Util.getDigestOf(sb.toString());
+    }
+
+    /**
+     * Retrieves the baked image to start new nodes from.
+     * @return The id of the baked image or {@code null}, if baking is disabled or no up to date image exists.
+     */
+    @CheckForNull
+    String getBakedImageId() {
+        return bakeImage ? JCloudsImageBaker.getBakedImageId(getCloud().name, name, getBakeHash()) : null;
+    }
+
+    /**
+     * Builds a list from a primary value and a comma separated list of alternatives.
+     */
+    private static List<String> withAlternatives(final String primary, final String alternatives) {
+        final List<String> ret = new ArrayList<>();
+        ret.add(primary);
+        if (!isNullOrEmpty(alternatives)) {
+            for (final String a : csvToArray(alternatives)) {
+                final String s = Util.fixEmptyAndTrim(a);
+                if (null != s && !ret.contains(s)) {
+                    ret.add(s);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static boolean isInLocation(final NodeMetadata nm, final String id) {
+        for (Location l = nm.getLocation(); null != l; l = l.getParent()) {
+            if (id.equals(l.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines the location/hardware combinations to try for the next node creations.
+     * Fallback hardware ids apply to the default size only.
+     * @param size The size of the nodes.
+     * @param count The number of nodes to create.
+     * @return The candidates (best first) with the number of nodes to create using them.
+     */
+    Map<List<PlacementSelector.Placement>, Integer> getPlacements(final BinPackingPlanner.Size size, final int count) {
+        final List<String> locations = withAlternatives(locationId, additionalLocationIds);
+        final List<String> hardware = getDefaultSize().equals(size)
+            ? withAlternatives(hardwareId, additionalHardwareIds) : Collections.singletonList(size.getHardwareId());
+        final PlacementSelector.Strategy strategy = PlacementSelector.Strategy.parse(placementStrategy);
+        final Map<String, Integer> load = new HashMap<>();
+        if (PlacementSelector.Strategy.LEAST_LOADED == strategy && locations.size() > 1) {
+            final String group = getCloud().prependGroupPrefix(name);
+            for (final String l : locations) {
+                if (null != l) {
+                    load.put(l, Integer.valueOf(getCloud().getInventory().getRunningCount(new Predicate<NodeMetadata>() {
+                        @Override
+                        public boolean apply(final NodeMetadata nm) {
+                            return group.equals(nm.getGroup()) && isInLocation(nm, l);
                         }
-                    }
-                    if (!foundAny) {
-                        throw new RuntimeException("No matching image available");
-                    }
-                } else {
-                    LOGGER.info("Setting image name regex to " + imageNameRegex);
-                    templateBuilder.imageNameMatches(imageNameRegex);
+                    })));
                 }
-            } else {
-                if (!isNullOrEmpty(osFamily)) {
-                    LOGGER.info("Setting osFamily to " + osFamily);
-                    templateBuilder.osFamily(OsFamily.fromValue(osFamily));
+            }
+        }
+        return placementSelector.distribute(locations, hardware, strategy, load, count);
+    }
+
+    private Template resolveTemplate(final PlacementSelector.Placement placement, final boolean bypassImageCache,
+            final String bakedImageId) {
+        final String hardwareId = placement.getHardwareId();
+        final String locationId = placement.getLocationId();
+        TemplateBuilder templateBuilder = getCloud().getCompute().templateBuilder();
+        if (null != bakedImageId) {
+            LOGGER.info("Setting image id to baked image " + bakedImageId);
+            templateBuilder.imageId(bakedImageId);
+        } else if (!isNullOrEmpty(imageId)) {
+            LOGGER.info("Setting image id to " + imageId);
+            templateBuilder.imageId(imageId);
+        } else if (!isNullOrEmpty(imageNameRegex)) {
+            // We do NOT use templateBuilder.imageNameMatches(imageNameRegex),
+            // because the corresponding image id gets cached for a LOOONG time
+            // and the first match is picked in arbitrary order. Instead, the
+            // newest matching image is looked up in the image catalog of the cloud
+            // and its id is used. If the cached image has turned out to be broken,
+            // the catalog gets refreshed first.
+            // See: https://issues.apache.org/jira/browse/JCLOUDS-570
+            // and: https://issues.apache.org/jira/browse/JCLOUDS-512
+            // for some insight.
+            if (null == imageNamePattern) {
+                throw new IllegalStateException("Invalid image name regex " + imageNameRegex);
+            }
+            final ImageCatalog catalog = getCloud().getImageCatalog();
+            if (bypassImageCache) {
+                LOGGER.info("Refreshing image catalog for image name regex " + imageNameRegex);
+                catalog.refresh();
+            }
+            final Image image = catalog.newest(imageNamePattern);
+            if (null == image) {
+                throw new IllegalStateException("No image matching " + imageNameRegex + " available");
+            }
+            LOGGER.info("Setting image id to " + image.getId() + " (" + image.getName() + ")");
+            templateBuilder.imageId(image.getId());
+        } else {
+            if (!isNullOrEmpty(osFamily)) {
+                LOGGER.info("Setting osFamily to " + osFamily);
+                templateBuilder.osFamily(OsFamily.fromValue(osFamily));
+            }
+            if (!isNullOrEmpty(osVersion)) {
+                LOGGER.info("Setting osVersion to " + osVersion);
+                templateBuilder.osVersionMatches(osVersion);
+            }
+        }
+        if (!isNullOrEmpty(hardwareId)) {
+            LOGGER.info("Setting hardware Id to " + hardwareId);
+            templateBuilder.hardwareId(hardwareId);
+        } else {
+            LOGGER.info("Setting minRam " + ram + " and minCores " + cores);
+            templateBuilder.minCores(cores).minRam(ram);
+        }
+        if (!isNullOrEmpty(locationId)) {
+            LOGGER.info("Setting location Id to " + locationId);
+            templateBuilder.locationId(locationId);
+        }
+
+        return templateBuilder.build();
+    }
+
+    /**
+     * Builds the script which prepares a new node for running a jenkins slave.
+     * @return The init statement or {@code null}, if nothing needs to be done.
+     */
+    @CheckForNull
+    Statement getInitStatement() {
+        return getInitStatement(false);
+    }
+
+    /**
+     * Builds the script which prepares a new node for running a jenkins slave.
+     * @param render {@code true}, if the script is rendered here. Otherwise the admin access is
+     *        initialized by jclouds, when the script is run via SSH.
+     * @return The init statement or {@code null}, if nothing needs to be done.
+     */
+    @CheckForNull
+    Statement getInitStatement(final boolean render) {
+        final String initscript = ConfigHelper.getConfig(initScriptId);
+        if (this.preExistingJenkinsUser) {
+            if (!initscript.isEmpty()) {
+                return Statements.exec(initscript);
+            }
+            return null;
+        }
+        // provision jenkins user
+        AdminAccess adminAccess = AdminAccess.builder().adminUsername(getJenkinsUser())
+            .installAdminPrivateKey(installPrivateKey) // some VCS such as Git use SSH authentication
+            .grantSudoToAdminUser(allowSudo) // no need
+            .adminPrivateKey(getJenkinsPrivateKey()) // temporary due to jclouds bug
+            .authorizeAdminPublicKey(true).adminPublicKey(getJenkinsPublicKey()).adminHome(getFsRoot()).build();
+        if (render) {
+            adminAccess = adminAccess.init(new DefaultConfiguration());
+        }
+        // Jenkins needs /jenkins dir.
+        Statement jenkinsDirStatement = newStatementList(Statements.exec("mkdir -p " + getFsRoot()),
+                Statements.exec("chown " + getJenkinsUser() + " " + getFsRoot()));
+        return newStatementList(adminAccess, jenkinsDirStatement, Statements.exec(initscript));
+    }
+
+    /**
+     * Resolves the jclouds template for a node size, if it is not cached already.
+     * @param size The size of the node.
+     */
+    void resolve(final BinPackingPlanner.Size size) {
+        final Template t = getResolvedTemplate(new PlacementSelector.Placement(locationId, size.getHardwareId()), false,
+                getBakedImageId());
+        if (autoExecutors && 0 == estimatedExecutors && getDefaultSize().equals(size) && null != t.getHardware()
+                && !t.getHardware().getProcessors().isEmpty()) {
+            estimatedExecutors = ExecutorSizing.executors(t.getHardware(), coresPerExecutor, ramPerExecutor);
+        }
+    }
+
+    /**
+     * Requests a new node. Concurrent requests for the same template and size are
+     * coalesced into a single call to the provider.
+     * @param size The size of the node.
+     * @return A future, providing the metadata of the new node.
+     */
+    ListenableFuture<NodeMetadata> requestNode(final BinPackingPlanner.Size size) {
+        return getBatcher(size).request();
+    }
+
+    /**
+     * Runs the init script on a freshly created node. Resumed nodes and nodes started from
+     * a baked image have been bootstrapped already, nodes bootstrapped by cloud-init do it themselves. If the init script fails, the node is destroyed.
+     * @param nm The metadata of the new node.
+     * @return The metadata of the bootstrapped node.
+     * @throws InterruptedException if interrupted while waiting for SSH to become available.
+     */
+    NodeMetadata bootstrap(final NodeMetadata nm) throws InterruptedException {
+        final boolean baked = bakedNodeIds.remove(nm.getId());
+        final Statement initStatement = getInitStatement();
+        if (null == initStatement || baked || resumedNodeIds.contains(nm.getId()) || cloudInitNodeIds.contains(nm.getId())) {
+            return nm;
+        }
+        final ComputeService compute = getCloud().getCompute();
+        try {
+            final String address = JCloudsLauncher.getConnectionAddress(nm, null, preferredAddress);
+            waitForSsh(address, getCloud().startTimeout);
+            LOGGER.info("Running init script on node " + nm.getId());
+            RunScriptOptions rso = RunScriptOptions.Builder.nameTask("jenkins-init");
+            if (null != nm.getCredentials()) {
+                rso = rso.overrideLoginCredentials(nm.getCredentials());
+            }
+            final ExecResponse response = compute.runScriptOnNode(nm.getId(), initStatement, rso);
+            if (0 != response.getExitStatus()) {
+                throw new IllegalStateException(String.format("Init script on node %s failed with exit status %d: %s",
+                            nm.getId(), response.getExitStatus(), response.getError()));
+            }
+            return nm;
+        } catch (RuntimeException | InterruptedException e) {
+            LOGGER.warning("Bootstrapping node " + nm.getId() + " failed, destroying it");
+            compute.destroyNode(nm.getId());
+            getCloud().getInventory().remove(nm.getId());
+            throw e;
+        }
+    }
+
+    private static void waitForSsh(final String address, final int timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(address, 22), 5000);
+                return;
+            } catch (IOException x) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("SSH port of " + address + " did not become available", x);
                 }
-                if (!isNullOrEmpty(osVersion)) {
-                    LOGGER.info("Setting osVersion to " + osVersion);
-                    templateBuilder.osVersionMatches(osVersion);
+                Thread.sleep(2000);
+            }
+        }
+    }
+
+    /**
+     * Creates a new slave for the given node.
+     * @param nodeMetadata The metadata of the (bootstrapped) node.
+     * @param size The size of the node, which determines the number of executors, unless
+     *             they are derived from the hardware of the node.
+     * @return The new slave.
+     * @throws IOException if an error occurs.
+     */
+    JCloudsSlave newSlave(final NodeMetadata nodeMetadata, final BinPackingPlanner.Size size) throws IOException {
+        // A resumed node does not run its init script again and therefore never phones home.
+        final boolean resumed = resumedNodeIds.remove(nodeMetadata.getId());
+        // A node bootstrapped by cloud-init is ready, when it phones home.
+        final boolean cloudInit = cloudInitNodeIds.remove(nodeMetadata.getId());
+
+        try {
+            final JCloudsSlave ret = new JCloudsSlave(getCloud().getDisplayName(), getFsRoot(), nodeMetadata, labelString, description,
+                    Integer.toString(executorsOf(nodeMetadata, size)), stopOnTerminate, overrideRetentionTime, getJvmOptions(nodeMetadata), (waitPhoneHome || cloudInit) && !resumed,
+                    cloudInit && waitPhoneHomeTimeout <= 0 ? CLOUD_INIT_PHONE_HOME_TIMEOUT : waitPhoneHomeTimeout, credentialsId, mode, preferredAddress, name);
+            ret.setSpot(spotNodeIds.remove(nodeMetadata.getId()));
+            return ret;
+        } catch (Descriptor.FormException e) {
+            throw new AssertionError("Invalid configuration " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the duration of a provisioning phase to the statistics of this template.
+     * @param phase The name of the phase (see {@link ProvisioningTimings}).
+     * @param millis The duration in milliseconds.
+     */
+    void recordLatency(final String phase, final long millis) {
+        LatencyHistogram h = latencies.get(phase);
+        if (null == h) {
+            synchronized (latencies) {
+                h = latencies.get(phase);
+                if (null == h) {
+                    h = new LatencyHistogram();
+                    latencies.put(phase, h);
                 }
             }
-            if (!isNullOrEmpty(hardwareId)) {
-                LOGGER.info("Setting hardware Id to " + hardwareId);
-                templateBuilder.hardwareId(hardwareId);
-            } else {
-                LOGGER.info("Setting minRam " + ram + " and minCores " + cores);
-                templateBuilder.minCores(cores).minRam(ram);
+        }
+        h.record(millis);
+    }
+
+    /**
+     * @return The provisioning latencies of this template by phase, since Jenkins was started.
+     */
+    Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    private synchronized ProvisionBatcher getBatcher(final BinPackingPlanner.Size size) {
+        ProvisionBatcher ret = batchers.get(size);
+        if (null == ret) {
+            ret = new ProvisionBatcher(new ProvisionBatcher.NodeCreator() {
+                public Set<? extends NodeMetadata> createNodes(final int count) throws RunNodesException {
+                    return JCloudsSlaveTemplate.this.createNodes(count, size, false);
+                }
+            }, BATCH_WINDOW_MS, MAX_BATCH_SIZE, Timer.get(), getCloud().getPipeline().getCreateExecutor());
+            batchers.put(size, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Provisions a new node by passing it through the resolve, create and bootstrap
+     * stages of the provisioning pipeline of the cloud.
+     * @return The metadata of the new node.
+     */
+    @Override
+    public NodeMetadata get() {
+        try {
+            return getCloud().getPipeline().provisionNode(this, getDefaultSize(), new ProvisioningTimings(), null).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw propagate(e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Determines the size of an existing node by its hardware. Nodes with unknown
+     * hardware or hardware, not belonging to an alternative size, are of the default size.
+     */
+    private BinPackingPlanner.Size sizeOf(final NodeMetadata nm) {
+        if (null != nm.getHardware()) {
+            final String id = nm.getHardware().getId();
+            for (final BinPackingPlanner.Size s : sizes.subList(1, sizes.size())) {
+                if (s.getHardwareId().equals(id)) {
+                    return s;
+                }
             }
-            if (!isNullOrEmpty(locationId)) {
-                LOGGER.info("Setting location Id to " + locationId);
-                templateBuilder.locationId(locationId);
+        }
+        return getDefaultSize();
+    }
+
+    /**
+     * Resumes previously suspended nodes of this template.
+     * @param count The maximum number of nodes to resume.
+     * @param size The size of the nodes.
+     * @return The resumed nodes.
+     */
+    private List<NodeMetadata> resumeSuspendedNodes(final int count, final BinPackingPlanner.Size size) {
+        final List<NodeMetadata> ret = new ArrayList<>();
+        final String group = getCloud().prependGroupPrefix(name);
+        final String cloudName = getCloud().name;
+        final NodeInventory inventory = getCloud().getInventory();
+        while (ret.size() < count) {
+            final NodeMetadata nm = inventory.claimSuspended(new Predicate<NodeMetadata>() {
+                @Override
+                public boolean apply(final NodeMetadata input) {
+                    // Skip nodes whose slave has not been removed yet.
+                    return group.equals(input.getGroup()) && size.equals(sizeOf(input))
+                        && null == Jenkins.getInstance().getNode(JCloudsSlave.uniqueName(input, cloudName));
+                }
+            });
+            if (null == nm) {
+                break;
             }
+            try {
+                LOGGER.info("Resuming suspended node " + nm.getId());
+                final ComputeService compute = getCloud().getCompute();
+                compute.resumeNode(nm.getId());
+                NodeMetadata resumed = compute.getNodeMetadata(nm.getId());
+                if (null == resumed) {
+                    LOGGER.warning("Resumed node " + nm.getId() + " has vanished");
+                    inventory.release(nm.getId());
+                    continue;
+                }
+                if (null == resumed.getCredentials()) {
+                    // Credentials are not available anymore after a restart of Jenkins,
+                    // but the jenkins user has been set up when the node was created.
+                    resumed = NodeMetadataBuilder.fromNodeMetadata(resumed).credentials(LoginCredentials.builder()
+                            .user(getJenkinsUser()).privateKey(getJenkinsPrivateKey()).build()).build();
+                }
+                inventory.add(resumed);
+                resumedNodeIds.add(resumed.getId());
+                ret.add(resumed);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to resume node " + nm.getId(), e);
+                // The node stays suspended and can be resumed later. Create new nodes
+                // for now, instead of claiming the same node over and over again.
+                inventory.release(nm.getId());
+                inventory.invalidate();
+                break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Creates a number of nodes from this template.
+     * Suspended nodes of this template are resumed first, if available. The remaining nodes are
+     * spread across the configured locations according to the placement strategy. Nodes sharing
+     * the same placement candidates are created using a single call to the provider.
+     * @param count The number of nodes to create.
+     * @param size The size of the nodes.
+     * @param baking If {@code true}, the nodes are started from the base image in order to bake a new image.
+     * @return The created nodes. If creation fails after some nodes have been created, these are returned.
+     * @throws RunNodesException if some or all nodes could not be created. Failed nodes have already been destroyed.
+     */
+    Set<? extends NodeMetadata> createNodes(final int count, final BinPackingPlanner.Size size, final boolean baking)
+            throws RunNodesException {
+        final Set<NodeMetadata> created = new LinkedHashSet<>(baking
+                ? Collections.<NodeMetadata>emptyList() : resumeSuspendedNodes(count, size));
+        final int remaining = count - created.size();
+        if (remaining <= 0) {
+            return created;
+        }
+        for (final Map.Entry<List<PlacementSelector.Placement>, Integer> batch : getPlacements(size, remaining).entrySet()) {
+            try {
+                created.addAll(createNodes(batch.getKey(), batch.getValue().intValue(), baking, created));
+            } catch (RuntimeException e) {
+                if (created.isEmpty()) {
+                    throw e;
+                }
+                // Do not lose the nodes, which have been created already.
+                LOGGER.log(Level.WARNING, "Failed to create nodes of template " + name + ", keeping "
+                        + created.size() + " created node(s)", e);
+                break;
+            }
+        }
+        return created;
+    }
 
-            Template template = templateBuilder.build();
+    /**
+     * Creates a number of nodes using a single call to the provider. If the provider
+     * is out of capacity for a location/hardware combination, that combination is put into
+     * a cooldown and the remaining nodes are created using the next candidate.
+     * @param placements The placement candidates, best first.
+     * @param count The number of nodes to create.
+     * @param baking If {@code true}, the nodes are started from the base image in order to bake a new image.
+     * @param previous Nodes which have been created or resumed before, to be reported on failure.
+     * @return The created nodes.
+     * @throws RunNodesException if some or all nodes could not be created. Failed nodes have already been destroyed.
+     */
+    private Set<NodeMetadata> createNodes(final List<PlacementSelector.Placement> placements, final int count,
+            final boolean baking, final Set<NodeMetadata> previous) throws RunNodesException {
+        boolean brokenImageCacheHasThrown = false;
+        String bakedImageId = baking ? null : getBakedImageId();
+        boolean spot = !baking && requestsSpot(System.currentTimeMillis());
+        final Set<NodeMetadata> created = new LinkedHashSet<>();
+        int remaining = count;
+        int placementIndex = 0;
+        boolean nextPlacement;
+        boolean retryOnDemand;
+        do {
+            nextPlacement = false;
+            retryOnDemand = false;
+            final PlacementSelector.Placement placement = placements.get(placementIndex);
+            final boolean hasNextPlacement = placementIndex + 1 < placements.size();
+            LOGGER.info("Provisioning " + remaining + " new jclouds node(s) at " + placement);
+            final Map<String, String> userMetadata = NodeTags.of(getCloud().name, name, getCloud().getGroupPrefix());
+            Template template = getResolvedTemplate(placement, brokenImageCacheHasThrown, bakedImageId);
             TemplateOptions options = template.getOptions();
 
             if (!isNullOrEmpty(networks)) {
@@ -503,6 +1232,8 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
                 options.as(GoogleComputeEngineTemplateOptions.class).autoCreateKeyPair(false);
             }
 
+            final boolean useSpot = spot && applySpotOptions(options);
+
             if (assignPublicIp) {
                 if (options instanceof NovaTemplateOptions) {
                     LOGGER.info("Setting autoAssignFloatingIp to true");
@@ -532,75 +1263,111 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
                 }
             }
 
-            if (spoolDelayMs > 0) {
-                // (JENKINS-15970) Add optional delay before spooling. Author: Adam Rofer
-                synchronized (delayLockObject) {
-                    LOGGER.info("Delaying " + spoolDelayMs + " milliseconds. Current ms -> " + System.currentTimeMillis());
-                    try {
-                        delayLockObject.wait(spoolDelayMs);
-                    } catch (InterruptedException e) {
-                        LOGGER.warning(e.getMessage());
-                    }
-                }
-            }
-
-            Statement initStatement = null;
+            options.inboundPorts(22).userMetadata(userMetadata);
 
-            final String initscript = ConfigHelper.getConfig(initScriptId);
-            if (this.preExistingJenkinsUser) {
-                if (!initscript.isEmpty()) {
-                    initStatement = Statements.exec(initscript);
-                }
-            } else {
-                // provision jenkins user
-                AdminAccess adminAccess = AdminAccess.builder().adminUsername(getJenkinsUser())
-                    .installAdminPrivateKey(installPrivateKey) // some VCS such as Git use SSH authentication
-                    .grantSudoToAdminUser(allowSudo) // no need
-                    .adminPrivateKey(getJenkinsPrivateKey()) // temporary due to jclouds bug
-                    .authorizeAdminPublicKey(true).adminPublicKey(getJenkinsPublicKey()).adminHome(getFsRoot()).build();
-                // Jenkins needs /jenkins dir.
-                Statement jenkinsDirStatement = newStatementList(Statements.exec("mkdir -p " + getFsRoot()),
-                        Statements.exec("chown " + getJenkinsUser() + " " + getFsRoot()));
-                initStatement = newStatementList(adminAccess, jenkinsDirStatement, Statements.exec(initscript));
+            if (null != getInitStatement() && !options.hasLoginPrivateKey()) {
+                // The init script is run by the bootstrap stage using the credentials of the node.
+                LOGGER.info("Init script without private admin key. Falling back to jenkins user credentials");
+                LoginCredentials lc = LoginCredentials.builder()
+                    .user(getJenkinsUser()).privateKey(getJenkinsPrivateKey()).build();
+                options.overrideLoginCredentials(lc);
             }
-            options.inboundPorts(22).userMetadata(userMetadata);
 
-            if (null != initStatement) {
-                if (!options.hasLoginPrivateKey()) {
-                    LOGGER.info("Init script without private admin key. Falling back to jenkins user credentials");
-                    LoginCredentials lc = LoginCredentials.builder()
-                        .user(getJenkinsUser()).privateKey(getJenkinsPrivateKey()).build();
-                    options.overrideLoginCredentials(lc);
+            // Bake nodes are always bootstrapped via SSH, so the image is not captured before the init script has finished.
+            // So are nodes which get the private key installed, because user data is readable from within the node.
+            boolean useCloudInit = cloudInitBootstrap && !installPrivateKey && !baking && !isBaked(template, bakedImageId)
+                && null != getInitStatement();
+            Map<String, String> extraParts = Collections.<String, String>emptyMap();
+            if (useCloudInit) {
+                try {
+                    extraParts = getCloudInitParts();
+                } catch (RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "Unable to render the init script of template " + name + " as user data", x);
+                    useCloudInit = false;
                 }
-                options.runScript(initStatement);
             }
-
-            if (null != userDataEntries) {
+            if (null != userDataEntries || useCloudInit) {
                 try {
-                    byte[] udata = ConfigHelper.buildUserData(getUserDataIds(), false);
+                    byte[] udata = ConfigHelper.buildUserData(getUserDataIds(), extraParts, false);
                     if (null != udata && getCloud().allowGzippedUserData()) {
-                        byte[] zipped = ConfigHelper.buildUserData(getUserDataIds(), true);
+                        byte[] zipped = ConfigHelper.buildUserData(getUserDataIds(), extraParts, true);
                         if (null != zipped && zipped.length < udata.length) {
                             udata = zipped;
                         }
                     }
-                    setUserData(options, udata);
+                    useCloudInit = setUserData(options, udata) && useCloudInit;
                 } catch (IOException x) {
                     LOGGER.log(Level.SEVERE, "Unable to build userData", x);
+                    useCloudInit = false;
                 }
             }
+            if (cloudInitBootstrap && !useCloudInit && !baking) {
+                LOGGER.warning(installPrivateKey
+                        ? "Template " + name + " installs the private key of the jenkins user, which is never passed as user data, bootstrapping via SSH"
+                        : "Unable to pass the init script of template " + name + " as user data, bootstrapping via SSH");
+            }
 
+            final String group = getCloud().prependGroupPrefix(name);
             try {
-                nodeMetadata = getOnlyElement(getCloud().getCompute()
-                        .createNodesInGroup(getCloud().prependGroupPrefix(name), 1, template));
+                for (NodeMetadata nm : getCloud().getCompute().createNodesInGroup(group, remaining, template)) {
+                    getCloud().getInventory().add(nm);
+                    created.add(nm);
+                    if (isBaked(template, bakedImageId)) {
+                        bakedNodeIds.add(nm.getId());
+                    }
+                    if (useSpot) {
+                        spotNodeIds.add(nm.getId());
+                    }
+                    if (useCloudInit) {
+                        cloudInitNodeIds.add(nm.getId());
+                    }
+                }
                 brokenImageCacheHasThrown = false;
             } catch (RunNodesException e) {
+                // Nodes which have been created successfully are kept in any case.
+                for (NodeMetadata nm : e.getSuccessfulNodes()) {
+                    getCloud().getInventory().add(nm);
+                    created.add(nm);
+                    if (isBaked(template, bakedImageId)) {
+                        bakedNodeIds.add(nm.getId());
+                    }
+                    if (useSpot) {
+                        spotNodeIds.add(nm.getId());
+                    }
+                    if (useCloudInit) {
+                        cloudInitNodeIds.add(nm.getId());
+                    }
+                }
+                remaining = count - created.size();
+                if (useSpot) {
+                    destroyBadNodes(e);
+                    fallBackToOnDemand(e);
+                    spot = false;
+                    retryOnDemand = true;
+                    continue;
+                }
+                if (isCapacityError(e)) {
+                    LOGGER.warning("Out of capacity at " + placement);
+                    placementSelector.cooldown(placement, PLACEMENT_COOLDOWN_MS);
+                    if (hasNextPlacement) {
+                        destroyBadNodes(e);
+                        placementIndex++;
+                        nextPlacement = true;
+                        continue;
+                    }
+                }
                 boolean throwNow = true;
-                if (!(isNullOrEmpty(imageNameRegex) || brokenImageCacheHasThrown)) {
+                if (!((isNullOrEmpty(imageNameRegex) && null == bakedImageId) || brokenImageCacheHasThrown)) {
                     Map<?, ? extends Throwable> xmap = e.getExecutionErrors();
                     for (Throwable t : xmap.values()) {
                         if (t.getMessage().contains("Image")) {
                             LOGGER.fine("Exception message MATCHED: '" + t.getMessage() + "'");
+                            if (null != bakedImageId) {
+                                // The baked image is gone. Fall back to the base image until it is baked again.
+                                LOGGER.warning("Baked image " + bakedImageId + " of template " + name + " is not usable");
+                                JCloudsImageBaker.discard(getCloud().name, name);
+                                bakedImageId = null;
+                            }
                             brokenImageCacheHasThrown = true;
                             throwNow = false;
                             destroyBadNodes(e);
@@ -610,13 +1377,127 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
                     }
                 }
                 if (throwNow) {
-                    throw destroyBadNodesAndPropagate(e);
+                    destroyBadNodes(e);
+                    if (previous.size() + created.size() > e.getSuccessfulNodes().size()) {
+                        final Set<NodeMetadata> all = new LinkedHashSet<>(previous);
+                        all.addAll(created);
+                        throw new RunNodesException(group, previous.size() + count, template, all,
+                                e.getExecutionErrors(), e.getNodeErrors());
+                    }
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                if (useSpot) {
+                    fallBackToOnDemand(e);
+                    spot = false;
+                    retryOnDemand = true;
+                    continue;
                 }
+                if (!PlacementSelector.isCapacityError(e)) {
+                    throw e;
+                }
+                LOGGER.warning("Out of capacity at " + placement);
+                placementSelector.cooldown(placement, PLACEMENT_COOLDOWN_MS);
+                if (!hasNextPlacement) {
+                    throw e;
+                }
+                placementIndex++;
+                nextPlacement = true;
             }
-        } while (brokenImageCacheHasThrown);
+        } while ((brokenImageCacheHasThrown || nextPlacement || retryOnDemand) && remaining > 0);
+
+        return created;
+    }
 
-        // Check if nodeMetadata is null and throw
-        return nodeMetadata;
+    /**
+     * Requests spot (AWS EC2) or preemptible (Google Compute Engine) instances.
+     * @param options The options to modify.
+     * @return {@code true}, if the provider supports it and spot instances have been requested.
+     */
+    boolean applySpotOptions(final TemplateOptions options) {
+        if (options instanceof AWSEC2TemplateOptions) {
+            final Float price = getSpotMaxPrice();
+            if (null == price) {
+                LOGGER.warning("Spot instances on AWS EC2 require a maximum price, using on-demand instances");
+                return false;
+            }
+            LOGGER.info("Requesting spot instances with a maximum price of " + price);
+            options.as(AWSEC2TemplateOptions.class).spotPrice(price).spotOptions(
+                    RequestSpotInstancesOptions.Builder.validUntil(new Date(System.currentTimeMillis() + SPOT_REQUEST_TIMEOUT_MS)));
+            return true;
+        }
+        if (options instanceof GoogleComputeEngineTemplateOptions) {
+            // Preemptible instances have a fixed price, so spotMaxPrice does not apply.
+            LOGGER.info("Requesting preemptible instances");
+            options.as(GoogleComputeEngineTemplateOptions.class).preemptible(true);
+            return true;
+        }
+        LOGGER.warning("Spot instances are not supported by this provider, using on-demand instances");
+        return false;
+    }
+
+    @CheckForNull
+    private Float getSpotMaxPrice() {
+        try {
+            return null == spotMaxPrice ? null : Float.valueOf(spotMaxPrice);
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid spot maximum price " + spotMaxPrice);
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether new nodes are requested as spot instances. This is not the case for a while
+     * after a spot request has failed or a spot node has been preempted.
+     * @param now The current time in milliseconds.
+     * @return {@code true}, if spot instances are enabled and not suspended.
+     */
+    boolean requestsSpot(final long now) {
+        return spotInstances && now >= spotCooldownUntil;
+    }
+
+    private void fallBackToOnDemand(final Exception e) {
+        LOGGER.log(Level.WARNING, "Spot request for template " + name + " failed, falling back to on-demand instances", e);
+        spotCooldownUntil = System.currentTimeMillis() + PLACEMENT_COOLDOWN_MS;
+    }
+
+    /**
+     * Records the preemption of a spot node. For a while, new nodes are created on-demand,
+     * because the provider is likely to reclaim further spot capacity.
+     * @param nodeName The name of the preempted slave.
+     */
+    void spotPreempted(final String nodeName) {
+        LOGGER.warning("Spot slave " + nodeName + " of template " + name + " has been preempted");
+        spotCooldownUntil = System.currentTimeMillis() + PLACEMENT_COOLDOWN_MS;
+    }
+
+    private static boolean isBaked(final Template template, final String bakedImageId) {
+        return null != bakedImageId && bakedImageId.equals(template.getImage().getId());
+    }
+
+    /**
+     * Creates and bootstraps a node from the base image, which is to be turned into a baked image.
+     * @return The metadata of the bootstrapped node.
+     * @throws RunNodesException if the node could not be created.
+     * @throws InterruptedException if interrupted while bootstrapping.
+     */
+    NodeMetadata createBakeNode() throws RunNodesException, InterruptedException {
+        final Set<? extends NodeMetadata> nodes = createNodes(1, getDefaultSize(), true);
+        return bootstrap(nodes.iterator().next());
+    }
+
+    private static boolean isCapacityError(final RunNodesException e) {
+        for (Throwable t : e.getExecutionErrors().values()) {
+            if (PlacementSelector.isCapacityError(t)) {
+                return true;
+            }
+        }
+        for (Throwable t : e.getNodeErrors().values()) {
+            if (PlacementSelector.isCapacityError(t)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void destroyBadNodes(RunNodesException e) {
@@ -625,11 +1506,6 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
         }
     }
 
-    private RuntimeException destroyBadNodesAndPropagate(RunNodesException e) {
-        destroyBadNodes(e);
-        throw propagate(e);
-    }
-
     private static String[] csvToArray(final String csv) {
         try {
             final CSVReader reader = new CSVReader(new StringReader(csv), SEPARATOR_CHAR);
@@ -702,6 +1578,58 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
             return FormValidation.validatePositiveInteger(value);
         }
 
+        public FormValidation doCheckCoresPerExecutor(@QueryParameter String value) {
+            try {
+                if (isNullOrEmpty(value) || Double.parseDouble(value.trim()) > 0) {
+                    return FormValidation.ok();
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            return FormValidation.error("The number of cores per executor must be a positive number");
+        }
+
+        public FormValidation doCheckRamPerExecutor(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckJvmHeapPercent(@QueryParameter String value) {
+            try {
+                final int v = isNullOrEmpty(value) ? 0 : Integer.parseInt(value.trim());
+                if (v >= 0 && v <= 90) {
+                    return FormValidation.ok();
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            return FormValidation.error("The heap percentage must be between 0 and 90");
+        }
+
+        public FormValidation doCheckSpotMaxPrice(@QueryParameter String value, @QueryParameter boolean spotInstances) {
+            if (isNullOrEmpty(value)) {
+                return spotInstances
+                    ? FormValidation.warning("AWS EC2 requires a maximum price, otherwise on-demand instances are created")
+                    : FormValidation.ok();
+            }
+            try {
+                if (Float.parseFloat(value.trim()) > 0) {
+                    return FormValidation.ok();
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            return FormValidation.error("The maximum price must be a positive number");
+        }
+
+        public FormValidation doCheckAlternativeSizes(@QueryParameter String value) {
+            try {
+                BinPackingPlanner.parse(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
         public FormValidation doCheckCredentialsId(@QueryParameter String value) {
             return FormValidation.validateRequired(value);
         }
@@ -872,6 +1800,13 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
             return result;
         }
 
+        public ListBoxModel doFillPlacementStrategyItems() {
+            ListBoxModel m = new ListBoxModel();
+            m.add("Round robin", PlacementSelector.Strategy.ROUND_ROBIN.name());
+            m.add("Least loaded", PlacementSelector.Strategy.LEAST_LOADED.name());
+            return m;
+        }
+
         public ListBoxModel doFillLocationIdItems(
                 @RelativePath("..") @QueryParameter String providerName, @RelativePath("..") @QueryParameter String cloudCredentialsId,
                 @RelativePath("..") @QueryParameter String endPointUrl, @RelativePath("..") @QueryParameter String zones) {
@@ -963,7 +1898,19 @@ public class JCloudsSlaveTemplate implements Describable<JCloudsSlaveTemplate>,
             return FormValidation.validateNonNegativeInteger(value);
         }
 
-        public FormValidation doCheckSpoolDelayMs(@QueryParameter String value) {
+        public FormValidation doCheckMinIdle(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckWeight(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckInstanceCap(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckLaunchTimeout(@QueryParameter String value) {
             return FormValidation.validateNonNegativeInteger(value);
         }
     }
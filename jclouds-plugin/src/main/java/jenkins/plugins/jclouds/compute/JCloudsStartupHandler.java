@@ -16,7 +16,6 @@
 package jenkins.plugins.jclouds.compute;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
@@ -28,15 +27,16 @@ import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 
 import org.jclouds.compute.ComputeService;
-import org.jclouds.compute.domain.NodeMetadata;
 
-import shaded.com.google.common.base.Predicate;
-import shaded.com.google.common.collect.Multimap;
+import shaded.com.google.common.cache.CacheBuilder;
+import shaded.com.google.common.cache.CacheLoader;
+import shaded.com.google.common.cache.LoadingCache;
 
 import hudson.Extension;
 import hudson.model.listeners.ItemListener;
 import jenkins.model.Jenkins;
 
+import jenkins.plugins.jclouds.compute.internal.TerminateNodes;
 import jenkins.plugins.jclouds.compute.internal.TerminateNodes.Persistent;
 
 /**
@@ -64,53 +64,29 @@ public class JCloudsStartupHandler extends ItemListener {
         if (initial.compareAndSet(true, false)) {
             for (Path path : listStaleNodeLists()) {
                 Persistent p = new Persistent(path.toFile());
-                try {
-                    Multimap<String, String> work = p.getNodesToSuspend();
-                    for (final String cloud : work.keySet()) {
-                        JCloudsCloud c = JCloudsCloud.getByName(cloud);
-                        if (null != c) {
-                            final Collection<String> nodes = work.get(cloud);
-                            final ComputeService cs = c.newCompute();
-                            if (null != cs) {
-                                try {
-                                    LOGGER.info("Suspending stale nodes in cloud " + cloud + ": " + nodes);
-                                    cs.suspendNodesMatching(new Predicate<NodeMetadata>() {
-                                        public boolean apply(final NodeMetadata input) {
-                                            return nodes.contains(input.getId());
-                                        }
-                                    });
-                                } catch (Exception e) {
-                                    LOGGER.info("Suspending on cloud: " + cloud + "; nodes: " + nodes + ": " + e);
-                                }
-                                cs.getContext().close();
-                            }
-                        }
-                    }
-                    work = p.getNodesToDestroy();
-                    for (final String cloud : work.keySet()) {
-                        JCloudsCloud c = JCloudsCloud.getByName(cloud);
-                        if (null != c) {
-                            final Collection<String> nodes = work.get(cloud);
-                            final ComputeService cs = c.newCompute();
-                            if (null != cs) {
-                                try {
-                                    LOGGER.info("Destroying stale nodes in cloud " + cloud + ": " + nodes);
-                                    cs.destroyNodesMatching(new Predicate<NodeMetadata>() {
-                                        public boolean apply(final NodeMetadata input) {
-                                            return nodes.contains(input.getId());
-                                        }
-                                    });
-                                } catch (Exception e) {
-                                    LOGGER.info("Destroying on cloud: " + cloud + "; nodes: " + nodes + ": " + e);
+                final LoadingCache<String, ComputeService> computes = CacheBuilder.newBuilder().build(
+                        new CacheLoader<String, ComputeService>() {
+                            @Override
+                            public ComputeService load(final String cloud) {
+                                final JCloudsCloud c = JCloudsCloud.getByName(cloud);
+                                if (null == c) {
+                                    throw new IllegalStateException("No such cloud: " + cloud);
                                 }
-                                cs.getContext().close();
+                                return c.newCompute();
                             }
-                        }
-                    }
+                        });
+                try {
+                    LOGGER.info("Cleaning up stale nodes from " + path.getFileName());
+                    // Nodes, which cannot be handled, are kept in the list for the next startup.
+                    new TerminateNodes(new ComputeLogger.Factory().getLogger(JCloudsStartupHandler.class.getName()),
+                            computes).terminate(p);
                 } catch (Exception e) {
                     LOGGER.log(Level.WARNING, "Stale node cleanup", e);
+                } finally {
+                    for (final ComputeService cs : computes.asMap().values()) {
+                        cs.getContext().close();
+                    }
                 }
-                p.remove();
             }
         }
     }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.ModelObject;
+
+import jenkins.plugins.jclouds.compute.internal.ProvisioningTimings;
+
+/**
+ * A slave, provisioned manually via the "Provision via JClouds" button. Provisioning runs in the
+ * background, while its progress can be watched at {@code <jenkins>/cloud/<cloud>/provisioning/<id>/}.
+ */
+public final class ManualProvisioning implements ModelObject {
+
+    static final String LAUNCH = "launch";
+    private static final List<String> PHASES = Arrays.asList(ProvisioningTimings.RESOLVE, ProvisioningTimings.CREATE,
+            ProvisioningTimings.BOOTSTRAP, ProvisioningTimings.REGISTER, LAUNCH);
+
+    private final String id;
+    private final String templateName;
+    private final long started;
+    private final ProvisioningTimings timings = new ProvisioningTimings();
+    private final List<String> log = new ArrayList<>();
+    private volatile String nodeName;
+    private volatile String failure;
+    private volatile boolean done;
+
+    ManualProvisioning(final String id, final String templateName) {
+        this.id = id;
+        this.templateName = templateName;
+        this.started = System.currentTimeMillis();
+        log("Provisioning a slave from template " + templateName);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public String getDisplayName() {
+        return "Provisioning " + templateName + " #" + id;
+    }
+
+    public Date getStarted() {
+        return new Date(started);
+    }
+
+    ProvisioningTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return The name of the new slave or {@code null}, if it has not been registered yet.
+     */
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    /**
+     * @return {@code true}, if the slave is online or provisioning has failed.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return The stack trace of the failure or {@code null}.
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * Determines the current phase from the phases completed so far.
+     * @return The name of the current phase, {@code online} or {@code failed}.
+     */
+    public String getPhase() {
+        if (null != failure) {
+            return "failed";
+        }
+        if (done) {
+            return "online";
+        }
+        final Map<String, Long> completed = timings.getTimings();
+        for (final String phase : PHASES) {
+            if (!completed.containsKey(phase)) {
+                return phase;
+            }
+        }
+        return LAUNCH;
+    }
+
+    /**
+     * @return The durations of the completed phases in milliseconds.
+     */
+    public Map<String, Long> getPhaseTimings() {
+        return timings.getTimings();
+    }
+
+    public String formatDuration(final long millis) {
+        return Util.getTimeSpanString(millis);
+    }
+
+    public synchronized List<String> getLog() {
+        return new ArrayList<>(log);
+    }
+
+    private synchronized void log(final String message) {
+        log.add(new SimpleDateFormat("HH:mm:ss").format(new Date()) + " " + message);
+    }
+
+    void registered(final String nodeName) {
+        this.nodeName = nodeName;
+        log("Slave " + nodeName + " has been added, launching agent");
+    }
+
+    void online() {
+        timings.record(LAUNCH, System.currentTimeMillis() - started - sum(timings.getTimings()));
+        log("Slave " + nodeName + " is online after " + Util.getTimeSpanString(System.currentTimeMillis() - started));
+        done = true;
+    }
+
+    void failed(final Throwable x) {
+        log("Provisioning failed: " + x);
+        failure = Functions.printThrowable(x);
+        done = true;
+    }
+
+    private static long sum(final Map<String, Long> timings) {
+        long ret = 0;
+        for (final Long l : timings.values()) {
+            ret += l.longValue();
+        }
+        return ret;
+    }
+}
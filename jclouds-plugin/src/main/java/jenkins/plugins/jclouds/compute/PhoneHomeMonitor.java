@@ -109,14 +109,22 @@ final class PhoneHomeMonitor {
         return 0;
     }
 
-    void waitForPhoneHome(final String who, final PrintStream logger) throws InterruptedException {
+    /**
+     * Waits for a single target to phone home.
+     *
+     * @param who The name of the target.
+     * @param logger Receives progress messages, may be {@code null}.
+     * @return The number of milliseconds waited or -1, if there was no need to wait.
+     * @throws InterruptedException if the wait timed out or got interrupted.
+     */
+    long waitForPhoneHome(final String who, final PrintStream logger) throws InterruptedException {
         if (null == who || who.isEmpty()) {
             throw new IllegalArgumentException("who may not me null or empty");
         }
         List<String> tmp = new ArrayList<>();
         tmp.add(who);
         setTargets(tmp);
-        waitForPhoneHome(logger);
+        return waitForPhoneHome(logger);
     }
 
     void waitForPhoneHome(final List<String> who, final PrintStream logger) {
@@ -140,8 +148,9 @@ final class PhoneHomeMonitor {
         waitThread.start();
     }
 
-    private void waitForPhoneHome(PrintStream logger) throws InterruptedException {
-        long timeout = System.currentTimeMillis() + getWaitPhoneHomeTimeoutMs();
+    private long waitForPhoneHome(PrintStream logger) throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        long timeout = start + getWaitPhoneHomeTimeoutMs();
         boolean hasWaitedAtAll = false;
         while (true) {
             long tdif = timeout - System.currentTimeMillis();
@@ -176,8 +185,9 @@ final class PhoneHomeMonitor {
                     if (null != logger) {
                         logger.println(msg);
                     }
+                    return System.currentTimeMillis() - start;
                 }
-                break;
+                return -1;
             }
         }
     }
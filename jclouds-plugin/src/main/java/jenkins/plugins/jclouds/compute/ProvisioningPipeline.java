@@ -0,0 +1,286 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import org.jclouds.compute.domain.NodeMetadata;
+
+import jenkins.plugins.jclouds.compute.internal.BinPackingPlanner;
+import jenkins.plugins.jclouds.compute.internal.CapacityLedger;
+import jenkins.plugins.jclouds.compute.internal.ProvisioningTimings;
+
+import shaded.com.google.common.base.Function;
+import shaded.com.google.common.util.concurrent.AsyncFunction;
+import shaded.com.google.common.util.concurrent.FutureCallback;
+import shaded.com.google.common.util.concurrent.Futures;
+import shaded.com.google.common.util.concurrent.ListenableFuture;
+import shaded.com.google.common.util.concurrent.ListeningExecutorService;
+import shaded.com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Provisions nodes of a cloud in separate stages, each having its own bounded executor:
+ * <ul>
+ * <li>resolve: Resolves the jclouds template (image, hardware and location).</li>
+ * <li>create: Creates nodes at the provider (batched per template).</li>
+ * <li>bootstrap: Runs the init script on the new node.</li>
+ * <li>register: Creates the slave and adds it to Jenkins.</li>
+ * <li>launch: Waits for the slave to come online (event driven, see {@link JCloudsLaunchListener}).</li>
+ * </ul>
+ * This way, slow init scripts do not hold back cheap create calls and vice versa.
+ * <p>
+ * The queues of the stages are bounded. When the resolve or create stage is full, new requests
+ * fail with a {@link RejectedExecutionException}, before a node has been created. The bootstrap
+ * and register stages deal with existing nodes, so they run rejected tasks in the calling
+ * thread, which slows down the upstream stages instead of losing a node.
+ */
+final class ProvisioningPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(ProvisioningPipeline.class.getName());
+
+    /* The maximum number of tasks waiting in the queue of a single stage. */
+    static final int QUEUE_CAPACITY = Integer.getInteger(ProvisioningPipeline.class.getName() + ".queueCapacity", 500);
+
+    /* Runs rejected tasks in the calling thread, even after shutdown, so that they do not get lost. */
+    static final RejectedExecutionHandler CALLER_RUNS = new RejectedExecutionHandler() {
+        public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+            r.run();
+        }
+    };
+
+    private final ListeningExecutorService resolveExecutor;
+    private final ListeningExecutorService createExecutor;
+    private final ListeningExecutorService bootstrapExecutor;
+    private final ListeningExecutorService registerExecutor;
+
+    ProvisioningPipeline(final String cloudName, final int resolveConcurrency, final int createConcurrency,
+            final int bootstrapConcurrency) {
+        final ThreadPoolExecutor.AbortPolicy abort = new ThreadPoolExecutor.AbortPolicy();
+        resolveExecutor = newStage(cloudName, "resolve", resolveConcurrency, QUEUE_CAPACITY, abort);
+        createExecutor = newStage(cloudName, "create", createConcurrency, QUEUE_CAPACITY, abort);
+        bootstrapExecutor = newStage(cloudName, "bootstrap", bootstrapConcurrency, QUEUE_CAPACITY, CALLER_RUNS);
+        registerExecutor = newStage(cloudName, "register", 1, QUEUE_CAPACITY, CALLER_RUNS);
+    }
+
+    static ListeningExecutorService newStage(final String cloudName, final String stage, final int concurrency,
+            final int capacity, final RejectedExecutionHandler rejectionHandler) {
+        final int n = Math.max(1, concurrency);
+        final ThreadPoolExecutor ret = new ThreadPoolExecutor(n, n, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, capacity)),
+                new NamingThreadFactory(new DaemonThreadFactory(), "jclouds-" + cloudName + "-" + stage),
+                rejectionHandler);
+        ret.allowCoreThreadTimeOut(true);
+        return MoreExecutors.listeningDecorator(ret);
+    }
+
+    /**
+     * Shuts down all stages. Provisionings in progress are completed, new ones are rejected.
+     */
+    void shutdown() {
+        resolveExecutor.shutdown();
+        createExecutor.shutdown();
+        bootstrapExecutor.shutdown();
+        registerExecutor.shutdown();
+    }
+
+    ListeningExecutorService getCreateExecutor() {
+        return createExecutor;
+    }
+
+    private static void record(final JCloudsSlaveTemplate t, final ProvisioningTimings timings, final String phase,
+            final long start) {
+        final long millis = System.currentTimeMillis() - start;
+        timings.record(phase, millis);
+        t.recordLatency(phase, millis);
+    }
+
+    /**
+     * Provisions a bootstrapped node.
+     *
+     * @param t The template to use.
+     * @param size The size of the node.
+     * @param timings Receives the durations of the individual stages.
+     * @param reservation The reserved instance slot, which gets released once the node has been
+     *        created (and therefore is counted as running) or creation has failed. May be {@code null}.
+     * @return A future, providing the metadata of the new node.
+     */
+    ListenableFuture<NodeMetadata> provisionNode(final JCloudsSlaveTemplate t, final BinPackingPlanner.Size size,
+            final ProvisioningTimings timings, @CheckForNull final CapacityLedger.Reservation reservation) {
+        ListenableFuture<Void> resolved;
+        try {
+            resolved = resolveExecutor.submit(new Callable<Void>() {
+                public Void call() {
+                    final long start = System.currentTimeMillis();
+                    t.resolve(size);
+                    record(t, timings, ProvisioningTimings.RESOLVE, start);
+                    return null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            resolved = Futures.immediateFailedFuture(e);
+        }
+        final ListenableFuture<NodeMetadata> created = Futures.transform(resolved, new AsyncFunction<Void, NodeMetadata>() {
+            public ListenableFuture<NodeMetadata> apply(final Void v) {
+                final long start = System.currentTimeMillis();
+                // The batcher runs on the create executor
+                return Futures.transform(t.requestNode(size), new Function<NodeMetadata, NodeMetadata>() {
+                    public NodeMetadata apply(final NodeMetadata nm) {
+                        record(t, timings, ProvisioningTimings.CREATE, start);
+                        return nm;
+                    }
+                });
+            }
+        });
+        if (null != reservation) {
+            Futures.addCallback(created, new FutureCallback<NodeMetadata>() {
+                public void onSuccess(final NodeMetadata nm) {
+                    reservation.releaseOne();
+                }
+
+                public void onFailure(final Throwable x) {
+                    reservation.releaseOne();
+                }
+            });
+        }
+        final ListenableFuture<NodeMetadata> bootstrapped = Futures.transform(created, new AsyncFunction<NodeMetadata, NodeMetadata>() {
+            public ListenableFuture<NodeMetadata> apply(final NodeMetadata nm) {
+                return bootstrapExecutor.submit(new Callable<NodeMetadata>() {
+                    public NodeMetadata call() throws Exception {
+                        final long start = System.currentTimeMillis();
+                        final NodeMetadata ret = t.bootstrap(nm);
+                        record(t, timings, ProvisioningTimings.BOOTSTRAP, start);
+                        return ret;
+                    }
+                });
+            }
+        });
+        Futures.addCallback(bootstrapped, new FutureCallback<NodeMetadata>() {
+            public void onSuccess(final NodeMetadata nm) {
+                t.getCloud().recordProvisioning(t, null);
+            }
+
+            public void onFailure(final Throwable x) {
+                // An overloaded or shut down pipeline says nothing about the health of the provider,
+                // but a probe, which never reached it, must be returned.
+                if (x instanceof CancellationException || x instanceof RejectedExecutionException) {
+                    t.getCloud().cancelProbes(t);
+                } else {
+                    t.getCloud().recordProvisioning(t, x);
+                }
+            }
+        });
+        return bootstrapped;
+    }
+
+    /**
+     * Provisions a new slave and adds it to Jenkins. The returned future completes
+     * as soon as the slave has been added, not when it is online.
+     *
+     * @param t The template to use.
+     * @param size The size of the node.
+     * @param reservation The reserved instance slot, see {@link #provisionNode}.
+     * @return A future, providing the new slave.
+     */
+    ListenableFuture<JCloudsSlave> provisionSlave(final JCloudsSlaveTemplate t, final BinPackingPlanner.Size size,
+            @CheckForNull final CapacityLedger.Reservation reservation) {
+        return provisionSlave(t, size, reservation, new ProvisioningTimings());
+    }
+
+    /**
+     * Provisions a new slave and adds it to Jenkins, recording the stage durations as they complete.
+     *
+     * @param t The template to use.
+     * @param size The size of the node.
+     * @param reservation The reserved instance slot, see {@link #provisionNode}.
+     * @param timings Receives the durations of the individual stages.
+     * @return A future, providing the new slave.
+     */
+    ListenableFuture<JCloudsSlave> provisionSlave(final JCloudsSlaveTemplate t, final BinPackingPlanner.Size size,
+            @CheckForNull final CapacityLedger.Reservation reservation, final ProvisioningTimings timings) {
+        return Futures.transform(provisionNode(t, size, timings, reservation), new AsyncFunction<NodeMetadata, JCloudsSlave>() {
+            public ListenableFuture<JCloudsSlave> apply(final NodeMetadata nm) {
+                return registerExecutor.submit(new Callable<JCloudsSlave>() {
+                    public JCloudsSlave call() throws Exception {
+                        return register(t, nm, size, timings);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Adds the slave of a bootstrapped node to Jenkins. If that fails, the node is destroyed,
+     * like a node whose bootstrap has failed, so that a fallback does not leave it behind.
+     *
+     * @param t The template to use.
+     * @param nm The bootstrapped node.
+     * @param size The size of the node.
+     * @param timings Receives the duration of the registration.
+     * @return The new slave.
+     * @throws IOException if the slave could not be created or added.
+     */
+    static JCloudsSlave register(final JCloudsSlaveTemplate t, final NodeMetadata nm, final BinPackingPlanner.Size size,
+            final ProvisioningTimings timings) throws IOException {
+        final long start = System.currentTimeMillis();
+        JCloudsSlave slave = null;
+        try {
+            slave = t.newSlave(nm, size);
+            slave.setProvisioningTimings(timings);
+            Jenkins.getInstance().addNode(slave);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warning("Registering node " + nm.getId() + " failed, destroying it");
+            try {
+                if (null != slave && slave == Jenkins.getInstance().getNode(slave.getNodeName())) {
+                    Jenkins.getInstance().removeNode(slave);
+                }
+                t.getCloud().getCompute().destroyNode(nm.getId());
+                t.getCloud().getInventory().remove(nm.getId());
+            } catch (IOException | RuntimeException x) {
+                LOGGER.log(Level.WARNING, "Failed to destroy node " + nm.getId(), x);
+            }
+            throw e;
+        }
+        record(t, timings, ProvisioningTimings.REGISTER, start);
+        return slave;
+    }
+
+    /**
+     * Provisions a new slave of the template's default size and adds it to Jenkins.
+     *
+     * @param t The template to use.
+     * @param reservation The reserved instance slot, see {@link #provisionNode}.
+     * @return A future, providing the new slave.
+     */
+    ListenableFuture<JCloudsSlave> provisionSlave(final JCloudsSlaveTemplate t,
+            @CheckForNull final CapacityLedger.Reservation reservation) {
+        return provisionSlave(t, t.getDefaultSize(), reservation);
+    }
+}
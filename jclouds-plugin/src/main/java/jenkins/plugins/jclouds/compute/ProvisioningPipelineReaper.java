@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+
+/**
+ * Saving the global configuration replaces all clouds by new instances. This shuts down
+ * the provisioning pipelines of the old instances, which would otherwise keep their
+ * threads forever.
+ */
+@Extension
+public final class ProvisioningPipelineReaper extends SaveableListener {
+
+    @Override
+    public void onChange(final Saveable o, final XmlFile file) {
+        if (o instanceof Jenkins) {
+            JCloudsCloud.shutdownRemovedPipelines(((Jenkins) o).clouds);
+        }
+    }
+}
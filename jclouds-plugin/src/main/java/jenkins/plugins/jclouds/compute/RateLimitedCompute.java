@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static shaded.com.google.common.base.Throwables.propagate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
+
+import shaded.com.google.common.base.Supplier;
+
+import jenkins.plugins.jclouds.compute.internal.ApiRateLimiter;
+
+/**
+ * Wraps compute contexts, so that all calls of their {@link ComputeService} pass through
+ * an {@link ApiRateLimiter}. Limiters are shared by all users of the same provider account
+ * (clouds, cleanup and form validation).
+ * <p>
+ * The compute service returns the wrapped context from {@link ComputeService#getContext()}.
+ * Provider specific APIs, obtained by {@link ComputeServiceContext#unwrapApi(Class)}, are
+ * <em>not</em> rate limited by the wrapper. Their calls have to be made via {@link #limited}.
+ */
+final class RateLimitedCompute {
+
+    private static final Logger LOGGER = Logger.getLogger(RateLimitedCompute.class.getName());
+
+    private static final double INITIAL_RATE =
+        Integer.getInteger(RateLimitedCompute.class.getName() + ".initialRate", 10).doubleValue();
+    private static final double MAX_RATE =
+        Integer.getInteger(RateLimitedCompute.class.getName() + ".maxRate", 50).doubleValue();
+    private static final double MIN_RATE = 0.2;
+
+    private static final Map<String, ApiRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private RateLimitedCompute() {
+    }
+
+    static ApiRateLimiter getLimiter(final String provider, final String credId, final String endpoint) {
+        final String key = provider + "|" + credId + "|" + endpoint;
+        synchronized (LIMITERS) {
+            ApiRateLimiter ret = LIMITERS.get(key);
+            if (null == ret) {
+                ret = new ApiRateLimiter(INITIAL_RATE, MIN_RATE, MAX_RATE);
+                LIMITERS.put(key, ret);
+            }
+            return ret;
+        }
+    }
+
+    /* Methods which do not call the provider's API. */
+    private static boolean isLocal(final Method m) {
+        final String name = m.getName();
+        return Object.class.equals(m.getDeclaringClass())
+            || name.startsWith("template") || name.endsWith("Extension");
+    }
+
+    private static Object call(final Object target, final Method m, final Object[] args) throws Throwable {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException x) {
+            throw x.getCause();
+        }
+    }
+
+    private static ComputeService wrap(final ComputeService compute, final ComputeServiceContext ctx,
+            final ApiRateLimiter limiter) {
+        return (ComputeService) Proxy.newProxyInstance(ComputeService.class.getClassLoader(),
+                new Class<?>[] { ComputeService.class }, new InvocationHandler() {
+            public Object invoke(final Object proxy, final Method m, final Object[] args) throws Throwable {
+                if ("getContext".equals(m.getName())) {
+                    return ctx;
+                }
+                if (isLocal(m)) {
+                    return call(compute, m, args);
+                }
+                try {
+                    limiter.acquire();
+                } catch (InterruptedException e) {
+                    // Not declared by the compute service, so it would surface as UndeclaredThrowableException.
+                    Thread.currentThread().interrupt();
+                    throw propagate(e);
+                }
+                try {
+                    final Object ret = call(compute, m, args);
+                    limiter.onSuccess();
+                    return ret;
+                } catch (Throwable t) {
+                    if (ApiRateLimiter.isRateLimitError(t)) {
+                        limiter.onThrottled();
+                        LOGGER.info(String.format("Rate limited by provider, reducing API call rate to %.1f/s",
+                                    limiter.getRate()));
+                    }
+                    throw t;
+                }
+            }
+        });
+    }
+
+    /**
+     * Performs a call of a provider specific API through a limiter.
+     *
+     * @param limiter The limiter of the provider account.
+     * @param call The call to perform.
+     * @return The result of the call.
+     */
+    static <T> T limited(final ApiRateLimiter limiter, final Supplier<T> call) {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw propagate(e);
+        }
+        try {
+            final T ret = call.get();
+            limiter.onSuccess();
+            return ret;
+        } catch (RuntimeException e) {
+            if (ApiRateLimiter.isRateLimitError(e)) {
+                limiter.onThrottled();
+                LOGGER.info(String.format("Rate limited by provider, reducing API call rate to %.1f/s",
+                            limiter.getRate()));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps a compute context.
+     *
+     * @param ctx The context to wrap.
+     * @param limiter The limiter to apply to all API calls of the context's compute service.
+     * @return A context, whose compute service is rate limited.
+     */
+    static ComputeServiceContext wrap(final ComputeServiceContext ctx, final ApiRateLimiter limiter) {
+        final ComputeService[] compute = new ComputeService[1];
+        final ComputeServiceContext ret = (ComputeServiceContext) Proxy.newProxyInstance(
+                ComputeServiceContext.class.getClassLoader(),
+                new Class<?>[] { ComputeServiceContext.class }, new InvocationHandler() {
+            public Object invoke(final Object proxy, final Method m, final Object[] args) throws Throwable {
+                if ("getComputeService".equals(m.getName())) {
+                    return compute[0];
+                }
+                return call(ctx, m, args);
+            }
+        });
+        compute[0] = wrap(ctx.getComputeService(), ret, limiter);
+        return ret;
+    }
+}
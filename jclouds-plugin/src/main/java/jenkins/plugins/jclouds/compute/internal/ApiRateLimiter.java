@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.http.HttpResponseException;
+
+/**
+ * Token bucket limiting the rate of API calls, which adapts its rate
+ * using additive increase / multiplicative decrease (AIMD):
+ * Every successful call raises the rate by a small amount, while a call
+ * rejected by the provider because of rate limiting halves it.
+ */
+public class ApiRateLimiter {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /* Rate increase (calls per second) per successful call. */
+    private static final double INCREMENT = 0.1;
+
+    private final double minRate;
+    private final double maxRate;
+
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long lastDecrease;
+
+    /**
+     * Creates a new limiter with a full bucket.
+     *
+     * @param initialRate The initial number of calls per second.
+     * @param minRate The lower bound of the rate.
+     * @param maxRate The upper bound of the rate.
+     */
+    public ApiRateLimiter(final double initialRate, final double minRate, final double maxRate) {
+        this.minRate = minRate;
+        this.maxRate = Math.max(minRate, maxRate);
+        this.rate = Math.min(this.maxRate, Math.max(minRate, initialRate));
+        this.tokens = getCapacity();
+        this.lastRefill = nanoTime();
+        this.lastDecrease = lastRefill - NANOS_PER_SECOND;
+    }
+
+    /**
+     * Provides the current time. Overridden by tests.
+     *
+     * @return The current value of the system timer in nanoseconds.
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /* The bucket holds at most one second worth of calls, but at least one. */
+    private double getCapacity() {
+        return Math.max(1.0, rate);
+    }
+
+    private void refill() {
+        final long now = nanoTime();
+        tokens = Math.min(getCapacity(), tokens + rate * (now - lastRefill) / NANOS_PER_SECOND);
+        lastRefill = now;
+    }
+
+    /**
+     * Reserves a single call.
+     *
+     * @return The number of nanoseconds the caller has to wait before performing the call.
+     */
+    public synchronized long reserve() {
+        refill();
+        tokens -= 1.0;
+        return tokens >= 0 ? 0 : (long) (-tokens * NANOS_PER_SECOND / rate);
+    }
+
+    /**
+     * Blocks until a call is permitted.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        final long wait = reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Records a successful call, increasing the rate additively.
+     */
+    public synchronized void onSuccess() {
+        refill();
+        rate = Math.min(maxRate, rate + INCREMENT);
+    }
+
+    /**
+     * Records a call, which was rejected because of rate limiting. The rate is halved
+     * and the bucket is drained. Since concurrent calls usually get rejected together,
+     * the rate is decreased at most once per second.
+     */
+    public synchronized void onThrottled() {
+        refill();
+        final long now = nanoTime();
+        if (now - lastDecrease >= NANOS_PER_SECOND) {
+            rate = Math.max(minRate, rate / 2);
+            lastDecrease = now;
+        }
+        tokens = Math.min(tokens, 0);
+    }
+
+    /**
+     * @return The current number of permitted calls per second.
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Checks, whether an exception (or one of its causes) was caused by the provider's rate limiting.
+     *
+     * @param t The exception to check.
+     * @return {@code true} if the call was rejected because of rate limiting.
+     */
+    public static boolean isRateLimitError(final Throwable t) {
+        Throwable cur = t;
+        for (int depth = 0; null != cur && depth < 10; depth++) {
+            if (cur instanceof HttpResponseException) {
+                final HttpResponseException hre = (HttpResponseException) cur;
+                if (null != hre.getResponse() && hre.getResponse().getStatusCode() == 429) {
+                    return true;
+                }
+            }
+            final String msg = cur.getMessage();
+            if (null != msg) {
+                final String m = msg.toLowerCase(Locale.ENGLISH);
+                if (m.contains("rate limit") || m.contains("ratelimit") || m.contains("requestlimitexceeded")
+                        || m.contains("throttl") || m.contains("too many requests")) {
+                    return true;
+                }
+            }
+            cur = cur.getCause() == cur ? null : cur.getCause();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import shaded.com.google.common.base.Objects;
+
+/**
+ * Chooses node sizes for covering an excess workload with as few nodes as reasonable.
+ * <p>
+ * A large workload is covered by the largest sizes which do not exceed it, the remainder
+ * by smaller ones. If the number of nodes which may still be created is limited (instance caps),
+ * larger sizes are chosen, so that the available slots cover as much of the workload as possible.
+ */
+public final class BinPackingPlanner {
+
+    /**
+     * A node size: The hardware to use and the number of executors of the resulting slave.
+     */
+    public static final class Size {
+        private final String hardwareId;
+        private final int executors;
+
+        /**
+         * @param hardwareId The hardware id or {@code null} for selecting hardware by cores and RAM.
+         * @param executors The number of executors. Must be positive.
+         */
+        public Size(final String hardwareId, final int executors) {
+            if (executors < 1) {
+                throw new IllegalArgumentException("Number of executors must be positive");
+            }
+            this.hardwareId = hardwareId;
+            this.executors = executors;
+        }
+
+        public String getHardwareId() {
+            return hardwareId;
+        }
+
+        public int getExecutors() {
+            return executors;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Size)) {
+                return false;
+            }
+            final Size other = (Size) o;
+            return Objects.equal(hardwareId, other.hardwareId) && executors == other.executors;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(hardwareId, Integer.valueOf(executors));
+        }
+
+        @Override
+        public String toString() {
+            return (null == hardwareId ? "<min. cores and RAM>" : hardwareId) + "=" + executors;
+        }
+    }
+
+    private static final Comparator<Size> LARGEST_FIRST = new Comparator<Size>() {
+        public int compare(final Size a, final Size b) {
+            return Integer.compare(b.executors, a.executors);
+        }
+    };
+
+    private BinPackingPlanner() {
+    }
+
+    /**
+     * Parses a list of sizes.
+     *
+     * @param spec Comma or whitespace separated entries of the form {@code hardwareId=executors}.
+     * @return The parsed sizes in configured order. Empty, if spec is {@code null} or blank.
+     * @throws IllegalArgumentException if an entry is malformed.
+     */
+    public static List<Size> parse(final String spec) {
+        final List<Size> ret = new ArrayList<>();
+        if (null == spec) {
+            return ret;
+        }
+        for (final String entry : spec.trim().split("[,\\s]+")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            final int idx = entry.lastIndexOf('=');
+            if (idx < 1 || idx == entry.length() - 1) {
+                throw new IllegalArgumentException("Invalid size '" + entry + "', expected hardwareId=executors");
+            }
+            final int executors;
+            try {
+                executors = Integer.parseInt(entry.substring(idx + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number of executors in '" + entry + "'", e);
+            }
+            ret.add(new Size(entry.substring(0, idx), executors));
+        }
+        return ret;
+    }
+
+    /**
+     * Chooses the size of the next node.
+     *
+     * @param sizes The available sizes. Must not be empty.
+     * @param workload The number of executors still needed. Must be positive.
+     * @param slots The number of nodes which may still be created. Must be positive.
+     * @return The size of the next node.
+     */
+    public static Size next(final List<Size> sizes, final int workload, final int slots) {
+        final List<Size> sorted = new ArrayList<>(sizes);
+        Collections.sort(sorted, LARGEST_FIRST);
+        // Executors per node needed to cover the workload with the remaining slots.
+        final int target = (int) Math.min(Integer.MAX_VALUE, (workload + (long) slots - 1) / slots);
+        Size ret = null;
+        for (final Size s : sorted) {
+            if (s.executors <= workload) {
+                ret = s;
+                break;
+            }
+        }
+        if (null == ret) {
+            // The remainder is smaller than all sizes.
+            ret = sorted.get(sorted.size() - 1);
+        }
+        if (ret.executors < target) {
+            // Not enough slots left for covering the workload with that size.
+            ret = sorted.get(0);
+            for (final Size s : sorted) {
+                if (s.executors >= target) {
+                    ret = s;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Plans the sizes of all nodes for a workload.
+     *
+     * @param sizes The available sizes. Must not be empty.
+     * @param workload The number of executors needed.
+     * @param slots The number of nodes which may be created.
+     * @return The sizes of the nodes to create, largest first. May cover less than the workload, if slots are short.
+     */
+    public static List<Size> plan(final List<Size> sizes, final int workload, final int slots) {
+        final List<Size> ret = new ArrayList<>();
+        int remaining = workload;
+        while (remaining > 0 && ret.size() < slots) {
+            final Size s = next(sizes, remaining, slots - ret.size());
+            ret.add(s);
+            remaining -= s.executors;
+        }
+        return ret;
+    }
+}
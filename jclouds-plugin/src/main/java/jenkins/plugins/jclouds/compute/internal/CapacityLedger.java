@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of instance slots, which have been reserved for nodes that are about to be created.
+ * <p>
+ * Checking the instance caps and reserving a slot happen atomically, so concurrent
+ * provisioning requests can not overshoot the caps. A reservation has to be released
+ * as soon as its node shows up in the running node count or its creation has failed.
+ */
+public class CapacityLedger {
+
+    /**
+     * Provides the number of nodes which exist already.
+     */
+    public interface Usage {
+        /**
+         * @return The number of running nodes of the whole cloud.
+         */
+        int getRunning();
+
+        /**
+         * @param template The name of a template.
+         * @return The number of running nodes of the given template.
+         */
+        int getRunning(String template);
+    }
+
+    /**
+     * A number of reserved slots for a single template.
+     */
+    public final class Reservation {
+        private final String template;
+        private int remaining;
+
+        private Reservation(final String template, final int count) {
+            this.template = template;
+            this.remaining = count;
+        }
+
+        public String getTemplate() {
+            return template;
+        }
+
+        /**
+         * Releases a single slot of this reservation. Does nothing, if all slots have been released already.
+         */
+        public void releaseOne() {
+            release(1);
+        }
+
+        /**
+         * Releases all remaining slots of this reservation.
+         */
+        public void release() {
+            release(Integer.MAX_VALUE);
+        }
+
+        private void release(final int count) {
+            synchronized (CapacityLedger.this) {
+                final int n = Math.min(count, remaining);
+                if (n > 0) {
+                    remaining -= n;
+                    add(template, -n);
+                }
+            }
+        }
+    }
+
+    private final Usage usage;
+    private final Map<String, Integer> reserved = new HashMap<>();
+    private int totalReserved;
+
+    public CapacityLedger(final Usage usage) {
+        this.usage = usage;
+    }
+
+    private void add(final String template, final int count) {
+        final int n = getReserved(template) + count;
+        if (n > 0) {
+            reserved.put(template, Integer.valueOf(n));
+        } else {
+            reserved.remove(template);
+        }
+        totalReserved += count;
+    }
+
+    /**
+     * Reserves slots for new nodes, if this does not exceed the instance caps.
+     *
+     * @param template The name of the template.
+     * @param count The number of slots to reserve.
+     * @param cloudCap The instance cap of the cloud.
+     * @param templateCap The instance cap of the template.
+     * @return The reservation or {@code null}, if one of the instance caps would be exceeded.
+     */
+    public synchronized Reservation tryReserve(final String template, final int count, final int cloudCap,
+            final int templateCap) {
+        if (usage.getRunning() + totalReserved + count > cloudCap) {
+            return null;
+        }
+        if (templateCap != Integer.MAX_VALUE && usage.getRunning(template) + getReserved(template) + count > templateCap) {
+            return null;
+        }
+        add(template, count);
+        return new Reservation(template, count);
+    }
+
+    /**
+     * @return The number of reserved slots of the whole cloud.
+     */
+    public synchronized int getReserved() {
+        return totalReserved;
+    }
+
+    /**
+     * @param template The name of a template.
+     * @return The number of reserved slots of the given template.
+     */
+    public synchronized int getReserved(final String template) {
+        final Integer ret = reserved.get(template);
+        return null == ret ? 0 : ret.intValue();
+    }
+}
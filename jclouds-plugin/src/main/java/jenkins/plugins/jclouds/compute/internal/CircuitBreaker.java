@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+/**
+ * Stops provisioning attempts against a degraded provider.
+ * <p>
+ * After a number of consecutive failures, the breaker opens and rejects all requests.
+ * Once the cooldown has elapsed, a single probe request is let through (half-open).
+ * If the probe succeeds, the breaker closes again, otherwise it re-opens for another cooldown.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long cooldownMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private String lastFailure;
+
+    /**
+     * Creates a new circuit breaker.
+     *
+     * @param failureThreshold The number of consecutive failures, which opens the breaker.
+     * @param cooldownMillis The number of milliseconds, the breaker stays open before probing.
+     */
+    public CircuitBreaker(final int failureThreshold, final long cooldownMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1");
+        }
+        this.failureThreshold = failureThreshold;
+        this.cooldownMillis = cooldownMillis;
+    }
+
+    /**
+     * Checks without side effects, whether a request would be let through.
+     *
+     * @param now The current time in milliseconds.
+     * @return {@code true}, if the breaker is closed or ready to probe.
+     */
+    public synchronized boolean isAvailable(final long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now >= openedAt + cooldownMillis;
+            default:
+                // A probe is in flight.
+                return false;
+        }
+    }
+
+    /**
+     * Asks for permission to make a request. If the cooldown has elapsed,
+     * the breaker switches to half-open and grants a single probe.
+     *
+     * @param now The current time in milliseconds.
+     * @return {@code true}, if the request may be made.
+     */
+    public synchronized boolean allowRequest(final long now) {
+        if (State.OPEN == state && now >= openedAt + cooldownMillis) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return State.CLOSED == state;
+    }
+
+    /**
+     * Returns a granted probe, which has not been used, so that the next request may probe.
+     */
+    public synchronized void cancelProbe() {
+        if (State.HALF_OPEN == state) {
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * Records a successful request, which closes the breaker.
+     */
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        lastFailure = null;
+    }
+
+    /**
+     * Records a failed request.
+     *
+     * @param now The current time in milliseconds.
+     * @param cause A short description of the failure or {@code null}.
+     * @return {@code true}, if the breaker has been opened by this failure.
+     */
+    public synchronized boolean recordFailure(final long now, final String cause) {
+        consecutiveFailures++;
+        lastFailure = cause;
+        if (State.HALF_OPEN == state || (State.CLOSED == state && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = now;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized String getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return The time in milliseconds, when the next probe is allowed, if the breaker is open.
+     */
+    public synchronized long getRetryAt() {
+        return openedAt + cooldownMillis;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranks the members of a cloud group by their recent provisioning performance.
+ * <p>
+ * For every member, the time-to-online of successfully provisioned nodes and the
+ * error rate are tracked as exponentially weighted moving averages. The score of a member is the
+ * expected time for getting one node online, taking failed attempts into account. Members without
+ * any history are tried first. A member whose calls keep failing is skipped for a while,
+ * unless all members are skipped.
+ */
+public class CloudGroupRouter {
+
+    private static final double MIN_SUCCESS_RATE = 0.05;
+
+    private static final class Stats {
+        private double latency;
+        private double errorRate;
+        private int successes;
+        private int failures;
+        private int consecutiveFailures;
+        private long skipUntil;
+    }
+
+    private final double alpha;
+    private final int failureThreshold;
+    private final long cooldownMillis;
+    private final Map<String, Stats> stats = new HashMap<>();
+
+    /**
+     * Creates a new router.
+     *
+     * @param alpha The smoothing factor (0 &lt; alpha &lt;= 1). Higher values adapt faster to changes.
+     * @param failureThreshold The number of consecutive failures after which a member is skipped.
+     * @param cooldownMillis The time in milliseconds, for which a failing member is skipped.
+     */
+    public CloudGroupRouter(final double alpha, final int failureThreshold, final long cooldownMillis) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        this.alpha = alpha;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.cooldownMillis = cooldownMillis;
+    }
+
+    private Stats getStats(final String member) {
+        Stats ret = stats.get(member);
+        if (null == ret) {
+            ret = new Stats();
+            stats.put(member, ret);
+        }
+        return ret;
+    }
+
+    private double smooth(final double old, final double sample, final boolean first) {
+        return first ? sample : alpha * sample + (1 - alpha) * old;
+    }
+
+    /**
+     * Records a node, which came online successfully.
+     *
+     * @param member The name of the member.
+     * @param millis The time from the provisioning request until the node was online.
+     */
+    public synchronized void recordSuccess(final String member, final long millis) {
+        final Stats s = getStats(member);
+        s.latency = smooth(s.latency, millis, 0 == s.successes);
+        s.errorRate = smooth(s.errorRate, 0, 0 == s.successes + s.failures);
+        s.successes++;
+        s.consecutiveFailures = 0;
+        s.skipUntil = 0;
+    }
+
+    /**
+     * Records a failed provisioning attempt.
+     *
+     * @param member The name of the member.
+     * @param now The current time in milliseconds since the epoch.
+     */
+    public synchronized void recordFailure(final String member, final long now) {
+        final Stats s = getStats(member);
+        s.errorRate = smooth(s.errorRate, 1, 0 == s.successes + s.failures);
+        s.failures++;
+        if (++s.consecutiveFailures >= failureThreshold) {
+            s.skipUntil = now + cooldownMillis;
+        }
+    }
+
+    /**
+     * Calculates the score of a member. Lower is better.
+     *
+     * @param member The name of the member.
+     * @return The expected time in milliseconds for getting a node online, 0 for members without history
+     *         and {@link Double#POSITIVE_INFINITY} for members which never succeeded.
+     */
+    public synchronized double getScore(final String member) {
+        final Stats s = stats.get(member);
+        if (null == s || 0 == s.successes + s.failures) {
+            return 0;
+        }
+        if (0 == s.successes) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return s.latency / Math.max(MIN_SUCCESS_RATE, 1 - s.errorRate);
+    }
+
+    /**
+     * @param member The name of the member.
+     * @return The error rate (0 to 1) of recent provisioning attempts.
+     */
+    public synchronized double getErrorRate(final String member) {
+        final Stats s = stats.get(member);
+        return null == s ? 0 : s.errorRate;
+    }
+
+    /**
+     * Checks whether a member is currently skipped because of consecutive failures.
+     *
+     * @param member The name of the member.
+     * @param now The current time in milliseconds since the epoch.
+     * @return {@code true}, if the member may be used.
+     */
+    public synchronized boolean isAvailable(final String member, final long now) {
+        final Stats s = stats.get(member);
+        return null == s || now >= s.skipUntil;
+    }
+
+    /**
+     * Ranks members by their score.
+     *
+     * @param members The names of the members. Equally scored members keep their order.
+     * @param now The current time in milliseconds since the epoch.
+     * @return The available members, best first. If all members are skipped, the member
+     *         whose cooldown ends first.
+     */
+    public synchronized List<String> rank(final Collection<String> members, final long now) {
+        final List<String> ret = new ArrayList<>();
+        final Map<String, Double> scores = new HashMap<>();
+        for (final String m : members) {
+            if (isAvailable(m, now)) {
+                ret.add(m);
+                scores.put(m, Double.valueOf(getScore(m)));
+            }
+        }
+        if (ret.isEmpty()) {
+            // All members are cooling down. Rather try the least bad one than none at all.
+            String least = null;
+            for (final String m : members) {
+                if (null == least || stats.get(m).skipUntil < stats.get(least).skipUntil) {
+                    least = m;
+                }
+            }
+            return null == least ? ret : Collections.singletonList(least);
+        }
+        Collections.sort(ret, new Comparator<String>() {
+            public int compare(final String a, final String b) {
+                return scores.get(a).compareTo(scores.get(b));
+            }
+        });
+        return ret;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Per label time series of executor demand, bucketed by hour of the week.
+ * <p>
+ * For every hour, the peak demand is recorded. When the hour is over, the peak is folded into the
+ * bucket of that hour of the week using exponential smoothing. The smoothed value of a bucket is the
+ * forecast for the same hour of the following weeks. Before a bucket is updated, its forecast is compared
+ * against the actual peak, which yields the forecast accuracy.
+ * <p>
+ * The state consists of a few small arrays per label and is meant to be persisted with XStream.
+ */
+public class DemandForecast {
+
+    public static final int BUCKETS = 7 * 24;
+    private static final long HOUR = 3600000L;
+
+    private static final class Series {
+        private final double[] level = new double[BUCKETS];
+        private final int[] observations = new int[BUCKETS];
+        private long currentHour = -1;
+        private int currentPeak;
+        private int currentPreProvisioned;
+        private int nextPreProvisioned;
+        private int evaluatedHours;
+        private double absoluteErrorSum;
+        private double actualSum;
+        private double coveredSum;
+    }
+
+    /**
+     * Accuracy of the forecasts of a single label.
+     */
+    public static final class Accuracy {
+        private final int evaluatedHours;
+        private final double meanAbsoluteError;
+        private final double meanActual;
+        private final double coveredDemand;
+
+        private Accuracy(final Series s) {
+            evaluatedHours = s.evaluatedHours;
+            meanAbsoluteError = 0 == s.evaluatedHours ? 0 : s.absoluteErrorSum / s.evaluatedHours;
+            meanActual = 0 == s.evaluatedHours ? 0 : s.actualSum / s.evaluatedHours;
+            coveredDemand = s.coveredSum;
+        }
+
+        /**
+         * @return The number of hours for which a forecast existed and has been compared to the actual demand.
+         */
+        public int getEvaluatedHours() {
+            return evaluatedHours;
+        }
+
+        /**
+         * @return The mean absolute difference between forecast and actual peak demand, in executors.
+         */
+        public double getMeanAbsoluteError() {
+            return meanAbsoluteError;
+        }
+
+        /**
+         * @return The mean actual peak demand of the evaluated hours, in executors.
+         */
+        public double getMeanActual() {
+            return meanActual;
+        }
+
+        /**
+         * @return The total demand (in executors) which has been met by capacity provisioned ahead of time.
+         */
+        public double getCoveredDemand() {
+            return coveredDemand;
+        }
+    }
+
+    private final double alpha;
+    private final String timeZone;
+    private final Map<String, Series> series = new HashMap<>();
+
+    /**
+     * Creates a new, empty forecast.
+     *
+     * @param alpha The smoothing factor (0 &lt; alpha &lt;= 1). Higher values adapt faster to changes.
+     * @param timeZone The time zone, which defines the hours of the week.
+     */
+    public DemandForecast(final double alpha, final TimeZone timeZone) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        this.alpha = alpha;
+        this.timeZone = timeZone.getID();
+    }
+
+    /**
+     * Determines the bucket of a point in time.
+     *
+     * @param time The time in milliseconds since the epoch.
+     * @return The hour of the week (0 = the first hour of Monday).
+     */
+    int bucketOf(final long time) {
+        final Calendar c = Calendar.getInstance(TimeZone.getTimeZone(timeZone));
+        c.setTimeInMillis(time);
+        final int day = (c.get(Calendar.DAY_OF_WEEK) - Calendar.MONDAY + 7) % 7;
+        return day * 24 + c.get(Calendar.HOUR_OF_DAY);
+    }
+
+    private Series getSeries(final String label) {
+        Series ret = series.get(label);
+        if (null == ret) {
+            ret = new Series();
+            series.put(label, ret);
+        }
+        return ret;
+    }
+
+    private void close(final Series s) {
+        final int b = bucketOf(s.currentHour * HOUR);
+        final double actual = s.currentPeak;
+        if (s.observations[b] > 0) {
+            s.evaluatedHours++;
+            s.absoluteErrorSum += Math.abs(s.level[b] - actual);
+            s.actualSum += actual;
+        }
+        s.coveredSum += Math.min(s.currentPreProvisioned, s.currentPeak);
+        s.level[b] = s.observations[b] > 0 ? alpha * actual + (1 - alpha) * s.level[b] : actual;
+        s.observations[b]++;
+    }
+
+    /**
+     * Records a sample of the demand for a label.
+     *
+     * @param label The label expression.
+     * @param demand The number of executors needed at that time (busy plus waiting).
+     * @param time The time of the sample in milliseconds since the epoch.
+     * @return {@code true}, if a completed hour has been folded into the forecast.
+     */
+    public synchronized boolean observe(final String label, final int demand, final long time) {
+        final Series s = getSeries(label);
+        final long hour = time / HOUR;
+        boolean ret = false;
+        if (hour != s.currentHour) {
+            if (s.currentHour >= 0 && hour > s.currentHour) {
+                close(s);
+                ret = true;
+            }
+            s.currentPreProvisioned = hour == s.currentHour + 1 ? s.nextPreProvisioned : 0;
+            s.nextPreProvisioned = 0;
+            s.currentHour = hour;
+            s.currentPeak = 0;
+        }
+        s.currentPeak = Math.max(s.currentPeak, Math.max(0, demand));
+        return ret;
+    }
+
+    /**
+     * Records executors, which have been provisioned ahead of the forecast demand.
+     * Only the current and the next hour can be targeted.
+     *
+     * @param label The label expression.
+     * @param executors The number of executors.
+     * @param time The time (in milliseconds since the epoch) for which the demand was forecast.
+     */
+    public synchronized void preProvisioned(final String label, final int executors, final long time) {
+        final Series s = getSeries(label);
+        final long hour = time / HOUR;
+        if (hour <= s.currentHour) {
+            s.currentPreProvisioned += executors;
+        } else if (hour == s.currentHour + 1) {
+            s.nextPreProvisioned += executors;
+        }
+    }
+
+    /**
+     * Forecasts the demand for a label.
+     *
+     * @param label The label expression.
+     * @param time The time in milliseconds since the epoch.
+     * @return The expected number of executors or 0, if there is no history for that hour of the week.
+     */
+    public synchronized double forecast(final String label, final long time) {
+        final Series s = series.get(label);
+        if (null == s) {
+            return 0;
+        }
+        final int b = bucketOf(time);
+        return s.observations[b] > 0 ? s.level[b] : 0;
+    }
+
+    /**
+     * @param label The label expression.
+     * @return The accuracy of past forecasts for that label.
+     */
+    public synchronized Accuracy getAccuracy(final String label) {
+        final Series s = series.get(label);
+        return new Accuracy(null == s ? new Series() : s);
+    }
+
+    /**
+     * @return The labels, for which demand has been recorded.
+     */
+    public synchronized Set<String> getLabels() {
+        return new HashSet<>(series.keySet());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import org.jclouds.compute.domain.Hardware;
+import org.jclouds.compute.domain.Processor;
+
+/**
+ * Derives the number of executors of a slave from the hardware of its node.
+ */
+public final class ExecutorSizing {
+
+    private ExecutorSizing() {
+    }
+
+    /**
+     * Calculates the number of executors.
+     *
+     * @param cores The number of cores of the node.
+     * @param ramMb The RAM of the node in MB or 0, if unknown.
+     * @param coresPerExecutor The number of cores per executor. Values &lt;= 0 are treated as 1.
+     * @param ramPerExecutor The RAM per executor in MB or 0, if RAM does not limit the number of executors.
+     * @return The number of executors, at least 1.
+     */
+    public static int executors(final double cores, final int ramMb, final double coresPerExecutor, final int ramPerExecutor) {
+        // Allow for rounding errors of fractional core counts
+        double n = Math.floor(cores / (coresPerExecutor > 0 ? coresPerExecutor : 1) + 1e-6);
+        if (ramPerExecutor > 0 && ramMb > 0) {
+            n = Math.min(n, Math.floor((double) ramMb / ramPerExecutor));
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, n));
+    }
+
+    /**
+     * Calculates the number of executors for a hardware profile.
+     *
+     * @param hardware The hardware of the node.
+     * @param coresPerExecutor The number of cores per executor.
+     * @param ramPerExecutor The RAM per executor in MB or 0.
+     * @return The number of executors, at least 1.
+     */
+    public static int executors(final Hardware hardware, final double coresPerExecutor, final int ramPerExecutor) {
+        double cores = 0;
+        for (final Processor p : hardware.getProcessors()) {
+            cores += p.getCores();
+        }
+        return executors(cores, hardware.getRam(), coresPerExecutor, ramPerExecutor);
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+
+import org.jclouds.compute.domain.Image;
+
+import shaded.com.google.common.base.Supplier;
+
+/**
+ * Cached, sorted view of the images a cloud provides.
+ * <p>
+ * The full image list is fetched from the provider at most once per refresh interval
+ * and kept sorted newest first, so a lookup by name pattern returns the first match
+ * and always yields the same image for the same list. After the initial load, a stale
+ * catalog is refreshed in the background while callers keep getting the cached images.
+ * <p>
+ * Images are ordered by version, then by name and finally by id, each in descending
+ * order. Embedded numbers are compared numerically, so that e.g. {@code build-10}
+ * is newer than {@code build-9}.
+ */
+public class ImageCatalog {
+
+    private static final Logger LOGGER = Logger.getLogger(ImageCatalog.class.getName());
+
+    private static final Comparator<Image> NEWEST_FIRST = new Comparator<Image>() {
+        public int compare(final Image a, final Image b) {
+            int ret = compareNatural(b.getVersion(), a.getVersion());
+            if (0 == ret) {
+                ret = compareNatural(b.getName(), a.getName());
+            }
+            if (0 == ret) {
+                ret = compareNatural(b.getId(), a.getId());
+            }
+            return ret;
+        }
+    };
+
+    private final Supplier<? extends Iterable<? extends Image>> lister;
+    private final long ttlMillis;
+    private final Executor executor;
+
+    private volatile List<Image> images = Collections.emptyList();
+    /* Lookup results of the current image list by pattern. */
+    private final Map<String, Image> matches = new ConcurrentHashMap<>();
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final Object loadLock = new Object();
+    private volatile long lastRefresh = 0;
+
+    /**
+     * Creates a new catalog.
+     *
+     * @param lister Supplies the full list of images from the provider.
+     * @param ttlMillis Number of milliseconds after which the catalog is considered stale.
+     * @param executor The executor which performs background refreshes.
+     */
+    public ImageCatalog(final Supplier<? extends Iterable<? extends Image>> lister, final long ttlMillis,
+            final Executor executor) {
+        this.lister = lister;
+        this.ttlMillis = ttlMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * Compares two strings, treating runs of digits as numbers. {@code null} sorts first.
+     */
+    static int compareNatural(final String a, final String b) {
+        if (null == a || null == b) {
+            return null == a ? (null == b ? 0 : -1) : 1;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            final char ca = a.charAt(i);
+            final char cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int ei = i;
+                while (ei < a.length() && Character.isDigit(a.charAt(ei))) {
+                    ei++;
+                }
+                int ej = j;
+                while (ej < b.length() && Character.isDigit(b.charAt(ej))) {
+                    ej++;
+                }
+                // Compare without leading zeros: longer number is larger, otherwise lexical.
+                int si = i;
+                while (si < ei - 1 && a.charAt(si) == '0') {
+                    si++;
+                }
+                int sj = j;
+                while (sj < ej - 1 && b.charAt(sj) == '0') {
+                    sj++;
+                }
+                final int len = (ei - si) - (ej - sj);
+                if (0 != len) {
+                    return len;
+                }
+                final int cmp = a.substring(si, ei).compareTo(b.substring(sj, ej));
+                if (0 != cmp) {
+                    return cmp;
+                }
+                i = ei;
+                j = ej;
+            } else {
+                if (ca != cb) {
+                    return ca - cb;
+                }
+                i++;
+                j++;
+            }
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    private static boolean isUsable(final Image i) {
+        return null != i.getName() && !Image.Status.PENDING.equals(i.getStatus())
+            && !Image.Status.DELETED.equals(i.getStatus()) && !Image.Status.ERROR.equals(i.getStatus());
+    }
+
+    /**
+     * Retrieves the newest image whose name matches the given pattern.
+     * Blocks only if the catalog has never been loaded before.
+     *
+     * @param pattern The pattern which has to match the whole image name.
+     * @return The newest matching image or {@code null}, if no image matches.
+     */
+    @CheckForNull
+    public Image newest(final Pattern pattern) {
+        ensureFresh();
+        final String key = pattern.pattern();
+        Image ret = matches.get(key);
+        if (null == ret) {
+            final List<Image> snapshot = images;
+            for (final Image i : snapshot) {
+                if (pattern.matcher(i.getName()).matches()) {
+                    ret = i;
+                    synchronized (matches) {
+                        // Do not remember results of a list which has been replaced meanwhile.
+                        if (snapshot == images) {
+                            matches.put(key, ret);
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return The number of images in the catalog.
+     */
+    public int size() {
+        ensureFresh();
+        return images.size();
+    }
+
+    /**
+     * Marks the catalog as stale, so that the next access triggers a refresh.
+     */
+    public void invalidate() {
+        lastRefresh = 0;
+    }
+
+    private boolean isStale() {
+        return System.currentTimeMillis() - lastRefresh > ttlMillis;
+    }
+
+    private void ensureFresh() {
+        if (lastRefresh == 0) {
+            synchronized (loadLock) {
+                if (lastRefresh == 0) {
+                    refresh();
+                }
+            }
+        } else if (isStale() && refreshing.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            refresh();
+                        } catch (RuntimeException e) {
+                            LOGGER.log(Level.WARNING, "Failed to refresh image catalog", e);
+                        } finally {
+                            refreshing.set(false);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                refreshing.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Synchronously fetches the image list from the provider.
+     */
+    public void refresh() {
+        final List<Image> fresh = new ArrayList<>();
+        for (final Image i : lister.get()) {
+            if (isUsable(i)) {
+                fresh.add(i);
+            }
+        }
+        Collections.sort(fresh, NEWEST_FIRST);
+        synchronized (matches) {
+            images = Collections.unmodifiableList(fresh);
+            matches.clear();
+        }
+        lastRefresh = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Builds the JVM options of a slave agent, sizing the heap from the RAM of its node.
+ * Options, which are set explicitly, take precedence over the generated ones.
+ */
+public final class JvmOptions {
+
+    /* Heaps of at least this size (in MB) use the G1 collector. */
+    static final int G1_THRESHOLD_MB = 1024;
+
+    private final List<String> generated = new ArrayList<>();
+    private String explicit;
+
+    /**
+     * Generates heap and GC options.
+     *
+     * @param ramMb The RAM of the node in MB.
+     * @param heapPercent The percentage of the RAM to use for the heap.
+     * @return This builder.
+     */
+    public JvmOptions heap(final int ramMb, final int heapPercent) {
+        if (ramMb > 0 && heapPercent > 0) {
+            final long heapMb = Math.max(64, (long) ramMb * Math.min(100, heapPercent) / 100);
+            generated.add("-Xms" + heapMb + "m");
+            generated.add("-Xmx" + heapMb + "m");
+            if (heapMb >= G1_THRESHOLD_MB) {
+                generated.add("-XX:+UseG1GC");
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Merges explicitly configured options.
+     *
+     * @param options The options as entered by the user, may be {@code null}.
+     * @return This builder.
+     */
+    public JvmOptions explicit(@CheckForNull final String options) {
+        explicit = null == options || options.trim().isEmpty() ? null : options.trim();
+        return this;
+    }
+
+    /**
+     * @return The merged options. Generated options, which are overridden by an explicit one, are omitted.
+     */
+    public String build() {
+        final List<String> tokens = new ArrayList<>();
+        if (null != explicit) {
+            for (final String t : explicit.split("\\s+")) {
+                tokens.add(t);
+            }
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (final String g : generated) {
+            if (!isOverridden(g, tokens)) {
+                sb.append(g).append(' ');
+            }
+        }
+        if (null != explicit) {
+            sb.append(explicit);
+        }
+        return sb.toString().trim();
+    }
+
+    private static boolean isOverridden(final String option, final List<String> explicit) {
+        for (final String t : explicit) {
+            if (option.startsWith("-Xms") && (t.startsWith("-Xms") || t.startsWith("-XX:InitialHeapSize="))) {
+                return true;
+            }
+            // An explicit maximum heap also overrides the initial heap, which must not exceed it.
+            if ((option.startsWith("-Xmx") || option.startsWith("-Xms")) && isMaxHeapOption(t)) {
+                return true;
+            }
+            if (isGcOption(option) && isGcOption(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isMaxHeapOption(final String option) {
+        return option.startsWith("-Xmx") || option.startsWith("-XX:MaxHeapSize=")
+            || option.startsWith("-XX:MaxRAMPercentage=") || option.startsWith("-XX:MaxRAMFraction=");
+    }
+
+    private static boolean isGcOption(final String option) {
+        return option.matches("-XX:[+-]Use\\w*GC");
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+/**
+ * Histogram of durations with logarithmic buckets (four per doubling, starting at 10ms),
+ * providing approximate percentiles with a relative error of at most 19%.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 84;
+    private static final long[] BOUNDS = new long[BUCKETS];
+
+    static {
+        for (int i = 0; i < BUCKETS; i++) {
+            BOUNDS[i] = Math.round(10.0 * Math.pow(2.0, i / 4.0));
+        }
+    }
+
+    private final long[] counts = new long[BUCKETS + 1];
+    private long count;
+    private long max;
+
+    private static int bucketOf(final long millis) {
+        for (int i = 0; i < BUCKETS; i++) {
+            if (millis <= BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKETS;
+    }
+
+    /**
+     * Records a single duration.
+     *
+     * @param millis The duration in milliseconds. Negative values are treated as zero.
+     */
+    public synchronized void record(final long millis) {
+        final long ms = Math.max(0, millis);
+        counts[bucketOf(ms)]++;
+        count++;
+        max = Math.max(max, ms);
+    }
+
+    /**
+     * @return The number of recorded durations.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The longest recorded duration in milliseconds.
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Retrieves an approximate percentile.
+     *
+     * @param q The quantile, between 0 and 1 (e.g. 0.95 for the 95th percentile).
+     * @return The upper bound of the bucket containing the percentile in milliseconds
+     *         (but never more than the maximum) or 0, if nothing has been recorded yet.
+     */
+    public synchronized long getPercentile(final double q) {
+        if (0 == count) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jclouds.compute.domain.ComputeMetadata;
+import org.jclouds.compute.domain.NodeMetadata;
+
+import shaded.com.google.common.base.Predicate;
+import shaded.com.google.common.base.Supplier;
+
+/**
+ * Cached view of the nodes a cloud is responsible for.
+ * <p>
+ * The full node list is fetched from the provider at most once per refresh interval.
+ * After the initial load, a stale inventory is refreshed in the background while
+ * callers keep getting the cached numbers. Nodes created or destroyed by ourselves
+ * are added or removed locally, so that counts stay accurate between refreshes.
+ * <p>
+ * Suspended nodes are tracked separately, so that they can be resumed instead of
+ * creating new ones.
+ */
+public class NodeInventory {
+
+    private static final Logger LOGGER = Logger.getLogger(NodeInventory.class.getName());
+
+    private final Supplier<? extends Iterable<? extends ComputeMetadata>> lister;
+    private final Predicate<NodeMetadata> filter;
+    private final long ttlMillis;
+    private final Executor executor;
+
+    private final Map<String, NodeMetadata> running = new ConcurrentHashMap<>();
+    private final Map<String, NodeMetadata> suspended = new ConcurrentHashMap<>();
+    /* Local modifications by id. A null value denotes a removal. */
+    private final Map<String, LocalChange> localChanges = new HashMap<>();
+    /* Ids of suspended nodes which are currently being resumed. */
+    private final Set<String> claimed = new HashSet<>();
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final Object loadLock = new Object();
+    private volatile long lastRefresh = 0;
+
+    private static final class LocalChange {
+        private final long timestamp;
+        private final NodeMetadata node;
+
+        private LocalChange(final long timestamp, final NodeMetadata node) {
+            this.timestamp = timestamp;
+            this.node = node;
+        }
+    }
+
+    /**
+     * Creates a new inventory.
+     *
+     * @param lister Supplies the full list of nodes from the provider.
+     * @param filter Selects the nodes which belong to the owning cloud.
+     * @param ttlMillis Number of milliseconds after which the inventory is considered stale.
+     * @param executor The executor which performs background refreshes.
+     */
+    public NodeInventory(final Supplier<? extends Iterable<? extends ComputeMetadata>> lister,
+            final Predicate<NodeMetadata> filter, final long ttlMillis, final Executor executor) {
+        this.lister = lister;
+        this.filter = filter;
+        this.ttlMillis = ttlMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * Provides the current time. Overridden by tests.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    static boolean isActive(final NodeMetadata nm) {
+        return !nm.getStatus().equals(NodeMetadata.Status.SUSPENDED)
+            && !nm.getStatus().equals(NodeMetadata.Status.TERMINATED);
+    }
+
+    private static void put(final Map<String, NodeMetadata> active, final Map<String, NodeMetadata> inactive,
+            final NodeMetadata nm) {
+        active.remove(nm.getId());
+        inactive.remove(nm.getId());
+        if (isActive(nm)) {
+            active.put(nm.getId(), nm);
+        } else if (nm.getStatus().equals(NodeMetadata.Status.SUSPENDED)) {
+            inactive.put(nm.getId(), nm);
+        }
+    }
+
+    /**
+     * Retrieves the number of active (neither suspended nor terminated) nodes.
+     * Blocks only if the inventory has never been loaded before.
+     *
+     * @return The number of active nodes.
+     */
+    public int getRunningCount() {
+        ensureFresh();
+        return running.size();
+    }
+
+    /**
+     * Retrieves the number of active nodes matching a given predicate.
+     *
+     * @param selector Selects the nodes to be counted.
+     * @return The number of matching active nodes.
+     */
+    public int getRunningCount(final Predicate<NodeMetadata> selector) {
+        ensureFresh();
+        int ret = 0;
+        for (NodeMetadata nm : running.values()) {
+            if (selector.apply(nm)) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks whether a node is active (neither suspended nor terminated nor gone).
+     *
+     * @param id The id of the node.
+     * @return {@code true}, if the node is active.
+     */
+    public boolean isRunning(final String id) {
+        ensureFresh();
+        return running.containsKey(id);
+    }
+
+    /**
+     * Records a node which was just created, resumed or suspended by ourselves.
+     *
+     * @param nm The current metadata of the node.
+     */
+    public void add(final NodeMetadata nm) {
+        if (null != nm && filter.apply(nm)) {
+            synchronized (localChanges) {
+                localChanges.put(nm.getId(), new LocalChange(currentTimeMillis(), nm));
+                claimed.remove(nm.getId());
+                put(running, suspended, nm);
+            }
+        }
+    }
+
+    /**
+     * Records a node which was just destroyed by ourselves.
+     *
+     * @param id The id of the node.
+     */
+    public void remove(final String id) {
+        if (null != id) {
+            synchronized (localChanges) {
+                localChanges.put(id, new LocalChange(currentTimeMillis(), null));
+                claimed.remove(id);
+                running.remove(id);
+                suspended.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Takes a suspended node out of the inventory, in order to resume it.
+     * The node should be {@link #add added} again after it has been resumed or
+     * {@link #release released}, if resuming it has failed.
+     *
+     * @param selector Selects the suspended nodes which are acceptable.
+     * @return The metadata of the claimed node or {@code null}, if no matching suspended node is available.
+     */
+    public NodeMetadata claimSuspended(final Predicate<NodeMetadata> selector) {
+        ensureFresh();
+        synchronized (localChanges) {
+            for (NodeMetadata nm : suspended.values()) {
+                if (selector.apply(nm)) {
+                    claimed.add(nm.getId());
+                    suspended.remove(nm.getId());
+                    return nm;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives up the claim on a suspended node, which could not be resumed. If the node
+     * is still suspended, it becomes available again with the next refresh.
+     *
+     * @param id The id of the node.
+     */
+    public void release(final String id) {
+        if (null != id) {
+            synchronized (localChanges) {
+                claimed.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Marks the inventory as stale, so that the next access triggers a refresh.
+     */
+    public void invalidate() {
+        lastRefresh = 0;
+    }
+
+    private boolean isStale() {
+        return currentTimeMillis() - lastRefresh > ttlMillis;
+    }
+
+    private void ensureFresh() {
+        if (lastRefresh == 0) {
+            synchronized (loadLock) {
+                if (lastRefresh == 0) {
+                    refresh();
+                }
+            }
+        } else if (isStale() && refreshing.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            refresh();
+                        } catch (RuntimeException e) {
+                            LOGGER.log(Level.WARNING, "Failed to refresh node inventory", e);
+                        } finally {
+                            refreshing.set(false);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                refreshing.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Synchronously fetches the node list from the provider.
+     */
+    public void refresh() {
+        final long start = currentTimeMillis();
+        final Map<String, NodeMetadata> fresh = new HashMap<>();
+        final Map<String, NodeMetadata> freshSuspended = new HashMap<>();
+        for (ComputeMetadata cm : lister.get()) {
+            if (NodeMetadata.class.isInstance(cm)) {
+                NodeMetadata nm = (NodeMetadata) cm;
+                if (filter.apply(nm)) {
+                    put(fresh, freshSuspended, nm);
+                }
+            }
+        }
+        synchronized (localChanges) {
+            // Changes which happened while we were listing are not necessarily
+            // reflected by the provider yet, so they get reapplied.
+            for (Map.Entry<String, LocalChange> entry : new HashMap<String, LocalChange>(localChanges).entrySet()) {
+                final LocalChange lc = entry.getValue();
+                if (lc.timestamp < start) {
+                    localChanges.remove(entry.getKey());
+                } else if (null == lc.node) {
+                    fresh.remove(entry.getKey());
+                    freshSuspended.remove(entry.getKey());
+                } else {
+                    put(fresh, freshSuspended, lc.node);
+                }
+            }
+            freshSuspended.keySet().removeAll(claimed);
+            running.keySet().retainAll(fresh.keySet());
+            running.putAll(fresh);
+            suspended.keySet().retainAll(freshSuspended.keySet());
+            suspended.putAll(freshSuspended);
+        }
+        lastRefresh = currentTimeMillis();
+    }
+}
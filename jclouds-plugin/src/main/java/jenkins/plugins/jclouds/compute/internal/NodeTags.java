@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
+import org.jclouds.compute.domain.NodeMetadata;
+
+import shaded.com.google.common.collect.ImmutableMultimap;
+import shaded.com.google.common.collect.Multimap;
+
+/**
+ * The metadata, which is attached to every node on creation. Most providers expose it as
+ * tags (EC2) or server metadata (Nova, GCE), so that our nodes can be found by a filter on
+ * the provider side instead of listing all nodes of an account.
+ */
+public final class NodeTags {
+
+    public static final String CLOUD = "jenkins-cloud";
+    public static final String TEMPLATE = "jenkins-template";
+    public static final String GROUP_PREFIX = "jenkins-group-prefix";
+
+    private NodeTags() {
+    }
+
+    /**
+     * Builds the metadata of a new node.
+     *
+     * @param cloud The name of the cloud.
+     * @param template The name of the template.
+     * @param groupPrefix The group prefix of the cloud or {@code null}.
+     * @return The metadata, including the {@code Name} of the node.
+     */
+    public static Map<String, String> of(final String cloud, final String template, @CheckForNull final String groupPrefix) {
+        final Map<String, String> ret = new LinkedHashMap<>();
+        ret.put("Name", template);
+        ret.put(CLOUD, cloud);
+        ret.put(TEMPLATE, template);
+        if (null != groupPrefix && !groupPrefix.trim().isEmpty()) {
+            ret.put(GROUP_PREFIX, groupPrefix.trim());
+        }
+        return ret;
+    }
+
+    /**
+     * Builds an EC2 filter for {@code DescribeInstances}, selecting the nodes of a cloud.
+     *
+     * @param cloud The name of the cloud.
+     * @return The filter.
+     */
+    public static Multimap<String, String> ec2Filter(final String cloud) {
+        return ImmutableMultimap.of("tag:" + CLOUD, cloud);
+    }
+
+    /**
+     * Checks whether a node has been tagged as belonging to a cloud.
+     *
+     * @param nm The metadata of the node.
+     * @param cloud The name of the cloud.
+     * @return {@code true}, if the node is tagged with that cloud.
+     */
+    public static boolean belongsTo(final NodeMetadata nm, final String cloud) {
+        return cloud.equals(nm.getUserMetadata().get(CLOUD));
+    }
+}
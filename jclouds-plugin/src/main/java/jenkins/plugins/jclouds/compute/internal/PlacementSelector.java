@@ -0,0 +1,243 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+
+import org.jclouds.rest.InsufficientResourcesException;
+
+import shaded.com.google.common.base.Objects;
+
+/**
+ * Orders the location/hardware combinations of a template for the next node creation.
+ * <p>
+ * Locations are either rotated (round robin) or sorted by the number of nodes they already host
+ * (least loaded). Hardware profiles are tried in their configured order within each location.
+ * Combinations which recently failed because of missing capacity are put into a cooldown
+ * and skipped, unless all combinations are cooling down.
+ */
+public class PlacementSelector {
+
+    /**
+     * How new nodes are spread across locations.
+     */
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_LOADED;
+
+        /**
+         * Parses a persisted strategy leniently.
+         *
+         * @param value The name of the strategy, may be {@code null}.
+         * @return The strategy or {@link #ROUND_ROBIN}, if the value is empty or unknown.
+         */
+        public static Strategy parse(@CheckForNull final String value) {
+            if (null != value) {
+                for (final Strategy s : values()) {
+                    if (s.name().equalsIgnoreCase(value.trim())) {
+                        return s;
+                    }
+                }
+            }
+            return ROUND_ROBIN;
+        }
+    }
+
+    /* Exhausted quotas as reported by EC2, GCE, Nova and others. Other messages mentioning a quota are no capacity errors. */
+    private static final Pattern QUOTA_EXCEEDED = Pattern.compile("quota[^.]*exceeded|exceeded[^.]*quota");
+
+    /**
+     * A combination of location and hardware.
+     */
+    public static final class Placement {
+        private final String locationId;
+        private final String hardwareId;
+
+        /**
+         * @param locationId The location id or {@code null} for the provider's default.
+         * @param hardwareId The hardware id or {@code null} for selecting hardware by cores and RAM.
+         */
+        public Placement(final String locationId, final String hardwareId) {
+            this.locationId = locationId;
+            this.hardwareId = hardwareId;
+        }
+
+        public String getLocationId() {
+            return locationId;
+        }
+
+        public String getHardwareId() {
+            return hardwareId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Placement)) {
+                return false;
+            }
+            final Placement other = (Placement) o;
+            return Objects.equal(locationId, other.locationId) && Objects.equal(hardwareId, other.hardwareId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(locationId, hardwareId);
+        }
+
+        @Override
+        public String toString() {
+            return (null == locationId ? "<any location>" : locationId) + "/"
+                + (null == hardwareId ? "<min. cores and RAM>" : hardwareId);
+        }
+    }
+
+    private final Map<Placement, Long> cooldowns = new HashMap<>();
+    private int nextLocation;
+
+    /**
+     * Provides the current time. Overridden by tests.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Orders the placement candidates for the next node creation.
+     *
+     * @param locations The configured locations in order of preference. Must not be empty, may contain {@code null}.
+     * @param hardware The configured hardware ids in order of preference. Must not be empty, may contain {@code null}.
+     * @param strategy How to spread nodes across locations.
+     * @param load The number of existing nodes by location id (used by {@link Strategy#LEAST_LOADED}).
+     * @return The candidates, best first. Cooling down candidates are omitted unless all of them are cooling down.
+     */
+    public synchronized List<Placement> order(final List<String> locations, final List<String> hardware,
+            final Strategy strategy, final Map<String, Integer> load) {
+        final List<String> locs = new ArrayList<>(locations);
+        if (Strategy.LEAST_LOADED == strategy) {
+            // Stable sort keeps the configured order for equally loaded locations.
+            Collections.sort(locs, new Comparator<String>() {
+                public int compare(final String a, final String b) {
+                    return Integer.compare(loadOf(load, a), loadOf(load, b));
+                }
+            });
+        } else if (locs.size() > 1) {
+            Collections.rotate(locs, -(nextLocation % locs.size()));
+            nextLocation = (nextLocation + 1) % locs.size();
+        }
+        final List<Placement> all = new ArrayList<>();
+        for (final String l : locs) {
+            for (final String h : hardware) {
+                all.add(new Placement(l, h));
+            }
+        }
+        final long now = currentTimeMillis();
+        final List<Placement> ret = new ArrayList<>();
+        for (final Iterator<Map.Entry<Placement, Long>> it = cooldowns.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue().longValue() <= now) {
+                it.remove();
+            }
+        }
+        for (final Placement p : all) {
+            if (!cooldowns.containsKey(p)) {
+                ret.add(p);
+            }
+        }
+        return ret.isEmpty() ? all : ret;
+    }
+
+    /**
+     * Spreads a number of new nodes across the placement candidates. Round robin advances
+     * once per node. Least loaded counts each node towards the load of the location it is
+     * placed in, before placing the next one.
+     *
+     * @param locations The configured locations in order of preference. Must not be empty, may contain {@code null}.
+     * @param hardware The configured hardware ids in order of preference. Must not be empty, may contain {@code null}.
+     * @param strategy How to spread nodes across locations.
+     * @param load The number of existing nodes by location id (used by {@link Strategy#LEAST_LOADED}).
+     * @param count The number of nodes to place.
+     * @return The candidates (best first) with the number of nodes to create using them, in order of first use.
+     */
+    public synchronized Map<List<Placement>, Integer> distribute(final List<String> locations, final List<String> hardware,
+            final Strategy strategy, final Map<String, Integer> load, final int count) {
+        final Map<String, Integer> projected = new HashMap<>(load);
+        final Map<List<Placement>, Integer> ret = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            final List<Placement> candidates = order(locations, hardware, strategy, projected);
+            final Integer n = ret.get(candidates);
+            ret.put(candidates, Integer.valueOf(null == n ? 1 : n.intValue() + 1));
+            final String l = candidates.get(0).getLocationId();
+            if (null != l) {
+                projected.put(l, Integer.valueOf(loadOf(projected, l) + 1));
+            }
+        }
+        return ret;
+    }
+
+    private static int loadOf(final Map<String, Integer> load, final String location) {
+        final Integer ret = load.get(location);
+        return null == ret ? 0 : ret.intValue();
+    }
+
+    /**
+     * Excludes a placement from selection for a while.
+     *
+     * @param p The placement, which has run out of capacity.
+     * @param millis The duration of the cooldown in milliseconds.
+     */
+    public synchronized void cooldown(final Placement p, final long millis) {
+        cooldowns.put(p, Long.valueOf(currentTimeMillis() + millis));
+    }
+
+    /**
+     * Checks, whether an exception (or one of its causes) was caused by missing capacity or an exhausted quota.
+     *
+     * @param t The exception to check.
+     * @return {@code true}, if trying another location or hardware might succeed.
+     */
+    public static boolean isCapacityError(final Throwable t) {
+        Throwable cur = t;
+        for (int depth = 0; null != cur && depth < 10; depth++) {
+            if (cur instanceof InsufficientResourcesException) {
+                return true;
+            }
+            final String msg = cur.getMessage();
+            if (null != msg) {
+                final String m = msg.toLowerCase(Locale.ENGLISH);
+                if (m.contains("insufficientinstancecapacity") || m.contains("instancelimitexceeded")
+                        || m.contains("vcpulimitexceeded") || m.contains("resource_pool_exhausted")
+                        || QUOTA_EXCEEDED.matcher(m).find() || m.contains("no valid host") || m.contains("out of capacity")
+                        || m.contains("insufficient capacity")) {
+                    return true;
+                }
+            }
+            cur = cur.getCause() == cur ? null : cur.getCause();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jclouds.compute.RunNodesException;
+import org.jclouds.compute.domain.NodeMetadata;
+
+import shaded.com.google.common.util.concurrent.ListenableFuture;
+import shaded.com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Coalesces single node requests into batched node creations.
+ * <p>
+ * Requests arriving within a short window (or until the maximum batch size is reached)
+ * are served by a single call to the {@link NodeCreator}. If a batch fails partially,
+ * the successfully created nodes are still handed out and only the remaining requests fail.
+ */
+public class ProvisionBatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(ProvisionBatcher.class.getName());
+
+    /**
+     * Creates a number of nodes at once.
+     */
+    public interface NodeCreator {
+        /**
+         * Creates nodes.
+         *
+         * @param count The number of nodes to create.
+         * @return The created nodes.
+         * @throws RunNodesException if some or all nodes could not be created.
+         */
+        Set<? extends NodeMetadata> createNodes(int count) throws RunNodesException;
+    }
+
+    private final NodeCreator creator;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+
+    private final List<SettableFuture<NodeMetadata>> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    /**
+     * Creates a new batcher.
+     *
+     * @param creator Performs the actual node creation.
+     * @param windowMillis Number of milliseconds to wait for more requests after the first one arrived.
+     * @param maxBatchSize Maximum number of nodes to be created by a single call.
+     * @param scheduler Used for delaying a batch until the window has passed.
+     * @param executor Runs the (potentially long running) node creation.
+     */
+    public ProvisionBatcher(final NodeCreator creator, final long windowMillis, final int maxBatchSize,
+            final ScheduledExecutorService scheduler, final Executor executor) {
+        this.creator = creator;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Requests a single node.
+     *
+     * @return A future which gets completed when the batch containing this request has been created.
+     */
+    public ListenableFuture<NodeMetadata> request() {
+        final SettableFuture<NodeMetadata> ret = SettableFuture.create();
+        boolean flushNow = false;
+        boolean scheduleFlush = false;
+        synchronized (pending) {
+            pending.add(ret);
+            if (pending.size() >= maxBatchSize || windowMillis <= 0) {
+                flushNow = true;
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+        if (flushNow) {
+            submitFlush();
+        } else if (scheduleFlush) {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    synchronized (pending) {
+                        flushScheduled = false;
+                    }
+                    submitFlush();
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        return ret;
+    }
+
+    private void submitFlush() {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Nothing has been created yet. Fail the pending requests instead of
+            // leaving them to a flush, which might never happen.
+            final List<SettableFuture<NodeMetadata>> rejected;
+            synchronized (pending) {
+                rejected = new ArrayList<>(pending);
+                pending.clear();
+            }
+            distribute(rejected, null, e);
+        }
+    }
+
+    private void flush() {
+        final List<SettableFuture<NodeMetadata>> batch = new ArrayList<>();
+        synchronized (pending) {
+            final Iterator<SettableFuture<NodeMetadata>> it = pending.iterator();
+            while (it.hasNext() && batch.size() < maxBatchSize) {
+                batch.add(it.next());
+                it.remove();
+            }
+        }
+        if (batch.isEmpty()) {
+            // Already served by an earlier flush
+            return;
+        }
+        LOGGER.info("Creating a batch of " + batch.size() + " node(s)");
+        try {
+            distribute(batch, creator.createNodes(batch.size()), null);
+        } catch (RunNodesException e) {
+            distribute(batch, e.getSuccessfulNodes(), e);
+        } catch (Throwable t) {
+            distribute(batch, null, t);
+        }
+    }
+
+    private static void distribute(final List<SettableFuture<NodeMetadata>> batch,
+            final Set<? extends NodeMetadata> nodes, final Throwable failure) {
+        final Iterator<SettableFuture<NodeMetadata>> fit = batch.iterator();
+        if (null != nodes) {
+            for (NodeMetadata nm : nodes) {
+                if (!fit.hasNext()) {
+                    break;
+                }
+                fit.next().set(nm);
+            }
+        }
+        while (fit.hasNext()) {
+            final SettableFuture<NodeMetadata> f = fit.next();
+            if (null == failure) {
+                f.setException(new IllegalStateException("Provider returned less nodes than requested"));
+            } else {
+                f.setException(failure);
+            }
+        }
+    }
+}
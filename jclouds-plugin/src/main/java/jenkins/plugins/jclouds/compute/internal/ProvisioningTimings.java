@@ -0,0 +1,56 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Durations of the individual provisioning phases of a single node, in the order they happened.
+ */
+public class ProvisioningTimings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String RESOLVE = "resolve";
+    public static final String CREATE = "create";
+    public static final String BOOTSTRAP = "bootstrap";
+    public static final String REGISTER = "register";
+    public static final String PHONE_HOME = "phoneHome";
+    public static final String AGENT_LAUNCH = "agentLaunch";
+
+    private final LinkedHashMap<String, Long> timings = new LinkedHashMap<>();
+
+    /**
+     * Records the duration of a phase. If the phase has been recorded already
+     * (e.g. because of a retried launch), the new duration replaces the old one.
+     *
+     * @param phase The name of the phase.
+     * @param millis The duration in milliseconds.
+     */
+    public synchronized void record(final String phase, final long millis) {
+        timings.remove(phase);
+        timings.put(phase, Long.valueOf(millis));
+    }
+
+    /**
+     * @return A copy of the recorded durations in milliseconds by phase.
+     */
+    public synchronized Map<String, Long> getTimings() {
+        return new LinkedHashMap<>(timings);
+    }
+}
@@ -17,27 +17,33 @@ package jenkins.plugins.jclouds.compute.internal;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import jenkins.model.Jenkins;
 import hudson.XmlFile;
+import hudson.model.Computer;
 
 import org.jclouds.compute.ComputeService;
-import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.logging.Logger;
 
 import shaded.com.google.common.base.Function;
-import shaded.com.google.common.base.Predicate;
 import shaded.com.google.common.cache.LoadingCache;
 import shaded.com.google.common.collect.ImmutableMultimap;
 import shaded.com.google.common.collect.Multimap;
 import shaded.com.google.common.collect.ArrayListMultimap;
+import shaded.com.google.common.collect.Multimaps;
 import shaded.com.google.common.collect.ImmutableMultimap.Builder;
 
 public class TerminateNodes implements Function<Iterable<RunningNode>, Void> {
 
     private final Logger logger;
     private final LoadingCache<String, ComputeService> computeCache;
+    private final ExecutorService executor;
 
     public static class Persistent {
         private static final java.util.logging.Logger LOGGER = java.util.logging.Logger.getLogger(TerminateNodes.class.getName());
@@ -47,15 +53,14 @@ public class TerminateNodes implements Function<Iterable<RunningNode>, Void> {
         private Multimap<String, String> nodesToDestroy;
 
         public Persistent(final String name, final Multimap<String, String> toSuspend, final Multimap<String, String> toDestroy) {
+            this(new File(Jenkins.getInstance().getRootDir(), name + ".xml"), toSuspend, toDestroy);
+        }
+
+        Persistent(final File dst, final Multimap<String, String> toSuspend, final Multimap<String, String> toDestroy) {
             nodesToSuspend = toSuspend;
             nodesToDestroy = toDestroy;
-            f = new File(Jenkins.getInstance().getRootDir(), name + ".xml");
-            XmlFile xf = new XmlFile(f);
-            try {
-                xf.write(this);
-            } catch (IOException x) {
-                LOGGER.warning("Failed to persist");
-            }
+            f = dst;
+            write();
         }
 
         public Persistent(final File src) {
@@ -70,6 +75,26 @@ public class TerminateNodes implements Function<Iterable<RunningNode>, Void> {
             }
         }
 
+        private void write() {
+            XmlFile xf = new XmlFile(f);
+            try {
+                xf.write(this);
+            } catch (IOException x) {
+                LOGGER.warning("Failed to persist");
+            }
+        }
+
+        /**
+         * Keeps only the given nodes, so that a later attempt does not handle the others again.
+         * @param toSuspend The ids of the nodes to suspend, by cloud name.
+         * @param toDestroy The ids of the nodes to destroy, by cloud name.
+         */
+        void retain(final Multimap<String, String> toSuspend, final Multimap<String, String> toDestroy) {
+            nodesToSuspend = toSuspend;
+            nodesToDestroy = toDestroy;
+            write();
+        }
+
         public void remove() {
             if (!f.delete()) {
                 LOGGER.warning("Could not delete " + f.getPath());
@@ -87,8 +112,13 @@ public class TerminateNodes implements Function<Iterable<RunningNode>, Void> {
 
 
     public TerminateNodes(Logger logger, LoadingCache<String, ComputeService> computeCache) {
+        this(logger, computeCache, Computer.threadPoolForRemoting);
+    }
+
+    TerminateNodes(Logger logger, LoadingCache<String, ComputeService> computeCache, ExecutorService executor) {
         this.logger = logger;
         this.computeCache = computeCache;
+        this.executor = executor;
     }
 
     public Void apply(Iterable<RunningNode> runningNode) {
@@ -104,40 +134,107 @@ public class TerminateNodes implements Function<Iterable<RunningNode>, Void> {
         Multimap<String, String> toSuspend = cloudNodesToSuspendBuilder.build();
         Multimap<String, String> toDestroy = cloudNodesToDestroyBuilder.build();
 
-        Persistent p = new Persistent(this.toString(), toSuspend, toDestroy);
-        suspendIfSupported(toSuspend);
-        destroy(toDestroy);
-        p.remove();
+        terminate(new Persistent(this.toString(), toSuspend, toDestroy));
         return null;
     }
 
-    private void destroy(Multimap<String, String> cloudNodesToDestroy) {
+    /**
+     * Suspends and destroys persisted nodes in parallel. A node, which cannot be suspended or destroyed,
+     * does not keep the other nodes from being handled. Once all nodes have been handled, the persisted
+     * list is removed. Otherwise it is rewritten to hold only the failed nodes, so that they are retried
+     * on the next startup.
+     * @param p The persisted nodes.
+     * @return {@code true}, if all nodes have been handled successfully.
+     */
+    public boolean terminate(final Persistent p) {
+        final Multimap<String, String> failedToSuspend = Multimaps.synchronizedMultimap(ArrayListMultimap.<String, String>create());
+        final Multimap<String, String> failedToDestroy = Multimaps.synchronizedMultimap(ArrayListMultimap.<String, String>create());
+        final List<Future<?>> pending = new ArrayList<>();
+        suspendIfSupported(p.getNodesToSuspend(), failedToSuspend, pending);
+        destroy(p.getNodesToDestroy(), failedToDestroy, pending);
+        for (final Future<?> f : pending) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Nodes may still be in progress, so all of them are kept.
+                logger.warn("Interrupted while terminating nodes");
+                return false;
+            } catch (ExecutionException e) {
+                logger.warn(e.getCause(), "Terminating nodes failed");
+            }
+        }
+        if (failedToSuspend.isEmpty() && failedToDestroy.isEmpty()) {
+            p.remove();
+            return true;
+        }
+        synchronized (failedToSuspend) {
+            synchronized (failedToDestroy) {
+                p.retain(ArrayListMultimap.create(failedToSuspend), ArrayListMultimap.create(failedToDestroy));
+            }
+        }
+        return false;
+    }
+
+    /* The nodes are addressed by id, because the *NodesMatching methods list all nodes of the account. */
+    private void destroy(Multimap<String, String> cloudNodesToDestroy, final Multimap<String, String> failed,
+            List<Future<?>> pending) {
         for (final String cloudToDestroy : cloudNodesToDestroy.keySet()) {
             final Collection<String> nodesToDestroy = cloudNodesToDestroy.get(cloudToDestroy);
+            final ComputeService compute = getCompute(cloudToDestroy);
+            if (null == compute) {
+                failed.putAll(cloudToDestroy, nodesToDestroy);
+                continue;
+            }
             logger.info("Destroying nodes: " + nodesToDestroy);
-            computeCache.getUnchecked(cloudToDestroy).destroyNodesMatching(new Predicate<NodeMetadata>() {
-                public boolean apply(NodeMetadata input) {
-                    return nodesToDestroy.contains(input.getId());
-                }
-            });
+            for (final String id : nodesToDestroy) {
+                pending.add(executor.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            compute.destroyNode(id);
+                        } catch (RuntimeException e) {
+                            logger.warn(e, "Destroying node " + id + " on cloud " + cloudToDestroy + " failed");
+                            failed.put(cloudToDestroy, id);
+                        }
+                    }
+                }));
+            }
         }
     }
 
-    private void suspendIfSupported(Multimap<String, String> cloudNodesToSuspend) {
-        for (String cloudToSuspend : cloudNodesToSuspend.keySet()) {
+    private void suspendIfSupported(Multimap<String, String> cloudNodesToSuspend, final Multimap<String, String> failed,
+            List<Future<?>> pending) {
+        for (final String cloudToSuspend : cloudNodesToSuspend.keySet()) {
             final Collection<String> nodesToSuspend = cloudNodesToSuspend.get(cloudToSuspend);
-            try {
-                logger.info("Suspending nodes: " + nodesToSuspend);
-                computeCache.getUnchecked(cloudToSuspend).suspendNodesMatching(new Predicate<NodeMetadata>() {
-
-                    public boolean apply(NodeMetadata input) {
-                        return nodesToSuspend.contains(input.getId());
+            final ComputeService compute = getCompute(cloudToSuspend);
+            if (null == compute) {
+                failed.putAll(cloudToSuspend, nodesToSuspend);
+                continue;
+            }
+            logger.info("Suspending nodes: " + nodesToSuspend);
+            for (final String id : nodesToSuspend) {
+                pending.add(executor.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            compute.suspendNode(id);
+                        } catch (UnsupportedOperationException e) {
+                            logger.info("Suspending unsupported on cloud: " + cloudToSuspend + "; node: " + id + ": " + e);
+                        } catch (RuntimeException e) {
+                            logger.warn(e, "Suspending node " + id + " on cloud " + cloudToSuspend + " failed");
+                            failed.put(cloudToSuspend, id);
+                        }
                     }
-
-                });
-            } catch (UnsupportedOperationException e) {
-                logger.info("Suspending unsupported on cloud: " + cloudToSuspend + "; nodes: " + nodesToSuspend + ": " + e);
+                }));
             }
         }
     }
+
+    private ComputeService getCompute(final String cloud) {
+        try {
+            return computeCache.getUnchecked(cloud);
+        } catch (RuntimeException e) {
+            logger.warn(e, "Unable to access cloud " + cloud);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Smooth weighted round robin selection (as used by nginx).
+ * <p>
+ * Over time, every candidate gets selected proportionally to its weight,
+ * while selections of the same candidate are spread as evenly as possible.
+ */
+public class WeightedRoundRobin {
+
+    private final Map<String, Integer> current = new HashMap<>();
+
+    /**
+     * Selects the next candidate.
+     *
+     * @param weights The weights of the currently eligible candidates by name.
+     *                Weights below 1 are treated as 1.
+     * @return The name of the selected candidate or {@code null}, if there are no candidates.
+     */
+    public synchronized String next(final Map<String, Integer> weights) {
+        current.keySet().retainAll(weights.keySet());
+        String best = null;
+        int bestWeight = Integer.MIN_VALUE;
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            final int weight = Math.max(1, entry.getValue().intValue());
+            final Integer cw = current.get(entry.getKey());
+            final int w = (null == cw ? 0 : cw.intValue()) + weight;
+            current.put(entry.getKey(), Integer.valueOf(w));
+            total += weight;
+            if (w > bestWeight) {
+                best = entry.getKey();
+                bestWeight = w;
+            }
+        }
+        if (null != best) {
+            current.put(best, Integer.valueOf(bestWeight - total));
+        }
+        return best;
+    }
+}
@@ -29,7 +29,9 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.util.zip.GZIPOutputStream;
@@ -48,6 +50,7 @@ import javax.mail.Session;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
 
 import jenkins.plugins.jclouds.compute.UserData;
 import org.jenkinsci.plugins.configfiles.ConfigFiles;
@@ -100,6 +103,18 @@ public class ConfigHelper {
         return null;
     }
 
+    @NonNull
+    private static BodyPart buildBody(@NonNull final String mime, @NonNull final String content) throws MessagingException {
+        final BodyPart body = new MimeBodyPart();
+        body.setDataHandler(new DataHandler(new ByteArrayDataSource(content.getBytes(StandardCharsets.UTF_8), mime)));
+        body.setHeader("Content-Type", mime + "; charset=\"utf8\"");
+        if (mime.equals(CloudInitContentType.CLOUDCONFIG.getMime())) {
+            body.setHeader("Merge-Type",
+                    "dict(allow_delete,recurse_array)+list(recurse_array,append)");
+        }
+        return body;
+    }
+
     @NonNull
     private static List<Config> getConfigs(@NonNull final List<String> configIds) {
         List<Config> ret = new ArrayList<>();
@@ -114,13 +129,28 @@ public class ConfigHelper {
 
     @CheckForNull
     public static byte [] buildUserData(@NonNull final List<String> configIds, boolean gzip) throws IOException {
+        return buildUserData(configIds, Collections.<String, String>emptyMap(), gzip);
+    }
+
+    /**
+     * Builds cloud-init user data from configs and additional generated parts.
+     * @param configIds The ids of the configs to include.
+     * @param extraParts Additional parts, mapping their mime type (e.g. {@code text/x-shellscript}) to their content.
+     *                   These are appended after the configs.
+     * @param gzip If {@code true}, the result is gzipped.
+     * @return The user data or {@code null}, if there is nothing to send.
+     * @throws IOException if the user data cannot be built.
+     */
+    @CheckForNull
+    public static byte [] buildUserData(@NonNull final List<String> configIds, @NonNull final Map<String, String> extraParts,
+            boolean gzip) throws IOException {
         List<Config> configs = getConfigs(configIds);
-        if (configs.isEmpty()) {
+        if (configs.isEmpty() && extraParts.isEmpty()) {
             return null;
         }
         try (final ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
             try (final OutputStream os = gzip ? new GZIPOutputStream(baos) : baos) {
-                if (configs.size() > 1) {
+                if (configs.size() + extraParts.size() > 1) {
                     try {
                         final MimeMessage msg = new MimeMessage((Session)null);
                         final Multipart multipart = new MimeMultipart();
@@ -130,11 +160,16 @@ public class ConfigHelper {
                                 multipart.addBodyPart(body);
                             }
                         }
+                        for (final Map.Entry<String, String> part : extraParts.entrySet()) {
+                            multipart.addBodyPart(buildBody(part.getKey(), part.getValue()));
+                        }
                         msg.setContent(multipart);
                         msg.writeTo(os);
                     } catch (IOException | MessagingException e) {
                         LOGGER.log(Level.WARNING, "", e);
                     }
+                } else if (configs.isEmpty()) {
+                    os.write(extraParts.values().iterator().next().getBytes(StandardCharsets.UTF_8));
                 } else {
                     Config cfg = configs.get(0);
                     if (null != cfg.content && !cfg.content.isEmpty()) {
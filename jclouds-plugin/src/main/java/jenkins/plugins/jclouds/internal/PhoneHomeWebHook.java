@@ -68,6 +68,8 @@ public class PhoneHomeWebHook implements UnprotectedRootAction {
     public void doIndex(StaplerRequest req, StaplerResponse rsp) {
 
         String hostName = req.getParameter("hostname");
+        // Sent by the phone_home module of cloud-init, if requested.
+        String instanceId = req.getParameter("instance_id");
         if (null == hostName) {
             throw new IllegalArgumentException("Not intended to be browsed interactively (must specify hostname parameter)");
         }
@@ -81,7 +83,8 @@ public class PhoneHomeWebHook implements UnprotectedRootAction {
                     final JCloudsSlave slave = ((JCloudsComputer) c).getNode();
                     if (null != slave) {
                         final NodeMetadata nmd = slave.getNodeMetaData();
-                        if (null != nmd && nmd.getHostname().equals(hostName)) {
+                        if (null != nmd && (hostName.equals(nmd.getHostname())
+                                    || (null != instanceId && instanceId.equals(nmd.getProviderId())))) {
                             slave.setWaitPhoneHome(false);
                             return;
                         }
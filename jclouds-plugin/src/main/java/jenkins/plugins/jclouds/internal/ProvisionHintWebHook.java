@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.internal;
+
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.RootAction;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import jenkins.plugins.jclouds.compute.JCloudsCloud;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Receives hints about imminent demand from external orchestrators, e.g.
+ * {@code POST <jenkins>/jclouds-hint/?label=linux&count=8&ttl=120}.
+ * <p>
+ * Unlike the phone home hook, this endpoint requires an authenticated user with permission
+ * to provision, as well as a crumb (or an API token, if crumbs are not required for those).
+ */
+@Extension
+public class ProvisionHintWebHook implements RootAction {
+
+    /* Upper bounds of the hint parameters. */
+    private static final int MAX_COUNT = 1000;
+    private static final int MAX_TTL = 3600;
+    private static final int DEFAULT_TTL = 120;
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return URLNAME;
+    }
+
+    /**
+     * Receives a hint.
+     *
+     * @param req The stapler request.
+     * @param rsp The stapler response.
+     * @param label The label expression of the builds to come. Empty for unlabeled builds.
+     * @param count The number of executors which will be needed.
+     * @param ttl The number of seconds hinted slaves are kept, if they remain unused.
+     * @throws IOException if the response cannot be written.
+     */
+    @RequirePOST
+    public void doIndex(StaplerRequest req, StaplerResponse rsp, @QueryParameter String label,
+            @QueryParameter int count, @QueryParameter String ttl) throws IOException {
+        // Check before looking up clouds, so unauthorized callers cannot probe which labels are served.
+        Jenkins.getInstance().checkPermission(Cloud.PROVISION);
+        if (count < 1 || count > MAX_COUNT) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "count must be between 1 and " + MAX_COUNT);
+            return;
+        }
+        final int ttlSeconds;
+        try {
+            ttlSeconds = null == ttl || ttl.isEmpty() ? DEFAULT_TTL : Integer.parseInt(ttl);
+        } catch (NumberFormatException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "ttl must be a number");
+            return;
+        }
+        if (ttlSeconds < 1 || ttlSeconds > MAX_TTL) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "ttl must be between 1 and " + MAX_TTL);
+            return;
+        }
+        final Label l = null == label || label.trim().isEmpty() ? null : Jenkins.getInstance().getLabel(label.trim());
+        final JSONObject ret = new JSONObject();
+        ret.put("label", null == l ? "" : l.getExpression());
+        ret.put("requested", count);
+        ret.put("ttl", ttlSeconds);
+        int provisioned = 0;
+        String cloudName = null;
+        // Like NodeProvisioner, use the first cloud which is able to provision the label.
+        for (final Cloud c : Jenkins.getInstance().clouds) {
+            if (JCloudsCloud.class.isInstance(c) && c.canProvision(l)) {
+                c.checkPermission(Cloud.PROVISION);
+                cloudName = c.name;
+                provisioned = ((JCloudsCloud) c).provisionHint(l, count, ttlSeconds);
+                break;
+            }
+        }
+        if (null == cloudName) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND, "No JClouds cloud can provision label " + label);
+            return;
+        }
+        LOGGER.info(String.format("Hint for %d executor(s) of label '%s': provisioning %d in cloud %s",
+                    count, ret.getString("label"), provisioned, cloudName));
+        ret.put("cloud", cloudName);
+        ret.put("provisioned", provisioned);
+        rsp.setContentType("application/json;charset=UTF-8");
+        ret.write(rsp.getWriter());
+    }
+
+    public static final String URLNAME = "jclouds-hint";
+
+    private static final Logger LOGGER = Logger.getLogger(ProvisionHintWebHook.class.getName());
+}
@@ -33,7 +33,9 @@ public class JCloudsCloudInsideJenkinsLiveTest {
         // TODO: this may need to vary per test
         cloud = new JCloudsCloud(fixture.getProvider() + "-profile", fixture.getProvider(), fixture.getCredentialsId(),
                 null, fixture.getEndpoint(), 1, CloudInstanceDefaults.DEFAULT_INSTANCE_RETENTION_TIME_IN_MINUTES, 600 * 1000, 600 * 1000,
-                null, "foobar", true, Collections.<JCloudsSlaveTemplate>emptyList());
+                null, "foobar", true, CloudInstanceDefaults.DEFAULT_NODE_INVENTORY_TTL_IN_SECONDS,
+                CloudInstanceDefaults.DEFAULT_RESOLVE_CONCURRENCY, CloudInstanceDefaults.DEFAULT_CREATE_CONCURRENCY,
+                CloudInstanceDefaults.DEFAULT_BOOTSTRAP_CONCURRENCY, false, null, Collections.<JCloudsSlaveTemplate>emptyList());
     }
 
     @Test
@@ -1,10 +1,20 @@
 package jenkins.plugins.jclouds.compute;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.gargoylesoftware.htmlunit.WebAssert;
 import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
@@ -16,6 +26,15 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.domain.ComputeMetadata;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+
+import shaded.com.google.common.collect.ImmutableSet;
+
+import jenkins.plugins.jclouds.compute.internal.CapacityLedger;
+
 /**
  * @author Vijay Kiran
  */
@@ -35,7 +54,7 @@ public class JCloudsCloudTest {
     public void testConfigurationUI() throws Exception {
         JCloudsCloud cloud = new JCloudsCloud("aws-profile", "aws-ec2", "",
                 "", "http://localhost", 1, CloudInstanceDefaults.DEFAULT_INSTANCE_RETENTION_TIME_IN_MINUTES,
-                600 * 1000, 600 * 1000, null, "foobar", true, Collections.<JCloudsSlaveTemplate>emptyList());
+                600 * 1000, 600 * 1000, null, "foobar", true, 60, 2, 4, 10, true, "linux-fleet", Collections.<JCloudsSlaveTemplate>emptyList());
         j.getInstance().clouds.add(cloud);
 
         HtmlPage p = j.createWebClient().goTo("configure");
@@ -51,6 +70,12 @@ public class JCloudsCloudTest {
         WebAssert.assertInputPresent(p, "_.startTimeout");
         WebAssert.assertInputPresent(p, "_.zones");
         WebAssert.assertInputPresent(p, "_.groupPrefix");
+        WebAssert.assertInputPresent(p, "_.nodeInventoryTtl");
+        WebAssert.assertInputPresent(p, "_.resolveConcurrency");
+        WebAssert.assertInputPresent(p, "_.createConcurrency");
+        WebAssert.assertInputPresent(p, "_.bootstrapConcurrency");
+        WebAssert.assertInputPresent(p, "_.predictiveProvisioning");
+        WebAssert.assertInputPresent(p, "_.cloudGroup");
         HtmlForm f = p.getFormByName("config");
         HtmlButton b = HtmlFormUtil.getButtonByCaption(f, "Test Connection");
         assertNotNull(b);
@@ -63,16 +88,67 @@ public class JCloudsCloudTest {
 
         JCloudsCloud original = new JCloudsCloud("aws-profile", "aws-ec2", "",
                 "", "http://localhost", 1, CloudInstanceDefaults.DEFAULT_INSTANCE_RETENTION_TIME_IN_MINUTES,
-                600 * 1000, 600 * 1000, null, "foobar", true, Collections.<JCloudsSlaveTemplate>emptyList());
+                600 * 1000, 600 * 1000, null, "foobar", true, 60, 2, 4, 10, true, "linux-fleet", Collections.<JCloudsSlaveTemplate>emptyList());
 
         j.getInstance().clouds.add(original);
         j.submit(j.createWebClient().goTo("configure").getFormByName("config"));
 
         j.assertEqualBeans(original, j.getInstance().clouds.getByName("aws-profile"),
-                "profile,providerName,cloudCredentialsId,cloudGlobalKeyId,endPointUrl,instanceCap,retentionTime,groupPrefix");
+                "profile,providerName,cloudCredentialsId,cloudGlobalKeyId,endPointUrl,instanceCap,retentionTime,groupPrefix,nodeInventoryTtl,resolveConcurrency,createConcurrency,bootstrapConcurrency,predictiveProvisioning,cloudGroup");
 
         j.assertEqualBeans(original, JCloudsCloud.getByName("aws-profile"),
-                "profile,providerName,cloudCredentialsId,cloudGlobalKeyId,endPointUrl,instanceCap,retentionTime,groupPrefix");
+                "profile,providerName,cloudCredentialsId,cloudGlobalKeyId,endPointUrl,instanceCap,retentionTime,groupPrefix,nodeInventoryTtl,resolveConcurrency,createConcurrency,bootstrapConcurrency,predictiveProvisioning,cloudGroup");
     }
 
+    /* A compute service, which knows the nodes "us-east-1/i-1" and "us-east-1/i-2" and fails for "us-east-1/i-bad". */
+    private static ComputeService listingCompute() {
+        return (ComputeService) Proxy.newProxyInstance(ComputeService.class.getClassLoader(),
+                new Class<?>[] { ComputeService.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final Set<NodeMetadata> ret = new HashSet<>();
+                        for (final Object id : (Iterable<?>) args[0]) {
+                            if ("us-east-1/i-bad".equals(id)) {
+                                throw new IllegalStateException("InvalidInstanceID.Malformed");
+                            }
+                            if ("us-east-1/i-1".equals(id) || "us-east-1/i-2".equals(id)) {
+                                ret.add(new NodeMetadataBuilder().id((String) id).status(NodeMetadata.Status.RUNNING).build());
+                            }
+                        }
+                        return ret;
+                    }
+                });
+    }
+
+    @Test
+    public void testNodesByIdsAreNeverPartial() {
+        final ComputeService cs = listingCompute();
+        final Set<ComputeMetadata> nodes = new HashSet<>();
+        assertTrue(JCloudsCloud.addNodesByIds(cs, Collections.<String>emptySet(), nodes));
+        assertTrue(JCloudsCloud.addNodesByIds(cs, ImmutableSet.of("us-east-1/i-1", "us-east-1/i-2"), nodes));
+        assertEquals(2, nodes.size());
+        // A purged or not yet visible node must not shrink the result.
+        assertFalse(JCloudsCloud.addNodesByIds(cs, ImmutableSet.of("us-east-1/i-1", "us-east-1/i-gone"), nodes));
+        assertFalse(JCloudsCloud.addNodesByIds(cs, ImmutableSet.of("us-east-1/i-bad"), nodes));
+        assertEquals(2, nodes.size());
+    }
+
+    @Test
+    public void testFallbackOnlyToAvailableTemplates() {
+        final JCloudsSlaveTemplate t = JCloudsSlaveTemplateTest.newTemplate("fallback");
+        final JCloudsCloud cloud = new JCloudsCloud("fallback-cloud", "stub", null, null, null, 1, 30, 600 * 1000,
+                600 * 1000, null, null, false, 60, 2, 4, 10, false, null, Collections.singletonList(t));
+        // An overloaded or shut down pipeline would reject the fallback as well.
+        assertNull(cloud.reserveFallback(t, new RejectedExecutionException("queue full")));
+        assertNull(cloud.reserveFallback(t, new CancellationException()));
+
+        final CapacityLedger.Reservation r = cloud.reserveFallback(t, new IllegalStateException("quota exceeded"));
+        assertNotNull(r);
+        r.release();
+
+        for (int i = 0; i < JCloudsCloud.BREAKER_THRESHOLD; i++) {
+            t.getCircuitBreaker().recordFailure(System.currentTimeMillis(), "quota exceeded");
+        }
+        assertNull(cloud.reserveFallback(t, new IllegalStateException("quota exceeded")));
+        assertEquals(0, cloud.getLedger().getReserved());
+    }
 }
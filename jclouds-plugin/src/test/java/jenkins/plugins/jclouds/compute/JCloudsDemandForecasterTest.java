@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Collections;
+import java.util.Map;
+
+import hudson.model.FreeStyleProject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class JCloudsDemandForecasterTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void testDemandIsRecordedDuringOutage() throws Exception {
+        final JCloudsSlaveTemplate t = JCloudsSlaveTemplateTest.newTemplate("forecast");
+        final JCloudsCloud cloud = new JCloudsCloud("forecast-cloud", "stub", null, null, null, 1, 30, 600 * 1000,
+                600 * 1000, null, null, false, 60, 2, 4, 10, false, null, Collections.singletonList(t));
+        final FreeStyleProject p = j.createFreeStyleProject();
+        p.setAssignedLabel(j.jenkins.getLabel("cached"));
+        p.scheduleBuild2(0);
+        j.jenkins.getQueue().maintain();
+        assertEquals(1, j.jenkins.getQueue().getBuildableItems().size());
+
+        for (int i = 0; i < JCloudsCloud.BREAKER_THRESHOLD; i++) {
+            cloud.getCircuitBreaker().recordFailure(System.currentTimeMillis(), "quota exceeded");
+        }
+        assertFalse(cloud.canProvision(j.jenkins.getLabel("cached")));
+        final Map<String, Integer> demand = JCloudsDemandForecaster.getDemand(cloud);
+        assertEquals(Integer.valueOf(1), demand.get("cached"));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class JCloudsImageBakerTest {
+
+    @Test
+    public void testFailedBakesAreRetriedWithGrowingDelay() {
+        final JCloudsImageBaker.Backoff b = new JCloudsImageBaker.Backoff(1000L, 5);
+        assertTrue(b.mayBake("cloud/t", "h1", 0));
+        assertFalse(b.recordFailure("cloud/t", "h1", 0));
+        assertFalse(b.mayBake("cloud/t", "h1", 999L));
+        assertTrue(b.mayBake("cloud/t", "h1", 1000L));
+        assertFalse(b.recordFailure("cloud/t", "h1", 1000L));
+        assertFalse(b.mayBake("cloud/t", "h1", 2999L));
+        assertTrue(b.mayBake("cloud/t", "h1", 3000L));
+        // Other templates are not affected
+        assertTrue(b.mayBake("cloud/other", "h1", 1000L));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxFailures() {
+        final JCloudsImageBaker.Backoff b = new JCloudsImageBaker.Backoff(1000L, 3);
+        assertFalse(b.recordFailure("cloud/t", "h1", 0));
+        assertFalse(b.recordFailure("cloud/t", "h1", 0));
+        assertTrue(b.recordFailure("cloud/t", "h1", 0));
+        assertFalse(b.mayBake("cloud/t", "h1", Long.MAX_VALUE));
+        // A changed configuration is baked again
+        assertTrue(b.mayBake("cloud/t", "h2", 0));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        final JCloudsImageBaker.Backoff b = new JCloudsImageBaker.Backoff(1000L, 3);
+        b.recordFailure("cloud/t", "h1", 0);
+        b.recordFailure("cloud/t", "h1", 0);
+        b.recordSuccess("cloud/t");
+        assertTrue(b.mayBake("cloud/t", "h1", 0));
+        assertFalse(b.recordFailure("cloud/t", "h1", 0));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.SlaveComputer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import shaded.com.google.common.util.concurrent.ListenableFuture;
+
+public class JCloudsLaunchListenerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    /**
+     * Counts launch attempts, none of which connects the slave.
+     */
+    private static final class CountingLauncher extends ComputerLauncher {
+        private final AtomicInteger launches = new AtomicInteger();
+
+        @Override
+        public void launch(final SlaveComputer computer, final TaskListener listener) {
+            launches.incrementAndGet();
+        }
+    }
+
+    private JCloudsSlave createSlave(final String name, final ComputerLauncher launcher) throws Exception {
+        final JCloudsSlave ret = new JCloudsSlave("launch-cloud", name, "", j.createTmpDir().getPath(), "1",
+                Node.Mode.NORMAL, "", launcher, new JCloudsRetentionStrategy(), Collections.<NodeProperty<?>>emptyList(),
+                false, Integer.valueOf(-1), "jenkins", null, null, false, null, false, 0, null, null);
+        j.jenkins.addNode(ret);
+        return ret;
+    }
+
+    private static void awaitLaunches(final CountingLauncher launcher, final Computer c, final int count) throws Exception {
+        final long deadline = System.currentTimeMillis() + 30000L;
+        while (launcher.launches.get() < count || c.isConnecting()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Expected " + count + " launch attempts, got " + launcher.launches.get());
+            }
+            Thread.sleep(100L);
+        }
+    }
+
+    @Test
+    public void testOnlineCompletesLaunch() throws Exception {
+        final CountingLauncher launcher = new CountingLauncher();
+        final JCloudsSlave slave = createSlave("completed", launcher);
+        final ListenableFuture<Node> f = JCloudsLaunchListener.expectLaunch(slave, 600);
+        assertFalse(f.isDone());
+        new JCloudsLaunchListener().onOnline(slave.toComputer(), TaskListener.NULL);
+        assertSame(slave, f.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLaunchFailureSchedulesReconnect() throws Exception {
+        final CountingLauncher launcher = new CountingLauncher();
+        final JCloudsSlave slave = createSlave("reconnected", launcher);
+        final Computer c = slave.toComputer();
+        awaitLaunches(launcher, c, 1);
+        final int initial = launcher.launches.get();
+        final ListenableFuture<Node> f = JCloudsLaunchListener.expectLaunch(slave, 600);
+        // The failed first attempt is repeated right away.
+        awaitLaunches(launcher, c, initial + 1);
+        // Every failed attempt is followed by another one after a delay.
+        new JCloudsLaunchListener().onLaunchFailure(c, TaskListener.NULL);
+        awaitLaunches(launcher, c, initial + 2);
+        assertFalse(f.isDone());
+        new JCloudsLaunchListener().onOnline(c, TaskListener.NULL);
+        assertTrue(f.isDone());
+    }
+
+    @Test
+    public void testLaunchFailsAtDeadline() throws Exception {
+        final CountingLauncher launcher = new CountingLauncher();
+        final JCloudsSlave slave = createSlave("timedout", launcher);
+        final ListenableFuture<Node> f = JCloudsLaunchListener.expectLaunch(slave, 1);
+        try {
+            f.get(30, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testAlreadyOnlineSlave() throws Exception {
+        final JCloudsSlave slave = createSlave("online", j.createComputerLauncher(null));
+        j.waitOnline(slave);
+        final ListenableFuture<Node> f = JCloudsLaunchListener.expectLaunch(slave, 600);
+        assertTrue(f.isDone());
+        assertSame(slave, f.get());
+    }
+}
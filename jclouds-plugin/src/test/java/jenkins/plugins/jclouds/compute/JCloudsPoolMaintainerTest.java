@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class JCloudsPoolMaintainerTest {
+
+    @Test
+    public void testOnlineSlavesCountWhenIdle() {
+        assertTrue(JCloudsPoolMaintainer.isPoolSlave(true, true, false, false, false));
+        assertTrue(JCloudsPoolMaintainer.isPoolSlave(true, true, false, false, true));
+        assertFalse(JCloudsPoolMaintainer.isPoolSlave(true, false, false, false, true));
+    }
+
+    @Test
+    public void testLaunchingSlavesCountWhenRequested() {
+        assertTrue(JCloudsPoolMaintainer.isPoolSlave(false, true, true, false, true));
+        assertTrue(JCloudsPoolMaintainer.isPoolSlave(false, true, false, true, true));
+        assertFalse(JCloudsPoolMaintainer.isPoolSlave(false, true, true, false, false));
+        assertFalse(JCloudsPoolMaintainer.isPoolSlave(false, true, false, true, false));
+    }
+
+    @Test
+    public void testFailedOrDisconnectedSlavesDoNotCount() {
+        assertFalse(JCloudsPoolMaintainer.isPoolSlave(false, true, false, false, true));
+        assertFalse(JCloudsPoolMaintainer.isPoolSlave(false, true, false, false, false));
+    }
+}
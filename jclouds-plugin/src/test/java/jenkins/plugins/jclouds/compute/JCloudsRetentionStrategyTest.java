@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import hudson.model.Node;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.domain.LoginCredentials;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class JCloudsRetentionStrategyTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void testPreemptedSpotSlaveIsReplaced() throws Exception {
+        final JCloudsSlaveTemplate t = JCloudsSlaveTemplateTest.newSpotTemplate("spot", "0.25");
+        final List<String> replaced = new ArrayList<>();
+        // Replacements are rejected, so that no node gets created in the background.
+        final ProvisioningPipeline stopped = new ProvisioningPipeline("spot-cloud", 1, 1, 1);
+        stopped.shutdown();
+        final JCloudsCloud cloud = new JCloudsCloud("spot-cloud", "stub", null, null, null, 10, 30, 600 * 1000,
+                600 * 1000, null, null, false, 60, 2, 4, 10, false, null, Collections.singletonList(t)) {
+            @Override
+            void replacePreempted(final JCloudsSlave slave) {
+                replaced.add(slave.getNodeName());
+                super.replacePreempted(slave);
+            }
+
+            @Override
+            synchronized ProvisioningPipeline getPipeline() {
+                return stopped;
+            }
+        };
+        j.jenkins.clouds.add(cloud);
+        final NodeMetadata nm = new NodeMetadataBuilder().id("preempted").name("spot-1")
+            .status(NodeMetadata.Status.RUNNING)
+            .credentials(LoginCredentials.builder().user("jenkins").password("secret").build()).build();
+        final JCloudsSlave slave = new JCloudsSlave(cloud.name, "/tmp", nm, "spot", "Spot slave", "1", false,
+                Integer.valueOf(-1), null, false, 0, null, Node.Mode.NORMAL, null, t.name);
+        slave.setSpot(true);
+        j.jenkins.addNode(slave);
+        assertTrue(t.requestsSpot(System.currentTimeMillis()));
+
+        // The node is not in the inventory of the cloud, so it has been reclaimed by the provider.
+        new JCloudsRetentionStrategy().check((JCloudsComputer) slave.toComputer());
+        assertTrue(slave.isPendingDelete());
+        assertEquals(Collections.singletonList("spot-1"), replaced);
+        assertNull(j.jenkins.getNode("spot-1"));
+        // For a while, new nodes are created on-demand.
+        assertFalse(t.requestsSpot(System.currentTimeMillis()));
+    }
+}
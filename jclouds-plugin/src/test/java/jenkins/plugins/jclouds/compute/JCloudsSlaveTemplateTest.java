@@ -1,12 +1,52 @@
 package jenkins.plugins.jclouds.compute;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jvnet.hudson.test.JenkinsRule;
 import org.junit.Test;
 import org.junit.Rule;
 
+import hudson.util.FormValidation;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.aws.ec2.compute.AWSEC2TemplateOptions;
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.ImageBuilder;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.domain.Template;
+import org.jclouds.compute.domain.TemplateBuilder;
+import org.jclouds.compute.domain.internal.TemplateImpl;
+import org.jclouds.compute.options.TemplateOptions;
+
+import shaded.com.google.common.base.Supplier;
+import shaded.com.google.common.util.concurrent.MoreExecutors;
+
+import jenkins.model.JenkinsLocationConfiguration;
+import jenkins.plugins.jclouds.compute.internal.ImageCatalog;
+import jenkins.plugins.jclouds.compute.internal.PlacementSelector;
+import jenkins.plugins.jclouds.config.CloudInitContentType;
+import jenkins.plugins.jclouds.internal.PhoneHomeWebHook;
+
 /**
  * @author Vijay Kiran
  */
@@ -26,14 +66,21 @@ public class JCloudsSlaveTemplateTest {
                 null /* keyPairName */, true /* assignPublicIp */, "network1_id,network2_id",
                 "security_group1,security_group2", null /* credentialsId */,
                 null /* adminCredentialsId */, "NORMAL" /* mode */, true /* useConfigDrive */,
-                null /* configDataIds */, "192.168.1.0/24" /* preferredAddress */);
+                null /* configDataIds */, "192.168.1.0/24" /* preferredAddress */,
+                2 /* minIdle */, 3 /* weight */, 10 /* instanceCap */,
+                600 /* launchTimeout */, "location2,location3" /* additionalLocationIds */,
+                "hardware2" /* additionalHardwareIds */, "LEAST_LOADED" /* placementStrategy */,
+                "hardware3=4" /* alternativeSizes */, true /* bakeImage */,
+                true /* spotInstances */, "0.25" /* spotMaxPrice */,
+                true /* autoExecutors */, 2.0 /* coresPerExecutor */, 4096 /* ramPerExecutor */,
+                50 /* jvmHeapPercent */, true /* cloudInitBootstrap */);
 
         final List<JCloudsSlaveTemplate> templates = new ArrayList<>();
         templates.add(beforeTemplate);
 
         final JCloudsCloud beforeCloud = new JCloudsCloud("aws-profile",
                 "aws-ec2", "cloudCredentialsId", "cloudGlobalKeyId",
-                "http://localhost", 1, 30, 600 * 1000, 600 * 1000, null, "foobar", true, templates);
+                "http://localhost", 1, 30, 600 * 1000, 600 * 1000, null, "foobar", true, 60, 2, 4, 10, false, null, templates);
 
         j.jenkins.clouds.add(beforeCloud);
         j.submit(j.createWebClient().goTo("configure").getFormByName("config"));
@@ -44,7 +91,237 @@ public class JCloudsSlaveTemplateTest {
         j.assertEqualBeans(beforeCloud, afterCloud,
                 "profile,providerName,endPointUrl,trustAll,groupPrefix");
         j.assertEqualBeans(beforeTemplate, afterTemplate,
-                "name,cores,ram,osFamily,osVersion,labelString,description,numExecutors,stopOnTerminate,mode,useConfigDrive,preferredAddress");
+                "name,cores,ram,osFamily,osVersion,labelString,description,numExecutors,stopOnTerminate,mode,useConfigDrive,preferredAddress,minIdle,weight,instanceCap,launchTimeout,additionalLocationIds,additionalHardwareIds,placementStrategy,alternativeSizes,bakeImage,spotInstances,spotMaxPrice,autoExecutors,coresPerExecutor,ramPerExecutor,jvmHeapPercent,cloudInitBootstrap");
+    }
+
+    static JCloudsSlaveTemplate newTemplate(final String name) {
+        return new JCloudsSlaveTemplate(name, null, null, null, 1, 512, null, null, null, "cached",
+                null, null, 1, false, null, false, null, false, false, 0, 0, false, false, 0, null, false,
+                null, null, null, null, "NORMAL", false, null, null, 0, 1, 0, 0, null, null, null, null,
+                false, false, null, false, 0, 0, 0, false);
+    }
+
+    static JCloudsSlaveTemplate newSpotTemplate(final String name, final String spotMaxPrice) {
+        return new JCloudsSlaveTemplate(name, null, null, null, 1, 512, null, null, null, "spot",
+                null, null, 1, false, null, true /* preExistingJenkinsUser */, null, false, false, 0, 0, false, false,
+                0, null, false, null, null, null, null, "NORMAL", false, null, null, 0, 1, 0, 0, null, null, null, null,
+                false, true /* spotInstances */, spotMaxPrice, false, 0, 0, 0, false);
+    }
+
+    /**
+     * Wraps a template builder, so that it builds templates with AWS EC2 options.
+     */
+    private static TemplateBuilder ec2Builder(final TemplateBuilder delegate) {
+        return (TemplateBuilder) Proxy.newProxyInstance(TemplateBuilder.class.getClassLoader(),
+                new Class<?>[] { TemplateBuilder.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        final Object ret;
+                        try {
+                            ret = method.invoke(delegate, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                        if (ret instanceof Template) {
+                            final Template t = (Template) ret;
+                            return new TemplateImpl(t.getImage(), t.getHardware(), t.getLocation(), new AWSEC2TemplateOptions());
+                        }
+                        return ret == delegate ? proxy : ret;
+                    }
+                });
+    }
+
+    @Test
+    public void testResolvedTemplateCache() throws Exception {
+        final ComputeService stub = ContextBuilder.newBuilder("stub").buildView(ComputeServiceContext.class)
+            .getComputeService();
+        final AtomicInteger resolutions = new AtomicInteger();
+        final ComputeService compute = (ComputeService) Proxy.newProxyInstance(ComputeService.class.getClassLoader(),
+                new Class<?>[] { ComputeService.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        if ("templateBuilder".equals(method.getName())) {
+                            resolutions.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(stub, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        final JCloudsSlaveTemplate template = newTemplate("cached");
+        final JCloudsSlaveTemplate reconfigured = newTemplate("cached");
+        final List<JCloudsSlaveTemplate> templates = new ArrayList<>();
+        templates.add(template);
+        templates.add(reconfigured);
+        new JCloudsCloud("stub-profile", "stub", null, null, null, 1, 30, 600 * 1000, 600 * 1000, null, null,
+                false, 60, 2, 4, 10, false, null, templates) {
+            @Override
+            public ComputeService getCompute() {
+                return compute;
+            }
+        };
+        final PlacementSelector.Placement placement = new PlacementSelector.Placement(null, null);
+
+        final Template first = template.getResolvedTemplate(placement, false, null);
+        assertEquals(1, resolutions.get());
+
+        // Cache hit: Callers get a copy, so modified options do not leak into the cache.
+        first.getOptions().userMetadata("modified", "true");
+        final Template second = template.getResolvedTemplate(placement, false, null);
+        assertEquals(1, resolutions.get());
+        assertEquals(first.getImage().getId(), second.getImage().getId());
+        assertEquals(first.getHardware().getId(), second.getHardware().getId());
+        assertFalse(second.getOptions().getUserMetadata().containsKey("modified"));
+
+        // A stale image bypasses the cache and replaces the cached template.
+        template.getResolvedTemplate(placement, true, null);
+        assertEquals(2, resolutions.get());
+        template.getResolvedTemplate(placement, false, null);
+        assertEquals(2, resolutions.get());
+
+        // Different resolution relevant values are cached separately.
+        template.getResolvedTemplate(new PlacementSelector.Placement(null, second.getHardware().getId()), false, null);
+        assertEquals(3, resolutions.get());
+
+        // Reconfiguration creates a new template instance, which starts with an empty cache.
+        reconfigured.getResolvedTemplate(placement, false, null);
+        assertEquals(4, resolutions.get());
+    }
+
+    @Test
+    public void testRefreshedCatalogChangesImage() throws Exception {
+        final ComputeService stub = ContextBuilder.newBuilder("stub").buildView(ComputeServiceContext.class)
+            .getComputeService();
+        final List<Image> available = new ArrayList<>();
+        for (final Image i : stub.listImages()) {
+            available.add(i);
+        }
+        final List<Image> images = new ArrayList<>();
+        images.add(ImageBuilder.fromImage(available.get(0)).name("build-1").build());
+        final ImageCatalog catalog = new ImageCatalog(new Supplier<List<Image>>() {
+            public List<Image> get() {
+                return new ArrayList<>(images);
+            }
+        }, 60000L, MoreExecutors.sameThreadExecutor());
+        final JCloudsSlaveTemplate template = new JCloudsSlaveTemplate("regex", null, "build-.*", null, 1, 512,
+                null, null, null, "regex", null, null, 1, false, null, false, null, false, false, 0, 0, false, false,
+                0, null, false, null, null, null, null, "NORMAL", false, null, null, 0, 1, 0, 0, null, null, null,
+                null, false, false, null, false, 0, 0, 0, false);
+        final List<JCloudsSlaveTemplate> templates = new ArrayList<>();
+        templates.add(template);
+        new JCloudsCloud("stub-profile", "stub", null, null, null, 1, 30, 600 * 1000, 600 * 1000, null, null,
+                false, 60, 2, 4, 10, false, null, templates) {
+            @Override
+            public ComputeService getCompute() {
+                return stub;
+            }
+
+            @Override
+            ImageCatalog getImageCatalog() {
+                return catalog;
+            }
+        };
+        final PlacementSelector.Placement placement = new PlacementSelector.Placement(null, null);
+
+        assertEquals(available.get(0).getId(), template.getResolvedTemplate(placement, false, null).getImage().getId());
+
+        // A newer image only shows up after the catalog has been refreshed.
+        images.add(ImageBuilder.fromImage(available.get(1)).name("build-2").build());
+        assertEquals(available.get(0).getId(), template.getResolvedTemplate(placement, false, null).getImage().getId());
+        catalog.refresh();
+        assertEquals(available.get(1).getId(), template.getResolvedTemplate(placement, false, null).getImage().getId());
+    }
+
+    @Test
+    public void testSpotOptions() {
+        final JCloudsSlaveTemplate priced = newSpotTemplate("priced", "0.25");
+        final AWSEC2TemplateOptions ec2 = new AWSEC2TemplateOptions();
+        assertTrue(priced.applySpotOptions(ec2));
+        assertEquals(Float.valueOf(0.25f), ec2.getSpotPrice());
+        assertNotNull(ec2.getSpotOptions());
+
+        // Without a maximum price, no spot instances are requested on AWS EC2.
+        final AWSEC2TemplateOptions unpriced = new AWSEC2TemplateOptions();
+        assertFalse(newSpotTemplate("unpriced", null).applySpotOptions(unpriced));
+        assertNull(unpriced.getSpotPrice());
+
+        assertFalse(priced.applySpotOptions(new TemplateOptions()));
+    }
+
+    @Test
+    public void testSpotMaxPriceCheck() {
+        final JCloudsSlaveTemplate.DescriptorImpl d = j.jenkins.getDescriptorByType(JCloudsSlaveTemplate.DescriptorImpl.class);
+        assertEquals(FormValidation.Kind.WARNING, d.doCheckSpotMaxPrice("", true).kind);
+        assertEquals(FormValidation.Kind.OK, d.doCheckSpotMaxPrice("", false).kind);
+        assertEquals(FormValidation.Kind.OK, d.doCheckSpotMaxPrice("0.25", true).kind);
+        assertEquals(FormValidation.Kind.ERROR, d.doCheckSpotMaxPrice("-1", true).kind);
     }
 
+    @Test
+    public void testSpotFallsBackToOnDemand() throws Exception {
+        final ComputeService stub = ContextBuilder.newBuilder("stub").buildView(ComputeServiceContext.class)
+            .getComputeService();
+        final List<Float> prices = new ArrayList<>();
+        final ComputeService compute = (ComputeService) Proxy.newProxyInstance(ComputeService.class.getClassLoader(),
+                new Class<?>[] { ComputeService.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        if ("templateBuilder".equals(method.getName())) {
+                            return ec2Builder(stub.templateBuilder());
+                        }
+                        if ("createNodesInGroup".equals(method.getName()) && args[2] instanceof Template) {
+                            final Float price = ((AWSEC2TemplateOptions) ((Template) args[2]).getOptions()).getSpotPrice();
+                            prices.add(price);
+                            if (null != price) {
+                                throw new IllegalStateException("Spot request has not been fulfilled in time");
+                            }
+                            final Set<NodeMetadata> ret = new HashSet<>();
+                            for (int i = 0; i < ((Integer) args[1]).intValue(); i++) {
+                                ret.add(new NodeMetadataBuilder().id("on-demand-" + prices.size() + "-" + i)
+                                        .group((String) args[0]).status(NodeMetadata.Status.RUNNING).build());
+                            }
+                            return ret;
+                        }
+                        try {
+                            return method.invoke(stub, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        final JCloudsSlaveTemplate template = newSpotTemplate("spot", "0.25");
+        new JCloudsCloud("stub-profile", "stub", null, null, null, 10, 30, 600 * 1000, 600 * 1000, null, null,
+                false, 60, 2, 4, 10, false, null, Collections.singletonList(template)) {
+            @Override
+            public ComputeService getCompute() {
+                return compute;
+            }
+        };
+
+        assertEquals(1, template.createNodes(1, template.getDefaultSize(), false).size());
+        assertEquals(Arrays.asList(Float.valueOf(0.25f), null), prices);
+
+        // Spot requests are suspended for a while.
+        assertFalse(template.requestsSpot(System.currentTimeMillis()));
+        assertEquals(1, template.createNodes(1, template.getDefaultSize(), false).size());
+        assertEquals(Arrays.asList(Float.valueOf(0.25f), null, null), prices);
+    }
+
+    @Test
+    public void testCloudInitParts() throws Exception {
+        final JCloudsSlaveTemplate template = newTemplate("cloudinit");
+        final List<JCloudsSlaveTemplate> templates = new ArrayList<>();
+        templates.add(template);
+        new JCloudsCloud("stub-profile", "stub", null, null, null, 1, 30, 600 * 1000, 600 * 1000, null, null,
+                false, 60, 2, 4, 10, false, null, templates);
+        JenkinsLocationConfiguration.get().setUrl("http://jenkins.example.com/");
+
+        final Map<String, String> parts = template.getCloudInitParts();
+        final String script = parts.get(CloudInitContentType.SHELL.getMime());
+        assertTrue(script.startsWith("#!/bin/sh\n"));
+        assertTrue(script.contains("mkdir -p /jenkins"));
+        assertTrue(script.contains("jenkins"));
+        final String cloudConfig = parts.get(CloudInitContentType.CLOUDCONFIG.getMime());
+        assertTrue(cloudConfig.startsWith("#cloud-config\n"));
+        assertTrue(cloudConfig.contains("url: http://jenkins.example.com/" + PhoneHomeWebHook.URLNAME + "/"));
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import jenkins.plugins.jclouds.compute.internal.ProvisioningTimings;
+
+public class ManualProvisioningTest {
+
+    @Test
+    public void testPhasesFollowCompletedTimings() {
+        final ManualProvisioning mp = new ManualProvisioning("1", "ubuntu");
+        assertEquals(ProvisioningTimings.RESOLVE, mp.getPhase());
+        mp.getTimings().record(ProvisioningTimings.RESOLVE, 10L);
+        assertEquals(ProvisioningTimings.CREATE, mp.getPhase());
+        mp.getTimings().record(ProvisioningTimings.CREATE, 20L);
+        mp.getTimings().record(ProvisioningTimings.BOOTSTRAP, 30L);
+        assertEquals(ProvisioningTimings.REGISTER, mp.getPhase());
+        mp.getTimings().record(ProvisioningTimings.REGISTER, 5L);
+        mp.registered("ubuntu-1");
+        assertEquals(ManualProvisioning.LAUNCH, mp.getPhase());
+        assertEquals("ubuntu-1", mp.getNodeName());
+        assertFalse(mp.isDone());
+        mp.online();
+        assertTrue(mp.isDone());
+        assertEquals("online", mp.getPhase());
+        assertTrue(mp.getPhaseTimings().containsKey(ManualProvisioning.LAUNCH));
+        assertNull(mp.getFailure());
+        assertEquals(3, mp.getLog().size());
+    }
+
+    @Test
+    public void testFailure() {
+        final ManualProvisioning mp = new ManualProvisioning("2", "ubuntu");
+        mp.getTimings().record(ProvisioningTimings.RESOLVE, 10L);
+        mp.failed(new IllegalStateException("out of capacity"));
+        assertTrue(mp.isDone());
+        assertEquals("failed", mp.getPhase());
+        assertNull(mp.getNodeName());
+        assertTrue(mp.getFailure().contains("out of capacity"));
+        assertTrue(mp.getLog().get(mp.getLog().size() - 1).contains("Provisioning failed"));
+    }
+
+    @Test
+    public void testOnlyFinishedProvisioningsAreForgotten() {
+        final Map<String, ManualProvisioning> tracked = new LinkedHashMap<>();
+        final ManualProvisioning running = new ManualProvisioning("1", "ubuntu");
+        final ManualProvisioning finished = new ManualProvisioning("2", "ubuntu");
+        finished.online();
+        JCloudsCloud.track(tracked, running, 2);
+        JCloudsCloud.track(tracked, finished, 2);
+        JCloudsCloud.track(tracked, new ManualProvisioning("3", "ubuntu"), 2);
+        assertEquals(2, tracked.size());
+        assertNotNull(tracked.get("1"));
+        assertNull(tracked.get("2"));
+        assertNotNull(tracked.get("3"));
+        // Nothing finished, so the limit is exceeded rather than losing running ones.
+        JCloudsCloud.track(tracked, new ManualProvisioning("4", "ubuntu"), 2);
+        assertEquals(3, tracked.size());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import shaded.com.google.common.util.concurrent.SettableFuture;
+
+public class ProvisionHintTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private JCloudsSlave createSlave(final String name) throws Exception {
+        return createSlave(name, "");
+    }
+
+    private JCloudsSlave createSlave(final String name, final String labelString) throws Exception {
+        return new JCloudsSlave("hint-cloud", name, "", "/tmp", "1", Node.Mode.NORMAL, labelString,
+                new JCloudsLauncher(), new JCloudsRetentionStrategy(), Collections.<NodeProperty<?>>emptyList(),
+                false, Integer.valueOf(-1), "jenkins", null, null, false, null, false, 0, null, null);
+    }
+
+    @Test
+    public void testHintedExecutorsAreInFlightUntilProvisioned() {
+        final AtomicInteger inFlight = JCloudsCloud.getHintsInFlight("hint-cloud", null);
+        assertSame(inFlight, JCloudsCloud.getHintsInFlight("hint-cloud", null));
+        assertNotSame(inFlight, JCloudsCloud.getHintsInFlight("hint-cloud", j.jenkins.getLabel("linux")));
+        final SettableFuture<Node> provisioned = SettableFuture.create();
+        final SettableFuture<Node> failed = SettableFuture.create();
+        JCloudsCloud.trackHint(inFlight, new PlannedNode("a", provisioned, 2), null, 60);
+        JCloudsCloud.trackHint(inFlight, new PlannedNode("b", failed, 1), null, 60);
+        assertEquals(3, inFlight.get());
+        provisioned.set(null);
+        assertEquals(1, inFlight.get());
+        failed.setException(new IOException("quota exceeded"));
+        assertEquals(0, inFlight.get());
+    }
+
+    @Test
+    public void testLargerHintCountsRegisteredSlavesOnce() throws Exception {
+        final List<Integer> requested = new ArrayList<>();
+        final List<SettableFuture<JCloudsSlave>> registrations = new ArrayList<>();
+        final JCloudsCloud cloud = new JCloudsCloud("hint-cloud", "stub", null, null, null, 1, 30, 600 * 1000,
+                600 * 1000, null, null, false, 60, 2, 4, 10, false, null, Collections.<JCloudsSlaveTemplate>emptyList()) {
+            @Override
+            public Collection<PlannedNode> provision(final Label label, final int excessWorkload) {
+                requested.add(Integer.valueOf(excessWorkload));
+                final List<PlannedNode> ret = new ArrayList<>();
+                for (int i = 0; i < excessWorkload; i++) {
+                    final SettableFuture<JCloudsSlave> registered = SettableFuture.create();
+                    registrations.add(registered);
+                    ret.add(new JCloudsCloud.RegisteringPlannedNode("hinted", SettableFuture.<Node>create(), 1, registered));
+                }
+                return ret;
+            }
+        };
+        final Label label = j.jenkins.getLabel("hinted");
+        assertEquals(1, cloud.provisionHint(label, 1, 60));
+
+        // Registered, but still launching: Counted as available, no longer as in flight.
+        final JCloudsSlave slave = createSlave("launching", "hinted");
+        j.jenkins.addNode(slave);
+        registrations.get(0).set(slave);
+        assertEquals(0, JCloudsCloud.getHintsInFlight("hint-cloud", label).get());
+
+        assertEquals(2, cloud.provisionHint(label, 3, 60));
+        assertEquals(Arrays.asList(Integer.valueOf(1), Integer.valueOf(2)), requested);
+        // Nothing is missing while the slaves of the second hint are in the pipeline.
+        assertEquals(0, cloud.provisionHint(label, 3, 60));
+        assertEquals(2, requested.size());
+    }
+
+    @Test
+    public void testHintExpiry() throws Exception {
+        final JCloudsSlave s = createSlave("hinted");
+        assertFalse(s.isHintExpired(Long.MAX_VALUE));
+        s.setHintExpiry(1000L);
+        assertFalse(s.isHintExpired(1000L));
+        assertTrue(s.isHintExpired(1001L));
+        s.clearHint();
+        assertFalse(s.isHintExpired(1001L));
+    }
+
+    @Test
+    public void testUnusedHintedSlaveIsReleased() throws Exception {
+        final JCloudsSlave expired = createSlave("expired");
+        final JCloudsSlave pending = createSlave("pending");
+        j.jenkins.addNode(expired);
+        j.jenkins.addNode(pending);
+        expired.setHintExpiry(System.currentTimeMillis() - 1000L);
+        pending.setHintExpiry(System.currentTimeMillis() + 3600000L);
+        final JCloudsRetentionStrategy rs = new JCloudsRetentionStrategy();
+        rs.check((JCloudsComputer) pending.toComputer());
+        assertFalse(pending.isPendingDelete());
+        rs.check((JCloudsComputer) expired.toComputer());
+        assertTrue(expired.isPendingDelete());
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+
+import jenkins.plugins.jclouds.compute.internal.CapacityLedger;
+import jenkins.plugins.jclouds.compute.internal.CircuitBreaker;
+import jenkins.plugins.jclouds.compute.internal.ProvisioningTimings;
+
+import shaded.com.google.common.util.concurrent.ListenableFuture;
+import shaded.com.google.common.util.concurrent.ListeningExecutorService;
+
+public class ProvisioningPipelineTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ListeningExecutorService stage;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (null != stage) {
+            stage.shutdownNow();
+        }
+    }
+
+    private Callable<Thread> task() {
+        return new Callable<Thread>() {
+            public Thread call() throws InterruptedException {
+                release.await(5, TimeUnit.SECONDS);
+                return Thread.currentThread();
+            }
+        };
+    }
+
+    private static Callable<Thread> currentThread() {
+        return new Callable<Thread>() {
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        };
+    }
+
+    @Test
+    public void testFullStageRejects() {
+        stage = ProvisioningPipeline.newStage("test", "resolve", 1, 1, new ThreadPoolExecutor.AbortPolicy());
+        stage.submit(task());
+        stage.submit(task());
+        try {
+            stage.submit(task());
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFullStageRunsInCaller() throws Exception {
+        stage = ProvisioningPipeline.newStage("test", "bootstrap", 1, 1, ProvisioningPipeline.CALLER_RUNS);
+        stage.submit(task());
+        stage.submit(task());
+        assertSame(Thread.currentThread(), stage.submit(currentThread()).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdownStageRunsInCaller() throws Exception {
+        stage = ProvisioningPipeline.newStage("test", "register", 1, 1, ProvisioningPipeline.CALLER_RUNS);
+        stage.shutdown();
+        assertSame(Thread.currentThread(), stage.submit(currentThread()).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdownPipelineRejectsNewNodes() throws Exception {
+        final CapacityLedger ledger = new CapacityLedger(new CapacityLedger.Usage() {
+            public int getRunning() {
+                return 0;
+            }
+
+            public int getRunning(final String template) {
+                return 0;
+            }
+        });
+        final CapacityLedger.Reservation reservation = ledger.tryReserve("template", 1, 10, Integer.MAX_VALUE);
+        assertEquals(1, ledger.getReserved());
+        final ProvisioningPipeline pipeline = new ProvisioningPipeline("test", 1, 1, 1);
+        pipeline.shutdown();
+        // Nothing gets resolved, so the size is not used.
+        final ListenableFuture<NodeMetadata> f =
+            pipeline.provisionNode(newTemplate(), null, new ProvisioningTimings(), reservation);
+        try {
+            f.get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(0, ledger.getReserved());
+    }
+
+    private static JCloudsSlaveTemplate newTemplate() {
+        final JCloudsSlaveTemplate ret = JCloudsSlaveTemplateTest.newTemplate("probe");
+        new JCloudsCloud("probe-cloud", "stub", null, null, null, 1, 30, 600 * 1000, 600 * 1000, null, null,
+                false, 60, 2, 4, 10, false, null, Collections.singletonList(ret));
+        return ret;
+    }
+
+    private static void open(final CircuitBreaker b) {
+        for (int i = 0; i < JCloudsCloud.BREAKER_THRESHOLD; i++) {
+            b.recordFailure(0L, "quota exceeded");
+        }
+    }
+
+    @Test
+    public void testRejectedProbeIsReturned() throws Exception {
+        final JCloudsSlaveTemplate t = newTemplate();
+        final CircuitBreaker cloudBreaker = t.getCloud().getCircuitBreaker();
+        open(cloudBreaker);
+        open(t.getCircuitBreaker());
+        final long now = JCloudsCloud.BREAKER_COOLDOWN_MS;
+        assertTrue(cloudBreaker.allowRequest(now));
+        assertTrue(t.getCircuitBreaker().allowRequest(now));
+        assertFalse(cloudBreaker.isAvailable(now));
+
+        final ProvisioningPipeline pipeline = new ProvisioningPipeline("test", 1, 1, 1);
+        pipeline.shutdown();
+        try {
+            pipeline.provisionNode(t, null, new ProvisioningTimings(), null).get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        // The probe never reached the provider, so the next request may probe again.
+        assertEquals(CircuitBreaker.State.OPEN, cloudBreaker.getState());
+        assertEquals(CircuitBreaker.State.OPEN, t.getCircuitBreaker().getState());
+        assertTrue(cloudBreaker.isAvailable(now));
+        assertTrue(t.getCircuitBreaker().isAvailable(now));
+    }
+
+    @Test
+    public void testFailedRegistrationDestroysNode() throws Exception {
+        final ComputeService stub = ContextBuilder.newBuilder("stub").buildView(ComputeServiceContext.class)
+            .getComputeService();
+        final List<String> destroyed = new ArrayList<>();
+        final ComputeService compute = (ComputeService) Proxy.newProxyInstance(ComputeService.class.getClassLoader(),
+                new Class<?>[] { ComputeService.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        if ("destroyNode".equals(method.getName())) {
+                            destroyed.add((String) args[0]);
+                            return null;
+                        }
+                        try {
+                            return method.invoke(stub, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        final JCloudsSlaveTemplate t = JCloudsSlaveTemplateTest.newTemplate("register");
+        new JCloudsCloud("register-cloud", "stub", null, null, null, 1, 30, 600 * 1000, 600 * 1000, null, null,
+                false, 60, 2, 4, 10, false, null, Collections.singletonList(t)) {
+            @Override
+            public ComputeService getCompute() {
+                return compute;
+            }
+        };
+        // Without credentials, no slave can be created for the node.
+        final NodeMetadata nm = new NodeMetadataBuilder().id("unregistered").name("register-1").group("register")
+            .status(NodeMetadata.Status.RUNNING).build();
+        t.getCloud().getInventory().add(nm);
+        try {
+            ProvisioningPipeline.register(t, nm, t.getDefaultSize(), new ProvisioningTimings());
+            fail("Expected RuntimeException");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(Collections.singletonList("unregistered"), destroyed);
+        assertFalse(t.getCloud().getInventory().isRunning("unregistered"));
+        assertEquals(0, j.jenkins.getNodes().size());
+    }
+}
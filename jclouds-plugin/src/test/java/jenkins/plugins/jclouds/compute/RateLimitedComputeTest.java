@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.UndeclaredThrowableException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.compute.ComputeServiceContext;
+
+import jenkins.plugins.jclouds.compute.internal.ApiRateLimiter;
+
+import shaded.com.google.common.base.Supplier;
+
+public class RateLimitedComputeTest {
+
+    private ComputeServiceContext ctx;
+
+    @Before
+    public void setUp() {
+        // One call per second, and the clock never advances, so the second call has to wait.
+        final ApiRateLimiter limiter = new ApiRateLimiter(1.0, 1.0, 1.0) {
+            @Override
+            protected long nanoTime() {
+                return 0L;
+            }
+        };
+        ctx = RateLimitedCompute.wrap(ContextBuilder.newBuilder("stub").buildView(ComputeServiceContext.class), limiter);
+    }
+
+    @After
+    public void tearDown() {
+        Thread.interrupted();
+        ctx.close();
+    }
+
+    @Test
+    public void testContextOfComputeServiceIsWrapped() {
+        assertSame(ctx, ctx.getComputeService().getContext());
+        assertSame(ctx.getComputeService(), ctx.getComputeService().getContext().getComputeService());
+    }
+
+    @Test
+    public void testInterruptedWaitIsUnchecked() {
+        ctx.getComputeService().listNodes();
+        Thread.currentThread().interrupt();
+        try {
+            ctx.getComputeService().listNodes();
+            fail("Expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertFalse(e instanceof UndeclaredThrowableException);
+            assertTrue(e.getCause() instanceof InterruptedException);
+            assertTrue(Thread.currentThread().isInterrupted());
+        }
+    }
+
+    @Test
+    public void testProviderSpecificCallsAreLimited() {
+        final ApiRateLimiter limiter = new ApiRateLimiter(4.0, 1.0, 10.0);
+        assertEquals("ok", RateLimitedCompute.limited(limiter, new Supplier<String>() {
+            public String get() {
+                return "ok";
+            }
+        }));
+        assertEquals(4.1, limiter.getRate(), 0.001);
+        try {
+            RateLimitedCompute.limited(limiter, new Supplier<String>() {
+                public String get() {
+                    throw new IllegalStateException("RequestLimitExceeded");
+                }
+            });
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(2.05, limiter.getRate(), 0.001);
+        }
+    }
+}
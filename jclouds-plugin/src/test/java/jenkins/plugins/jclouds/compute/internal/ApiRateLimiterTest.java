@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.junit.Test;
+
+public class ApiRateLimiterTest {
+
+    private static class TestLimiter extends ApiRateLimiter {
+        private long now;
+
+        TestLimiter(final double initialRate, final double minRate, final double maxRate) {
+            super(initialRate, minRate, maxRate);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return now;
+        }
+
+        void advanceMillis(final long ms) {
+            now += TimeUnit.MILLISECONDS.toNanos(ms);
+        }
+    }
+
+    @Test
+    public void testBurstThenWait() {
+        final TestLimiter l = new TestLimiter(2, 1, 10);
+        assertEquals(0, l.reserve());
+        assertEquals(0, l.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), l.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), l.reserve());
+        l.advanceMillis(2000);
+        assertEquals(0, l.reserve());
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        final TestLimiter l = new TestLimiter(2, 1, 3);
+        for (int i = 0; i < 5; i++) {
+            l.onSuccess();
+        }
+        assertEquals(2.5, l.getRate(), 0.0001);
+        for (int i = 0; i < 20; i++) {
+            l.onSuccess();
+        }
+        assertEquals(3.0, l.getRate(), 0.0001);
+    }
+
+    @Test
+    public void testMultiplicativeDecreaseOncePerSecond() {
+        final TestLimiter l = new TestLimiter(8, 1, 10);
+        l.onThrottled();
+        l.onThrottled();
+        assertEquals(4.0, l.getRate(), 0.0001);
+        l.advanceMillis(1000);
+        l.onThrottled();
+        assertEquals(2.0, l.getRate(), 0.0001);
+        l.advanceMillis(1000);
+        l.onThrottled();
+        l.advanceMillis(1000);
+        l.onThrottled();
+        assertEquals(1.0, l.getRate(), 0.0001);
+    }
+
+    @Test
+    public void testThrottlingDrainsBucket() {
+        final TestLimiter l = new TestLimiter(4, 1, 10);
+        l.onThrottled();
+        assertTrue(l.reserve() > 0);
+    }
+
+    @Test
+    public void testIsRateLimitError() {
+        final HttpResponse tooMany = HttpResponse.builder().statusCode(429).build();
+        final HttpResponse notFound = HttpResponse.builder().statusCode(404).build();
+        assertTrue(ApiRateLimiter.isRateLimitError(new HttpResponseException("x", null, tooMany)));
+        assertFalse(ApiRateLimiter.isRateLimitError(new HttpResponseException("x", null, notFound)));
+        assertTrue(ApiRateLimiter.isRateLimitError(new RuntimeException(
+                new IllegalStateException("error [RequestLimitExceeded] Request limit exceeded."))));
+        assertFalse(ApiRateLimiter.isRateLimitError(new RuntimeException("Connection refused")));
+        assertFalse(ApiRateLimiter.isRateLimitError(null));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import jenkins.plugins.jclouds.compute.internal.BinPackingPlanner.Size;
+
+public class BinPackingPlannerTest {
+
+    private static final Size SMALL = new Size("small", 2);
+    private static final Size MEDIUM = new Size("medium", 8);
+    private static final Size LARGE = new Size("large", 16);
+    private static final List<Size> SIZES = Arrays.asList(SMALL, LARGE, MEDIUM);
+
+    private static int executors(final List<Size> plan) {
+        int ret = 0;
+        for (Size s : plan) {
+            ret += s.getExecutors();
+        }
+        return ret;
+    }
+
+    @Test
+    public void testLargeWorkloadUsesLargeNodes() {
+        assertEquals(Arrays.asList(LARGE, LARGE, LARGE, LARGE), BinPackingPlanner.plan(SIZES, 64, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testRemainderUsesSmallNodes() {
+        assertEquals(Arrays.asList(LARGE, MEDIUM, SMALL, SMALL), BinPackingPlanner.plan(SIZES, 28, Integer.MAX_VALUE));
+        assertEquals(Arrays.asList(SMALL), BinPackingPlanner.plan(SIZES, 1, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testSingleSizeBehavesLikeBefore() {
+        final List<Size> plan = BinPackingPlanner.plan(Arrays.asList(SMALL), 7, Integer.MAX_VALUE);
+        assertEquals(4, plan.size());
+    }
+
+    @Test
+    public void testFewSlotsChooseLargerNodes() {
+        // Greedy would be LARGE + SMALL + SMALL + SMALL, but only two nodes are allowed.
+        final List<Size> plan = BinPackingPlanner.plan(SIZES, 21, 2);
+        assertEquals(Arrays.asList(LARGE, MEDIUM), plan);
+        assertTrue(executors(plan) >= 21);
+    }
+
+    @Test
+    public void testSlotsExhausted() {
+        final List<Size> plan = BinPackingPlanner.plan(SIZES, 100, 3);
+        assertEquals(Arrays.asList(LARGE, LARGE, LARGE), plan);
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(Arrays.asList(new Size("m5.2xlarge", 8), new Size("m5.4xlarge", 16)),
+                BinPackingPlanner.parse(" m5.2xlarge=8,\n m5.4xlarge=16 "));
+        assertTrue(BinPackingPlanner.parse("").isEmpty());
+        assertTrue(BinPackingPlanner.parse(null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsMissingExecutors() {
+        BinPackingPlanner.parse("m5.2xlarge");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsZeroExecutors() {
+        BinPackingPlanner.parse("m5.2xlarge=0");
+    }
+}
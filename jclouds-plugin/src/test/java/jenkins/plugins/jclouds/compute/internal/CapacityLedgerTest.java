@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CapacityLedgerTest {
+
+    private static class TestUsage implements CapacityLedger.Usage {
+        private final Map<String, Integer> running = new HashMap<>();
+
+        public synchronized int getRunning() {
+            int ret = 0;
+            for (Integer i : running.values()) {
+                ret += i.intValue();
+            }
+            return ret;
+        }
+
+        public synchronized int getRunning(final String template) {
+            final Integer ret = running.get(template);
+            return null == ret ? 0 : ret.intValue();
+        }
+
+        synchronized void set(final String template, final int count) {
+            running.put(template, Integer.valueOf(count));
+        }
+    }
+
+    @Test
+    public void testCloudCap() {
+        final TestUsage usage = new TestUsage();
+        usage.set("a", 2);
+        final CapacityLedger l = new CapacityLedger(usage);
+        assertNotNull(l.tryReserve("a", 2, 5, Integer.MAX_VALUE));
+        assertNull(l.tryReserve("b", 2, 5, Integer.MAX_VALUE));
+        assertNotNull(l.tryReserve("b", 1, 5, Integer.MAX_VALUE));
+        assertEquals(3, l.getReserved());
+        assertEquals(2, l.getReserved("a"));
+        assertEquals(1, l.getReserved("b"));
+    }
+
+    @Test
+    public void testTemplateCap() {
+        final TestUsage usage = new TestUsage();
+        usage.set("a", 1);
+        final CapacityLedger l = new CapacityLedger(usage);
+        assertNotNull(l.tryReserve("a", 1, 10, 2));
+        assertNull(l.tryReserve("a", 1, 10, 2));
+        assertNotNull(l.tryReserve("b", 1, 10, 2));
+    }
+
+    @Test
+    public void testRelease() {
+        final TestUsage usage = new TestUsage();
+        final CapacityLedger l = new CapacityLedger(usage);
+        final CapacityLedger.Reservation r = l.tryReserve("a", 3, 3, Integer.MAX_VALUE);
+        assertNotNull(r);
+        assertNull(l.tryReserve("a", 1, 3, Integer.MAX_VALUE));
+        // One node has been created and is now counted as running.
+        usage.set("a", 1);
+        r.releaseOne();
+        assertEquals(2, l.getReserved("a"));
+        assertNull(l.tryReserve("a", 1, 3, Integer.MAX_VALUE));
+        r.release();
+        r.release();
+        r.releaseOne();
+        assertEquals(0, l.getReserved());
+        assertEquals(0, l.getReserved("a"));
+        assertNotNull(l.tryReserve("a", 2, 3, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testConcurrentReservationsDoNotOvershoot() throws InterruptedException {
+        final CapacityLedger l = new CapacityLedger(new TestUsage());
+        final AtomicInteger granted = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 100; i++) {
+            pool.submit(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException x) {
+                        return;
+                    }
+                    if (null != l.tryReserve("a", 1, 10, Integer.MAX_VALUE)) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        assertEquals(10, granted.get());
+        assertEquals(10, l.getReserved());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        final CircuitBreaker b = new CircuitBreaker(3, 60000L);
+        assertFalse(b.recordFailure(0, "x"));
+        assertFalse(b.recordFailure(0, "x"));
+        b.recordSuccess();
+        assertFalse(b.recordFailure(0, "x"));
+        assertFalse(b.recordFailure(0, "x"));
+        assertTrue(b.allowRequest(0));
+        assertTrue(b.recordFailure(1000L, "quota exceeded"));
+        assertEquals(CircuitBreaker.State.OPEN, b.getState());
+        assertEquals(3, b.getConsecutiveFailures());
+        assertEquals("quota exceeded", b.getLastFailure());
+        assertFalse(b.isAvailable(30000L));
+        assertFalse(b.allowRequest(30000L));
+        assertEquals(61000L, b.getRetryAt());
+    }
+
+    @Test
+    public void testSingleProbeAfterCooldown() {
+        final CircuitBreaker b = new CircuitBreaker(1, 60000L);
+        b.recordFailure(0, null);
+        assertTrue(b.isAvailable(60000L));
+        assertTrue(b.allowRequest(60000L));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, b.getState());
+        assertFalse(b.isAvailable(60000L));
+        assertFalse(b.allowRequest(60001L));
+        b.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, b.getState());
+        assertTrue(b.allowRequest(60002L));
+    }
+
+    @Test
+    public void testCancelledProbe() {
+        final CircuitBreaker b = new CircuitBreaker(1, 60000L);
+        b.recordFailure(0, null);
+        assertTrue(b.allowRequest(60000L));
+        b.cancelProbe();
+        assertEquals(CircuitBreaker.State.OPEN, b.getState());
+        assertTrue(b.allowRequest(60001L));
+    }
+
+    @Test
+    public void testFailedProbeReopens() {
+        final CircuitBreaker b = new CircuitBreaker(5, 60000L);
+        for (int i = 0; i < 5; i++) {
+            b.recordFailure(0, null);
+        }
+        assertTrue(b.allowRequest(60000L));
+        assertTrue(b.recordFailure(70000L, null));
+        assertEquals(CircuitBreaker.State.OPEN, b.getState());
+        assertFalse(b.allowRequest(120000L));
+        assertTrue(b.allowRequest(130000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreshold() {
+        new CircuitBreaker(0, 1000L);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CloudGroupRouterTest {
+
+    private static final List<String> MEMBERS = Arrays.asList("eu", "us", "asia");
+
+    @Test
+    public void testUnknownMembersFirstInGivenOrder() {
+        final CloudGroupRouter r = new CloudGroupRouter(0.5, 3, 60000L);
+        r.recordSuccess("eu", 60000L);
+        assertEquals(Arrays.asList("us", "asia", "eu"), r.rank(MEMBERS, 0));
+    }
+
+    @Test
+    public void testFastestMemberFirst() {
+        final CloudGroupRouter r = new CloudGroupRouter(0.5, 3, 60000L);
+        r.recordSuccess("eu", 120000L);
+        r.recordSuccess("us", 60000L);
+        r.recordSuccess("asia", 90000L);
+        assertEquals(Arrays.asList("us", "asia", "eu"), r.rank(MEMBERS, 0));
+        // us degrades
+        r.recordSuccess("us", 300000L);
+        r.recordSuccess("us", 300000L);
+        assertEquals(Arrays.asList("asia", "eu", "us"), r.rank(MEMBERS, 0));
+    }
+
+    @Test
+    public void testErrorsIncreaseScore() {
+        final CloudGroupRouter r = new CloudGroupRouter(0.5, 3, 60000L);
+        r.recordSuccess("eu", 60000L);
+        r.recordSuccess("us", 60000L);
+        r.recordFailure("us", 0);
+        assertEquals(0.5, r.getErrorRate("us"), 0.001);
+        assertEquals(120000, r.getScore("us"), 0.001);
+        assertEquals(Arrays.asList("asia", "eu", "us"), r.rank(MEMBERS, 0));
+    }
+
+    @Test
+    public void testFailingMemberIsSkippedUntilCooldown() {
+        final CloudGroupRouter r = new CloudGroupRouter(0.5, 2, 60000L);
+        r.recordFailure("eu", 1000L);
+        assertTrue(r.isAvailable("eu", 1000L));
+        r.recordFailure("eu", 2000L);
+        assertFalse(r.isAvailable("eu", 2000L));
+        assertEquals(Arrays.asList("us", "asia"), r.rank(MEMBERS, 30000L));
+        assertTrue(r.isAvailable("eu", 62000L));
+        // Still failing after the cooldown: skipped again right away.
+        r.recordFailure("eu", 62000L);
+        assertFalse(r.isAvailable("eu", 62000L));
+        r.recordSuccess("eu", 1000L);
+        assertTrue(r.isAvailable("eu", 62000L));
+    }
+
+    @Test
+    public void testAllMembersCoolingDownFallsBackToFirstAvailableAgain() {
+        final CloudGroupRouter r = new CloudGroupRouter(0.5, 1, 60000L);
+        r.recordFailure("eu", 1000L);
+        r.recordFailure("us", 500L);
+        r.recordFailure("asia", 2000L);
+        assertEquals(Arrays.asList("us"), r.rank(MEMBERS, 3000L));
+        assertTrue(r.rank(Collections.<String>emptyList(), 3000L).isEmpty());
+    }
+
+    @Test
+    public void testNeverSucceededRanksLast() {
+        final CloudGroupRouter r = new CloudGroupRouter(0.5, 10, 60000L);
+        r.recordFailure("eu", 0);
+        r.recordSuccess("us", 600000L);
+        assertEquals(Arrays.asList("asia", "us", "eu"), r.rank(MEMBERS, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAlpha() {
+        new CloudGroupRouter(1.5, 3, 0);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class DemandForecastTest {
+
+    private static final long HOUR = 3600000L;
+    private static final long WEEK = 7 * 24 * HOUR;
+    /* Monday, 2024-01-01 00:00 UTC */
+    private static final long MONDAY = 1704067200000L;
+
+    private static DemandForecast newForecast(final double alpha) {
+        return new DemandForecast(alpha, TimeZone.getTimeZone("UTC"));
+    }
+
+    @Test
+    public void testBuckets() {
+        final DemandForecast f = newForecast(0.5);
+        assertEquals(0, f.bucketOf(MONDAY));
+        assertEquals(9, f.bucketOf(MONDAY + 9 * HOUR + 59 * 60000L));
+        assertEquals(6 * 24 + 23, f.bucketOf(MONDAY + WEEK - 1));
+        assertEquals(0, f.bucketOf(MONDAY + WEEK));
+    }
+
+    @Test
+    public void testNoHistory() {
+        final DemandForecast f = newForecast(0.5);
+        assertEquals(0, f.forecast("linux", MONDAY), 0);
+        f.observe("linux", 10, MONDAY + 9 * HOUR);
+        // The hour has not been completed yet.
+        assertEquals(0, f.forecast("linux", MONDAY + WEEK + 9 * HOUR), 0);
+    }
+
+    @Test
+    public void testPeakOfCompletedHourBecomesForecast() {
+        final DemandForecast f = newForecast(0.5);
+        f.observe("linux", 4, MONDAY + 9 * HOUR);
+        f.observe("linux", 12, MONDAY + 9 * HOUR + 30 * 60000L);
+        f.observe("linux", 2, MONDAY + 9 * HOUR + 50 * 60000L);
+        assertTrue(f.observe("linux", 0, MONDAY + 10 * HOUR));
+        assertEquals(12, f.forecast("linux", MONDAY + WEEK + 9 * HOUR + 15 * 60000L), 0);
+        assertEquals(0, f.forecast("linux", MONDAY + WEEK + 8 * HOUR), 0);
+        assertEquals(0, f.forecast("windows", MONDAY + WEEK + 9 * HOUR), 0);
+    }
+
+    @Test
+    public void testSmoothingAndAccuracy() {
+        final DemandForecast f = newForecast(0.5);
+        f.observe("linux", 10, MONDAY + 9 * HOUR);
+        f.observe("linux", 0, MONDAY + 10 * HOUR);
+        assertEquals(0, f.getAccuracy("linux").getEvaluatedHours());
+        f.observe("linux", 20, MONDAY + WEEK + 9 * HOUR);
+        assertFalse(f.observe("linux", 20, MONDAY + WEEK + 9 * HOUR + 1));
+        f.observe("linux", 0, MONDAY + WEEK + 10 * HOUR);
+        assertEquals(15, f.forecast("linux", MONDAY + 2 * WEEK + 9 * HOUR), 0.001);
+        final DemandForecast.Accuracy a = f.getAccuracy("linux");
+        assertEquals(1, a.getEvaluatedHours());
+        assertEquals(10, a.getMeanAbsoluteError(), 0.001);
+        assertEquals(20, a.getMeanActual(), 0.001);
+    }
+
+    @Test
+    public void testCoveredDemand() {
+        final DemandForecast f = newForecast(0.5);
+        f.observe("linux", 0, MONDAY + 8 * HOUR + 45 * 60000L);
+        // Provisioned at 8:45 for the demand expected at 9:00.
+        f.preProvisioned("linux", 8, MONDAY + 9 * HOUR);
+        f.observe("linux", 5, MONDAY + 9 * HOUR);
+        f.observe("linux", 0, MONDAY + 10 * HOUR);
+        assertEquals(5, f.getAccuracy("linux").getCoveredDemand(), 0.001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAlpha() {
+        newForecast(0);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.jclouds.compute.domain.HardwareBuilder;
+import org.jclouds.compute.domain.Processor;
+
+public class ExecutorSizingTest {
+
+    @Test
+    public void testCoresOnly() {
+        assertEquals(8, ExecutorSizing.executors(8, 32768, 1, 0));
+        assertEquals(4, ExecutorSizing.executors(8, 32768, 2, 0));
+        assertEquals(5, ExecutorSizing.executors(8, 32768, 1.5, 0));
+    }
+
+    @Test
+    public void testRamLimits() {
+        assertEquals(4, ExecutorSizing.executors(16, 16384, 1, 4096));
+        assertEquals(16, ExecutorSizing.executors(16, 131072, 1, 4096));
+    }
+
+    @Test
+    public void testUnknownRamIsIgnored() {
+        assertEquals(8, ExecutorSizing.executors(8, 0, 1, 4096));
+    }
+
+    @Test
+    public void testAtLeastOneExecutor() {
+        assertEquals(1, ExecutorSizing.executors(1, 1024, 2, 4096));
+        assertEquals(1, ExecutorSizing.executors(0, 512, 1, 0));
+    }
+
+    @Test
+    public void testInvalidCoresPerExecutorMeansOne() {
+        assertEquals(4, ExecutorSizing.executors(4, 8192, 0, 0));
+    }
+
+    @Test
+    public void testHardware() {
+        // Two processors with 2 cores each
+        assertEquals(4, ExecutorSizing.executors(new HardwareBuilder().id("m5.xlarge")
+                    .processor(new Processor(2, 2.5)).processor(new Processor(2, 2.5)).ram(16384).build(), 1, 0));
+        assertEquals(2, ExecutorSizing.executors(new HardwareBuilder().id("m5.xlarge")
+                    .processor(new Processor(4, 2.5)).ram(16384).build(), 1, 8192));
+    }
+}
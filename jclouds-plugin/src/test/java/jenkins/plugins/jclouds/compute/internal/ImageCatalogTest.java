@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.ImageBuilder;
+import org.jclouds.compute.domain.OperatingSystem;
+
+import shaded.com.google.common.base.Supplier;
+import shaded.com.google.common.util.concurrent.MoreExecutors;
+
+public class ImageCatalogTest {
+
+    private final List<Image> images = new ArrayList<>();
+    private final AtomicInteger listCalls = new AtomicInteger();
+
+    private static Image image(final String id, final String name, final String version, final Image.Status status) {
+        return new ImageBuilder().id(id).providerId(id).name(name).version(version)
+            .operatingSystem(OperatingSystem.builder().description("test").build()).status(status).build();
+    }
+
+    private static Image image(final String id, final String name) {
+        return image(id, name, null, Image.Status.AVAILABLE);
+    }
+
+    private ImageCatalog newCatalog(final long ttl) {
+        return new ImageCatalog(new Supplier<List<Image>>() {
+            public List<Image> get() {
+                listCalls.incrementAndGet();
+                return new ArrayList<>(images);
+            }
+        }, ttl, MoreExecutors.sameThreadExecutor());
+    }
+
+    @Test
+    public void testPicksNewestMatch() {
+        images.add(image("a", "ubuntu-16.04-build-9"));
+        images.add(image("b", "ubuntu-16.04-build-10"));
+        images.add(image("c", "debian-8-build-11"));
+        images.add(image("d", "ubuntu-16.04-build-8"));
+        assertEquals("b", newCatalog(60000L).newest(Pattern.compile("ubuntu-16\\.04-.*")).getId());
+    }
+
+    @Test
+    public void testOrderIsIndependentOfListOrder() {
+        images.add(image("x", "jenkins-2017"));
+        images.add(image("y", "jenkins-2017"));
+        final String first = newCatalog(60000L).newest(Pattern.compile("jenkins-.*")).getId();
+        Collections.reverse(images);
+        assertEquals(first, newCatalog(60000L).newest(Pattern.compile("jenkins-.*")).getId());
+    }
+
+    @Test
+    public void testVersionTakesPrecedence() {
+        images.add(image("a", "zzz", "1.2", Image.Status.AVAILABLE));
+        images.add(image("b", "aaa", "1.10", Image.Status.AVAILABLE));
+        assertEquals("b", newCatalog(60000L).newest(Pattern.compile(".*")).getId());
+    }
+
+    @Test
+    public void testSkipsUnusableImages() {
+        images.add(image("a", "img-1"));
+        images.add(image("b", "img-2", null, Image.Status.PENDING));
+        images.add(image("c", "img-3", null, Image.Status.DELETED));
+        assertEquals("a", newCatalog(60000L).newest(Pattern.compile("img-.*")).getId());
+    }
+
+    @Test
+    public void testNoMatch() {
+        images.add(image("a", "img-1"));
+        assertNull(newCatalog(60000L).newest(Pattern.compile("other")));
+    }
+
+    @Test
+    public void testListsOnlyOncePerTtl() {
+        images.add(image("a", "img-1"));
+        final ImageCatalog c = newCatalog(60000L);
+        for (int i = 0; i < 20; i++) {
+            c.newest(Pattern.compile("img-.*"));
+        }
+        assertEquals(1, listCalls.get());
+    }
+
+    @Test
+    public void testRefreshSeesNewImages() {
+        images.add(image("a", "img-1"));
+        final ImageCatalog c = newCatalog(60000L);
+        assertEquals("a", c.newest(Pattern.compile("img-.*")).getId());
+        images.add(image("b", "img-2"));
+        assertEquals("a", c.newest(Pattern.compile("img-.*")).getId());
+        c.refresh();
+        assertEquals("b", c.newest(Pattern.compile("img-.*")).getId());
+    }
+
+    @Test
+    public void testCompareNatural() {
+        assertTrue(ImageCatalog.compareNatural("build-10", "build-9") > 0);
+        assertTrue(ImageCatalog.compareNatural("build-007", "build-7") == 0);
+        assertTrue(ImageCatalog.compareNatural("a", "b") < 0);
+        assertTrue(ImageCatalog.compareNatural(null, "a") < 0);
+        assertTrue(ImageCatalog.compareNatural("2017-01-02", "2017-01-10") < 0);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class JvmOptionsTest {
+
+    @Test
+    public void testExplicitOnly() {
+        assertEquals("", new JvmOptions().explicit(null).build());
+        assertEquals("-Dfoo=bar", new JvmOptions().explicit(" -Dfoo=bar ").build());
+        assertEquals("-Dfoo=bar", new JvmOptions().heap(0, 50).explicit("-Dfoo=bar").build());
+    }
+
+    @Test
+    public void testHeapFromRam() {
+        assertEquals("-Xms8192m -Xmx8192m -XX:+UseG1GC", new JvmOptions().heap(16384, 50).build());
+        assertEquals("-Xms512m -Xmx512m", new JvmOptions().heap(1024, 50).build());
+        assertEquals("-Xms64m -Xmx64m", new JvmOptions().heap(100, 10).build());
+    }
+
+    @Test
+    public void testExplicitOptionsTakePrecedence() {
+        assertEquals("-XX:+UseG1GC -Xmx4g -Dfoo=bar",
+                new JvmOptions().heap(16384, 50).explicit("-Xmx4g -Dfoo=bar").build());
+        assertEquals("-Xmx8192m -XX:InitialHeapSize=1g -XX:+UseParallelGC",
+                new JvmOptions().heap(16384, 50).explicit("-XX:InitialHeapSize=1g -XX:+UseParallelGC").build());
+        assertEquals("-XX:+UseG1GC -XX:MaxRAMPercentage=75",
+                new JvmOptions().heap(16384, 50).explicit("-XX:MaxRAMPercentage=75").build());
+    }
+}
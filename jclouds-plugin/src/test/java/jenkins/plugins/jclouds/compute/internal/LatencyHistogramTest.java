@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentile(0.5));
+    }
+
+    @Test
+    public void testSingleValue() {
+        final LatencyHistogram h = new LatencyHistogram();
+        h.record(1234);
+        assertEquals(1, h.getCount());
+        assertEquals(1234, h.getPercentile(0.5));
+        assertEquals(1234, h.getPercentile(0.99));
+    }
+
+    @Test
+    public void testPercentilesAreWithinBucketError() {
+        final LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 100L);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(100000, h.getMax());
+        assertWithin(50000, h.getPercentile(0.5));
+        assertWithin(95000, h.getPercentile(0.95));
+        assertWithin(99000, h.getPercentile(0.99));
+    }
+
+    @Test
+    public void testHugeAndNegativeValues() {
+        final LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE / 2);
+        assertTrue(h.getPercentile(0.5) <= 10);
+        assertEquals(Long.MAX_VALUE / 2, h.getPercentile(1.0));
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue("expected ~" + expected + " but got " + actual, actual >= expected && actual <= expected * 1.2);
+    }
+}
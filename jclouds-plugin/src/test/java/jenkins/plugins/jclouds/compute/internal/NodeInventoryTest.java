@@ -0,0 +1,189 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import org.jclouds.compute.domain.ComputeMetadata;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+
+import shaded.com.google.common.base.Predicate;
+import shaded.com.google.common.base.Supplier;
+import shaded.com.google.common.util.concurrent.MoreExecutors;
+
+public class NodeInventoryTest {
+
+    private final List<NodeMetadata> nodes = new ArrayList<>();
+    private final AtomicInteger listCalls = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong(1000L);
+
+    private static NodeMetadata node(final String id, final String group, final NodeMetadata.Status status) {
+        return new NodeMetadataBuilder().id(id).providerId(id).name(group + "-" + id).group(group).status(status).build();
+    }
+
+    private NodeInventory newInventory(final long ttl) {
+        return new NodeInventory(new Supplier<List<? extends ComputeMetadata>>() {
+            public List<? extends ComputeMetadata> get() {
+                listCalls.incrementAndGet();
+                return new ArrayList<>(nodes);
+            }
+        }, new Predicate<NodeMetadata>() {
+            public boolean apply(final NodeMetadata nm) {
+                return "ours".equals(nm.getGroup());
+            }
+        }, ttl, MoreExecutors.sameThreadExecutor()) {
+            @Override
+            protected long currentTimeMillis() {
+                return now.get();
+            }
+        };
+    }
+
+    @Test
+    public void testCountsOnlyOwnActiveNodes() {
+        nodes.add(node("1", "ours", NodeMetadata.Status.RUNNING));
+        nodes.add(node("2", "ours", NodeMetadata.Status.PENDING));
+        nodes.add(node("3", "ours", NodeMetadata.Status.SUSPENDED));
+        nodes.add(node("4", "ours", NodeMetadata.Status.TERMINATED));
+        nodes.add(node("5", "theirs", NodeMetadata.Status.RUNNING));
+        assertEquals(2, newInventory(60000L).getRunningCount());
+    }
+
+    @Test
+    public void testIsRunning() {
+        nodes.add(node("1", "ours", NodeMetadata.Status.RUNNING));
+        nodes.add(node("2", "ours", NodeMetadata.Status.SUSPENDED));
+        NodeInventory inv = newInventory(60000L);
+        assertTrue(inv.isRunning("1"));
+        assertFalse(inv.isRunning("2"));
+        assertFalse(inv.isRunning("3"));
+        inv.remove("1");
+        assertFalse(inv.isRunning("1"));
+    }
+
+    @Test
+    public void testListsOnlyOncePerTtl() {
+        nodes.add(node("1", "ours", NodeMetadata.Status.RUNNING));
+        NodeInventory inv = newInventory(60000L);
+        for (int i = 0; i < 40; i++) {
+            assertEquals(1, inv.getRunningCount());
+        }
+        assertEquals(1, listCalls.get());
+    }
+
+    @Test
+    public void testLocalChangesAreVisibleImmediately() {
+        nodes.add(node("1", "ours", NodeMetadata.Status.RUNNING));
+        NodeInventory inv = newInventory(60000L);
+        assertEquals(1, inv.getRunningCount());
+        inv.add(node("2", "ours", NodeMetadata.Status.RUNNING));
+        inv.add(node("3", "theirs", NodeMetadata.Status.RUNNING));
+        assertEquals(2, inv.getRunningCount());
+        inv.remove("1");
+        assertEquals(1, inv.getRunningCount());
+        assertEquals(1, listCalls.get());
+    }
+
+    @Test
+    public void testStaleInventoryIsRefreshed() {
+        NodeInventory inv = newInventory(60000L);
+        assertEquals(0, inv.getRunningCount());
+        nodes.add(node("1", "ours", NodeMetadata.Status.RUNNING));
+        now.addAndGet(60000L);
+        assertEquals(0, inv.getRunningCount());
+        assertEquals(1, listCalls.get());
+        now.addAndGet(1L);
+        // The refresh is performed by the (here: synchronous) executor
+        assertEquals(1, inv.getRunningCount());
+        assertEquals(2, listCalls.get());
+    }
+
+    @Test
+    public void testInvalidateForcesRefresh() {
+        NodeInventory inv = newInventory(60000L);
+        assertEquals(0, inv.getRunningCount());
+        nodes.add(node("1", "ours", NodeMetadata.Status.RUNNING));
+        inv.invalidate();
+        assertEquals(1, inv.getRunningCount());
+        assertEquals(2, listCalls.get());
+    }
+
+    @Test
+    public void testSuspendedNodesCanBeClaimedOnce() {
+        nodes.add(node("1", "ours", NodeMetadata.Status.SUSPENDED));
+        nodes.add(node("2", "theirs", NodeMetadata.Status.SUSPENDED));
+        NodeInventory inv = newInventory(60000L);
+        final Predicate<NodeMetadata> any = new Predicate<NodeMetadata>() {
+            public boolean apply(final NodeMetadata nm) {
+                return true;
+            }
+        };
+        NodeMetadata claimed = inv.claimSuspended(any);
+        assertNotNull(claimed);
+        assertEquals("1", claimed.getId());
+        assertNull(inv.claimSuspended(any));
+        // A refresh does not bring back the claimed node
+        inv.refresh();
+        assertNull(inv.claimSuspended(any));
+        inv.add(node("1", "ours", NodeMetadata.Status.RUNNING));
+        assertEquals(1, inv.getRunningCount());
+    }
+
+    @Test
+    public void testReleasedNodeCanBeClaimedAgain() {
+        nodes.add(node("1", "ours", NodeMetadata.Status.SUSPENDED));
+        NodeInventory inv = newInventory(60000L);
+        final Predicate<NodeMetadata> any = new Predicate<NodeMetadata>() {
+            public boolean apply(final NodeMetadata nm) {
+                return true;
+            }
+        };
+        assertNotNull(inv.claimSuspended(any));
+        // Resuming the node has failed
+        inv.release("1");
+        inv.invalidate();
+        NodeMetadata claimed = inv.claimSuspended(any);
+        assertNotNull(claimed);
+        assertEquals("1", claimed.getId());
+        assertEquals(0, inv.getRunningCount());
+    }
+
+    @Test
+    public void testLocallySuspendedNodeCanBeClaimed() {
+        nodes.add(node("1", "ours", NodeMetadata.Status.RUNNING));
+        NodeInventory inv = newInventory(60000L);
+        assertEquals(1, inv.getRunningCount());
+        inv.add(node("1", "ours", NodeMetadata.Status.SUSPENDED));
+        assertEquals(0, inv.getRunningCount());
+        assertNotNull(inv.claimSuspended(new Predicate<NodeMetadata>() {
+            public boolean apply(final NodeMetadata nm) {
+                return "ours".equals(nm.getGroup());
+            }
+        }));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+
+public class NodeTagsTest {
+
+    @Test
+    public void testTags() {
+        final Map<String, String> tags = NodeTags.of("cloud1", "ubuntu", " jenkins ");
+        assertEquals("ubuntu", tags.get("Name"));
+        assertEquals("cloud1", tags.get(NodeTags.CLOUD));
+        assertEquals("ubuntu", tags.get(NodeTags.TEMPLATE));
+        assertEquals("jenkins", tags.get(NodeTags.GROUP_PREFIX));
+        assertFalse(NodeTags.of("cloud1", "ubuntu", null).containsKey(NodeTags.GROUP_PREFIX));
+    }
+
+    @Test
+    public void testEc2Filter() {
+        assertEquals("[cloud1]", NodeTags.ec2Filter("cloud1").get("tag:" + NodeTags.CLOUD).toString());
+    }
+
+    @Test
+    public void testBelongsTo() {
+        final NodeMetadata tagged = new NodeMetadataBuilder().id("1").status(NodeMetadata.Status.RUNNING)
+            .userMetadata(NodeTags.of("cloud1", "ubuntu", null)).build();
+        final NodeMetadata untagged = new NodeMetadataBuilder().id("2").status(NodeMetadata.Status.RUNNING).build();
+        assertTrue(NodeTags.belongsTo(tagged, "cloud1"));
+        assertFalse(NodeTags.belongsTo(tagged, "cloud2"));
+        assertFalse(NodeTags.belongsTo(untagged, "cloud1"));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jclouds.rest.InsufficientResourcesException;
+import org.junit.Test;
+
+import jenkins.plugins.jclouds.compute.internal.PlacementSelector.Placement;
+import jenkins.plugins.jclouds.compute.internal.PlacementSelector.Strategy;
+
+public class PlacementSelectorTest {
+
+    private static class TestSelector extends PlacementSelector {
+        private long now;
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static final Map<String, Integer> NO_LOAD = Collections.emptyMap();
+
+    @Test
+    public void testRoundRobinRotatesLocations() {
+        final PlacementSelector s = new PlacementSelector();
+        final List<String> locs = Arrays.asList("a", "b", "c");
+        final List<String> hw = Arrays.asList("small", "large");
+        List<Placement> p = s.order(locs, hw, Strategy.ROUND_ROBIN, NO_LOAD);
+        assertEquals(Arrays.asList(new Placement("a", "small"), new Placement("a", "large"),
+                    new Placement("b", "small"), new Placement("b", "large"),
+                    new Placement("c", "small"), new Placement("c", "large")), p);
+        assertEquals("b", s.order(locs, hw, Strategy.ROUND_ROBIN, NO_LOAD).get(0).getLocationId());
+        assertEquals("c", s.order(locs, hw, Strategy.ROUND_ROBIN, NO_LOAD).get(0).getLocationId());
+        assertEquals("a", s.order(locs, hw, Strategy.ROUND_ROBIN, NO_LOAD).get(0).getLocationId());
+    }
+
+    @Test
+    public void testLeastLoaded() {
+        final PlacementSelector s = new PlacementSelector();
+        final Map<String, Integer> load = new HashMap<>();
+        load.put("a", 3);
+        load.put("b", 1);
+        final List<Placement> p = s.order(Arrays.asList("a", "b", "c"), Arrays.<String>asList((String) null),
+                Strategy.LEAST_LOADED, load);
+        assertEquals("c", p.get(0).getLocationId());
+        assertEquals("b", p.get(1).getLocationId());
+        assertEquals("a", p.get(2).getLocationId());
+    }
+
+    @Test
+    public void testCooldown() {
+        final TestSelector s = new TestSelector();
+        final List<String> locs = Arrays.asList("a", "b");
+        final List<String> hw = Arrays.asList("small");
+        s.cooldown(new Placement("a", "small"), 1000);
+        assertEquals(Arrays.asList(new Placement("b", "small")), s.order(locs, hw, Strategy.LEAST_LOADED, NO_LOAD));
+        s.now = 1000;
+        assertEquals(2, s.order(locs, hw, Strategy.LEAST_LOADED, NO_LOAD).size());
+    }
+
+    @Test
+    public void testAllCoolingDownReturnsAll() {
+        final TestSelector s = new TestSelector();
+        s.cooldown(new Placement("a", null), 1000);
+        assertEquals(Arrays.asList(new Placement("a", null)),
+                s.order(Arrays.asList("a"), Arrays.<String>asList((String) null), Strategy.ROUND_ROBIN, NO_LOAD));
+    }
+
+    @Test
+    public void testIsCapacityError() {
+        assertTrue(PlacementSelector.isCapacityError(new InsufficientResourcesException("no")));
+        assertTrue(PlacementSelector.isCapacityError(new IllegalStateException(
+                    "error [InsufficientInstanceCapacity] We currently do not have sufficient capacity")));
+        assertTrue(PlacementSelector.isCapacityError(new RuntimeException(new RuntimeException("Quota exceeded for cores"))));
+        assertTrue(PlacementSelector.isCapacityError(new RuntimeException("Quota 'CPUS' exceeded. Limit: 24.0 in region")));
+        assertFalse(PlacementSelector.isCapacityError(new RuntimeException("Authorization failed")));
+        assertFalse(PlacementSelector.isCapacityError(new RuntimeException("Invalid quota project")));
+    }
+
+    @Test
+    public void testRoundRobinAdvancesPerNode() {
+        final PlacementSelector s = new PlacementSelector();
+        final Map<List<Placement>, Integer> batches = s.distribute(Arrays.asList("a", "b", "c"),
+                Arrays.asList("small"), Strategy.ROUND_ROBIN, NO_LOAD, 4);
+        assertEquals(3, batches.size());
+        assertEquals(Integer.valueOf(2), batches.get(Arrays.asList(new Placement("a", "small"),
+                        new Placement("b", "small"), new Placement("c", "small"))));
+        assertEquals(Integer.valueOf(1), batches.get(Arrays.asList(new Placement("b", "small"),
+                        new Placement("c", "small"), new Placement("a", "small"))));
+        // The next batch continues where the last one ended.
+        assertEquals("b", s.order(Arrays.asList("a", "b", "c"), Arrays.asList("small"), Strategy.ROUND_ROBIN, NO_LOAD)
+                .get(0).getLocationId());
+    }
+
+    @Test
+    public void testLeastLoadedCountsPlacedNodes() {
+        final PlacementSelector s = new PlacementSelector();
+        final Map<String, Integer> load = new HashMap<>();
+        load.put("a", 2);
+        final Map<List<Placement>, Integer> batches = s.distribute(Arrays.asList("a", "b"),
+                Arrays.<String>asList((String) null), Strategy.LEAST_LOADED, load, 4);
+        assertEquals(Integer.valueOf(3), batches.get(Arrays.asList(new Placement("b", null), new Placement("a", null))));
+        assertEquals(Integer.valueOf(1), batches.get(Arrays.asList(new Placement("a", null), new Placement("b", null))));
+        assertEquals(Integer.valueOf(2), load.get("a"));
+    }
+
+    @Test
+    public void testParseStrategy() {
+        assertEquals(Strategy.LEAST_LOADED, Strategy.parse("LEAST_LOADED"));
+        assertEquals(Strategy.LEAST_LOADED, Strategy.parse(" least_loaded "));
+        assertEquals(Strategy.ROUND_ROBIN, Strategy.parse("RANDOM"));
+        assertEquals(Strategy.ROUND_ROBIN, Strategy.parse(null));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.jclouds.compute.RunNodesException;
+import org.jclouds.compute.domain.HardwareBuilder;
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.ImageBuilder;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.domain.OperatingSystem;
+import org.jclouds.compute.domain.Template;
+import org.jclouds.compute.domain.internal.TemplateImpl;
+import org.jclouds.compute.options.TemplateOptions;
+import org.jclouds.domain.LocationBuilder;
+import org.jclouds.domain.LocationScope;
+
+import shaded.com.google.common.util.concurrent.MoreExecutors;
+
+public class ProvisionBatcherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static Set<NodeMetadata> nodes(final int count) {
+        Set<NodeMetadata> ret = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            ret.add(new NodeMetadataBuilder().id("node" + i).providerId("node" + i).name("node" + i)
+                    .status(NodeMetadata.Status.RUNNING).build());
+        }
+        return ret;
+    }
+
+    private static Template template() {
+        return new TemplateImpl(new ImageBuilder().id("image").providerId("image").name("image")
+                .operatingSystem(OperatingSystem.builder().description("test").build())
+                .status(Image.Status.AVAILABLE).build(),
+                new HardwareBuilder().id("hardware").providerId("hardware").build(),
+                new LocationBuilder().scope(LocationScope.PROVIDER).id("location").description("location").build(),
+                TemplateOptions.NONE);
+    }
+
+    private ProvisionBatcher newBatcher(final int maxBatchSize, final int failCount) {
+        return newBatcher(maxBatchSize, failCount, MoreExecutors.sameThreadExecutor());
+    }
+
+    private ProvisionBatcher newBatcher(final int maxBatchSize, final int failCount, final Executor executor) {
+        return new ProvisionBatcher(new ProvisionBatcher.NodeCreator() {
+            public Set<? extends NodeMetadata> createNodes(final int count) throws RunNodesException {
+                batches.add(count);
+                if (failCount > 0) {
+                    throw new RunNodesException("group", count, template(), nodes(count - failCount),
+                            Collections.<Object, Exception>emptyMap(),
+                            Collections.<NodeMetadata, Throwable>emptyMap());
+                }
+                return nodes(count);
+            }
+        }, 200L, maxBatchSize, scheduler, executor);
+    }
+
+    private static List<Future<NodeMetadata>> request(final ProvisionBatcher batcher, final int count) {
+        List<Future<NodeMetadata>> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ret.add(batcher.request());
+        }
+        return ret;
+    }
+
+    @Test
+    public void testRequestsWithinWindowAreCoalesced() throws Exception {
+        List<Future<NodeMetadata>> futures = request(newBatcher(20, 0), 5);
+        Set<String> ids = new LinkedHashSet<>();
+        for (Future<NodeMetadata> f : futures) {
+            ids.add(f.get(5, TimeUnit.SECONDS).getId());
+        }
+        assertEquals(5, ids.size());
+        assertEquals(Collections.singletonList(5), batches);
+    }
+
+    @Test
+    public void testMaxBatchSizeIsHonored() throws Exception {
+        List<Future<NodeMetadata>> futures = request(newBatcher(3, 0), 7);
+        for (Future<NodeMetadata> f : futures) {
+            f.get(5, TimeUnit.SECONDS);
+        }
+        int total = 0;
+        for (Integer b : batches) {
+            assertTrue(b <= 3);
+            total += b;
+        }
+        assertEquals(7, total);
+    }
+
+    @Test
+    public void testPartialFailureFailsOnlyRemainingRequests() throws Exception {
+        List<Future<NodeMetadata>> futures = request(newBatcher(20, 2), 5);
+        int ok = 0;
+        int failed = 0;
+        for (Future<NodeMetadata> f : futures) {
+            try {
+                f.get(5, TimeUnit.SECONDS);
+                ok++;
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RunNodesException);
+                failed++;
+            }
+        }
+        assertEquals(3, ok);
+        assertEquals(2, failed);
+    }
+
+    @Test
+    public void testRejectedFlushFailsPendingRequests() throws Exception {
+        final ProvisionBatcher batcher = newBatcher(2, 0, new Executor() {
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException("full");
+            }
+        });
+        for (Future<NodeMetadata> f : request(batcher, 2)) {
+            try {
+                f.get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        }
+        assertTrue(batches.isEmpty());
+    }
+}
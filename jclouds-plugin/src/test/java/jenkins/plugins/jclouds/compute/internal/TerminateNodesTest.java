@@ -1,145 +1,152 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
 package jenkins.plugins.jclouds.compute.internal;
 
-import java.util.List;
-
-import org.junit.Test;
-import org.junit.Rule;
-import org.junit.BeforeClass;
-import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assume.assumeTrue;
-
-import java.util.concurrent.ExecutionException;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
-import org.jclouds.ContextBuilder;
 import org.jclouds.compute.ComputeService;
-import org.jclouds.compute.ComputeServiceContext;
-import org.jclouds.compute.RunNodesException;
-import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.logging.Logger;
 
-import shaded.com.google.common.base.Function;
-import shaded.com.google.common.base.Functions;
 import shaded.com.google.common.cache.CacheBuilder;
 import shaded.com.google.common.cache.CacheLoader;
 import shaded.com.google.common.cache.LoadingCache;
-import shaded.com.google.common.collect.ImmutableList;
-import shaded.com.google.common.collect.ImmutableMap;
-import shaded.com.google.common.collect.Iterables;
-import shaded.com.google.common.collect.Lists;
-
-import org.jvnet.hudson.test.JenkinsRule;
+import shaded.com.google.common.collect.ImmutableMultimap;
 
 public class TerminateNodesTest {
 
-    @Rule public JenkinsRule j = new JenkinsRule();
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
 
-    private static ComputeService compute;
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final Set<String> handled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    @BeforeClass
-    public static void setUp() {
-        Boolean heavy = Boolean.getBoolean("heavyLoadTests");
-        assumeTrue(heavy.booleanValue());
-        try {
-            compute = ContextBuilder.newBuilder("stub").buildView(ComputeServiceContext.class).getComputeService();
-        } catch (NoClassDefFoundError e) {
-            // Thrown on jenkins.ci.cloudbees.com (probably due to a classloader isolation prob with guice-assistedinject)
-        }
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
     }
 
-    @Test
-    public void testSuspendOnlySuspendsNodesInQuestion() throws InterruptedException, ExecutionException, RunNodesException {
-
-        if (null != compute) {
-            List<NodeMetadata> nodes = ImmutableList.copyOf(compute.createNodesInGroup("suspend", 10));
-            List<List<NodeMetadata>> split = Lists.partition(nodes, 5);
-
-            Iterable<RunningNode> runningNodesToSuspend = Iterables.transform(split.get(0), new Function<NodeMetadata, RunningNode>() {
-
-                public RunningNode apply(NodeMetadata input) {
-                    return new RunningNode("stub", "template", true, input);
-                }
-
-            });
-
-            newTerminateNodes(compute).apply(runningNodesToSuspend);
-
-            for (NodeMetadata node : split.get(0))
-                assertEquals(NodeMetadata.Status.SUSPENDED, compute.getNodeMetadata(node.getId()).getStatus());
-            for (NodeMetadata node : split.get(1))
-                assertEquals(NodeMetadata.Status.RUNNING, compute.getNodeMetadata(node.getId()).getStatus());
-        }
-
+    /* A compute service, which fails on node "bad" and does not support suspending on cloud "nosuspend". */
+    private ComputeService compute(final String cloud) {
+        return (ComputeService) Proxy.newProxyInstance(ComputeService.class.getClassLoader(),
+                new Class<?>[] { ComputeService.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String id = (String) args[0];
+                        if ("bad".equals(id)) {
+                            throw new IllegalStateException("Node " + id + " is gone");
+                        }
+                        if ("suspendNode".equals(method.getName()) && "nosuspend".equals(cloud)) {
+                            throw new UnsupportedOperationException("suspend not supported");
+                        }
+                        handled.add(method.getName() + ":" + cloud + "/" + id);
+                        return null;
+                    }
+                });
     }
 
-    private TerminateNodes newTerminateNodes(ComputeService compute) {
-        LoadingCache<String, ComputeService> cache = CacheBuilder.newBuilder().build(
-                CacheLoader.<String, ComputeService>from(Functions.forMap(ImmutableMap.of("stub", compute))));
-        return new TerminateNodes(Logger.NULL, cache);
+    private TerminateNodes newTerminateNodes() {
+        final LoadingCache<String, ComputeService> computes = CacheBuilder.newBuilder().build(
+                new CacheLoader<String, ComputeService>() {
+                    @Override
+                    public ComputeService load(final String cloud) {
+                        if ("missing".equals(cloud)) {
+                            throw new IllegalStateException("No such cloud: " + cloud);
+                        }
+                        return compute(cloud);
+                    }
+                });
+        return new TerminateNodes(Logger.NULL, computes, executor);
     }
 
     @Test
-    public void testDestroyOnlyDestroysNodesInQuestion() throws InterruptedException, ExecutionException, RunNodesException {
-
-        if (null != compute) {
-            List<NodeMetadata> nodes = ImmutableList.copyOf(compute.createNodesInGroup("destroy", 10));
-            List<List<NodeMetadata>> split = Lists.partition(nodes, 5);
-
-            Iterable<RunningNode> runningNodesToDestroy = Iterables.transform(split.get(0), new Function<NodeMetadata, RunningNode>() {
-
-                public RunningNode apply(NodeMetadata input) {
-                    return new RunningNode("stub", "template", false, input);
-                }
-
-            });
-
-            newTerminateNodes(compute).apply(runningNodesToDestroy);
-
-            for (NodeMetadata node : split.get(0))
-                assertEquals(null, compute.getNodeMetadata(node.getId()));
-            for (NodeMetadata node : split.get(1))
-                assertEquals(NodeMetadata.Status.RUNNING, compute.getNodeMetadata(node.getId()).getStatus());
-        }
-
+    public void testFailingNodesDoNotAbortOthers() throws Exception {
+        final File f = new File(tmp.getRoot(), "nodes.xml");
+        final TerminateNodes.Persistent p = new TerminateNodes.Persistent(f,
+                ImmutableMultimap.of("c1", "s1", "c1", "bad", "c1", "s2", "nosuspend", "s3", "missing", "s4"),
+                ImmutableMultimap.of("c1", "bad", "c1", "d1", "c2", "d2"));
+        assertFalse(newTerminateNodes().terminate(p));
+        assertEquals(4, handled.size());
+        assertTrue(handled.contains("suspendNode:c1/s1"));
+        assertTrue(handled.contains("suspendNode:c1/s2"));
+        assertTrue(handled.contains("destroyNode:c1/d1"));
+        assertTrue(handled.contains("destroyNode:c2/d2"));
+
+        // Only the failed nodes are kept for a retry.
+        assertTrue(f.exists());
+        final TerminateNodes.Persistent kept = new TerminateNodes.Persistent(f);
+        assertEquals(ImmutableMultimap.of("c1", "bad", "missing", "s4"),
+                ImmutableMultimap.copyOf(kept.getNodesToSuspend()));
+        assertEquals(ImmutableMultimap.of("c1", "bad"), ImmutableMultimap.copyOf(kept.getNodesToDestroy()));
     }
 
     @Test
-    public void testSuspendAndDestroy() throws InterruptedException, ExecutionException, RunNodesException {
-
-        if (null != compute) {
-            List<NodeMetadata> nodes = ImmutableList.copyOf(compute.createNodesInGroup("suspenddestroy", 10));
-            List<List<NodeMetadata>> split = Lists.partition(nodes, 5);
-
-            Iterable<RunningNode> runningNodesToSuspend = Iterables.transform(split.get(0), new Function<NodeMetadata, RunningNode>() {
-
-                public RunningNode apply(NodeMetadata input) {
-                    return new RunningNode("stub", "template", true, input);
-                }
-
-            });
-
-            Iterable<RunningNode> runningNodesToDestroy = Iterables.transform(split.get(1), new Function<NodeMetadata, RunningNode>() {
+    public void testListIsRemovedWhenAllNodesAreHandled() throws Exception {
+        final File f = new File(tmp.getRoot(), "nodes.xml");
+        final TerminateNodes.Persistent p = new TerminateNodes.Persistent(f,
+                ImmutableMultimap.of("c1", "s1", "nosuspend", "s2"), ImmutableMultimap.of("c2", "d1"));
+        assertTrue(f.exists());
+        assertTrue(newTerminateNodes().terminate(p));
+        assertEquals(2, handled.size());
+        assertFalse(f.exists());
+    }
 
-                public RunningNode apply(NodeMetadata input) {
-                    return new RunningNode("stub", "template", false, input);
+    @Test
+    public void testInterrupted() throws Exception {
+        // Occupy both threads, so the nodes are still pending when interrupted.
+        final CountDownLatch busy = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        busy.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
                 }
-
             });
-
-            newTerminateNodes(compute).apply(Iterables.concat(runningNodesToSuspend, runningNodesToDestroy));
-
-            for (NodeMetadata node : split.get(0))
-                assertEquals(NodeMetadata.Status.SUSPENDED, compute.getNodeMetadata(node.getId()).getStatus());
-            for (NodeMetadata node : split.get(1))
-                assertEquals(null, compute.getNodeMetadata(node.getId()));
         }
-
-    }
-
-    @AfterClass
-    public static void tearDown() throws Exception {
-        if (null != compute) {
-            compute.getContext().close();
+        final File f = new File(tmp.getRoot(), "nodes.xml");
+        final TerminateNodes.Persistent p = new TerminateNodes.Persistent(f,
+                ImmutableMultimap.of("c1", "s1"), ImmutableMultimap.<String, String>of());
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(newTerminateNodes().terminate(p));
+            assertTrue(Thread.currentThread().isInterrupted());
+            assertEquals(ImmutableMultimap.of("c1", "s1"),
+                    ImmutableMultimap.copyOf(new TerminateNodes.Persistent(f).getNodesToSuspend()));
+        } finally {
+            Thread.interrupted();
+            busy.countDown();
         }
     }
 }
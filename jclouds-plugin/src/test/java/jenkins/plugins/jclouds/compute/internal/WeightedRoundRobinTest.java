@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.compute.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class WeightedRoundRobinTest {
+
+    private static Map<String, Integer> weights(final Object... kv) {
+        Map<String, Integer> ret = new LinkedHashMap<>();
+        for (int i = 0; i < kv.length; i += 2) {
+            ret.put((String) kv[i], (Integer) kv[i + 1]);
+        }
+        return ret;
+    }
+
+    @Test
+    public void testNoCandidates() {
+        assertNull(new WeightedRoundRobin().next(weights()));
+    }
+
+    @Test
+    public void testSelectionIsProportionalToWeight() {
+        final WeightedRoundRobin wrr = new WeightedRoundRobin();
+        final Map<String, Integer> w = weights("a", 5, "b", 1, "c", 1);
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 70; i++) {
+            final String s = wrr.next(w);
+            counts.put(s, counts.containsKey(s) ? counts.get(s) + 1 : 1);
+        }
+        assertEquals(Integer.valueOf(50), counts.get("a"));
+        assertEquals(Integer.valueOf(10), counts.get("b"));
+        assertEquals(Integer.valueOf(10), counts.get("c"));
+    }
+
+    @Test
+    public void testSelectionIsSmooth() {
+        final WeightedRoundRobin wrr = new WeightedRoundRobin();
+        final Map<String, Integer> w = weights("a", 5, "b", 1, "c", 1);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 7; i++) {
+            sb.append(wrr.next(w));
+        }
+        assertEquals("aabacaa", sb.toString());
+    }
+
+    @Test
+    public void testRemovedCandidateIsSkipped() {
+        final WeightedRoundRobin wrr = new WeightedRoundRobin();
+        wrr.next(weights("a", 1, "b", 1));
+        assertEquals("b", wrr.next(weights("b", 1)));
+        assertEquals("b", wrr.next(weights("b", 1)));
+    }
+}
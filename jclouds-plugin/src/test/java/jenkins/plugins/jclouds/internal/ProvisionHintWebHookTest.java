@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010-2016 Adrian Cole, Andrew Bayer, Fritz Elfert, Marat Mavlyutov, Monty Taylor, Vijay Kiran et. al.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jenkins.plugins.jclouds.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URL;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebRequest;
+
+import hudson.security.FullControlOnceLoggedInAuthorizationStrategy;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class ProvisionHintWebHookTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void setUp() {
+        j.jenkins.setCrumbIssuer(null);
+    }
+
+    private int post(final String query, final HttpMethod method) throws Exception {
+        final WebRequest req = new WebRequest(new URL(j.getURL(), ProvisionHintWebHook.URLNAME + "/?" + query), method);
+        return j.createWebClient().loadWebResponse(req).getStatusCode();
+    }
+
+    @Test
+    public void testInvalidParameters() throws Exception {
+        assertEquals(400, post("count=0", HttpMethod.POST));
+        assertEquals(400, post("count=1001", HttpMethod.POST));
+        assertEquals(400, post("count=1&ttl=soon", HttpMethod.POST));
+        assertEquals(400, post("count=1&ttl=0", HttpMethod.POST));
+    }
+
+    @Test
+    public void testNoCloudForLabel() throws Exception {
+        assertEquals(404, post("count=2&label=linux", HttpMethod.POST));
+    }
+
+    @Test
+    public void testRequiresPost() throws Exception {
+        assertEquals(405, post("count=2&label=linux", HttpMethod.GET));
+    }
+
+    @Test
+    public void testRequiresProvisionPermission() throws Exception {
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        j.jenkins.setAuthorizationStrategy(new FullControlOnceLoggedInAuthorizationStrategy());
+        // Anonymous users must not learn whether a label is served by any cloud.
+        assertEquals(403, post("count=2&label=linux", HttpMethod.POST));
+    }
+}